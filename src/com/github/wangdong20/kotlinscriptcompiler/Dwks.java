@@ -1,21 +1,27 @@
 package com.github.wangdong20.kotlinscriptcompiler;
 
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.PassManager;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
 import com.github.wangdong20.kotlinscriptcompiler.token.Token;
 import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
-import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IncrementalTypechecker;
 
 import java.io.*;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Dwks {
+    // One typechecker per source file, compiling an edited file again only re-checks what changed.
+    private static final Map<String, IncrementalTypechecker> typecheckers = new HashMap<>();
 
     private static void welcome() {
         System.out.println("This is DwKotlinScriptCompiler written by Dong Wang. This compiler is based on JVM");
         System.out.println("Please use dwks path/src.ks to compile source code file with suffix .ks");
+        System.out.println("Use dwks --target=11 path/src.ks to write Java 11 class files");
         System.out.println("Then you can use java src to run the program in JVM");
         System.out.println("Type quit to quit this compiler program\n");
     }
@@ -35,7 +41,7 @@ public class Dwks {
         return stringBuilder.toString();
     }
 
-    private static void compileSourceCode(String fileNameWithPath) {
+    private static void compileSourceCode(String fileNameWithPath, CodeGenerator.Target target) {
         try {
             File file = new File(fileNameWithPath.trim());
             String fileName = file.getName();
@@ -46,8 +52,10 @@ public class Dwks {
             tokenList.toArray(tokens);
             Parser parser = new Parser(tokens);
             Program program = parser.parseToplevelProgram();
-            Typechecker.typecheckProgram(program);
-            CodeGenerator codeGenerator = new CodeGenerator(fileName.substring(0, fileName.lastIndexOf('.')), "compiledProgram");
+            typecheckers.computeIfAbsent(file.getAbsolutePath(), k -> new IncrementalTypechecker())
+                    .typecheckProgram(program);
+            program = PassManager.standard().run(program);
+            CodeGenerator codeGenerator = new CodeGenerator(fileName.substring(0, fileName.lastIndexOf('.')), "compiledProgram", target);
             codeGenerator.writeProgram(program);
         } catch (Exception e) {
             e.printStackTrace();
@@ -100,7 +108,17 @@ public class Dwks {
                 if(!a[1].endsWith(".ks")) {
                     System.out.println("Unsupport file: " + a[1] + ", please enter file end with .ks");
                 } else {
-                    compileSourceCode(a[1]);
+                    compileSourceCode(a[1], CodeGenerator.Target.JAVA_8);
+                }
+            }
+
+            if(a.length == 3 && a[0].equals("dwks")) {
+                if(!a[1].equals("--target=11")) {
+                    System.out.println("Unsupport option: " + a[1] + ", only --target=11 is supported");
+                } else if(!a[2].endsWith(".ks")) {
+                    System.out.println("Unsupport file: " + a[2] + ", please enter file end with .ks");
+                } else {
+                    compileSourceCode(a[2], CodeGenerator.Target.JAVA_11);
                 }
             }
 
@@ -0,0 +1,130 @@
+package com.github.wangdong20.kotlinscriptcompiler.analysis;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.List;
+
+/**
+ * Walk every statement and expression of a tree in source order. Subclasses override visitStmt and
+ * visitExp to look at the nodes they care about, returning false skips the children of that node.
+ * Assignment targets are visited as expressions too, so a subclass that needs to tell reads from
+ * writes should look at AssignStmt, CompoundAssignStmt and SelfOperationExp itself.
+ */
+public abstract class AstScanner {
+
+    protected boolean visitStmt(Stmt s) {
+        return true;
+    }
+
+    protected boolean visitExp(Exp e) {
+        return true;
+    }
+
+    public void scanStmts(List<Stmt> stmts) {
+        if(stmts != null) {
+            for (Stmt s : stmts) {
+                scanStmt(s);
+            }
+        }
+    }
+
+    public void scanStmt(Stmt s) {
+        if(s == null || !visitStmt(s)) {
+            return;
+        }
+        if(s instanceof AssignStmt) {
+            scanExp(((AssignStmt) s).getExpression());
+            scanExp((Exp) ((AssignStmt) s).getVariable());
+        } else if(s instanceof CompoundAssignStmt) {
+            scanExp(((CompoundAssignStmt) s).getExpression());
+            scanExp((Exp) ((CompoundAssignStmt) s).getVariable());
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            if(asFor.getArrayExp() != null) {
+                scanExp(asFor.getArrayExp());
+            } else {
+                scanExp(asFor.getRangeExp());
+                scanExp(asFor.getStepExp());
+            }
+            scanStmt(asFor.getBlockStmt());
+        } else if(s instanceof WhileStmt) {
+            scanExp(((WhileStmt) s).getCondition());
+            scanStmt(((WhileStmt) s).getBlockStmt());
+        } else if(s instanceof IfStmt) {
+            scanExp(((IfStmt) s).getCondition());
+            scanStmt(((IfStmt) s).getTrueBranch());
+            scanStmt(((IfStmt) s).getFalseBranch());
+        } else if(s instanceof BlockStmt) {
+            scanStmts(((BlockStmt) s).getStmtList());
+        } else if(s instanceof FunctionDeclareStmt) {
+            scanStmt(((FunctionDeclareStmt) s).getBlockStmt());
+        } else if(s instanceof ReturnStmt) {
+            scanExp(((ReturnStmt) s).getReturnExp());
+        } else if(s instanceof PrintStmt) {
+            scanExp(((PrintStmt) s).getValue());
+        } else if(s instanceof PrintlnStmt) {
+            scanExp(((PrintlnStmt) s).getValue());
+        } else if(s instanceof FunctionInstanceStmt) {
+            scanExp(((FunctionInstanceStmt) s).getFunctionInstanceExp());
+        } else if(s instanceof SelfOperationStmt) {
+            scanExp(((SelfOperationStmt) s).getSelfOperationExp());
+        }
+        // VariableDeclareStmt and ControlLoopStmt have no children
+    }
+
+    public void scanExp(Exp e) {
+        if(e == null || !visitExp(e)) {
+            return;
+        }
+        if(e instanceof BinaryIntExp) {
+            scanExp(((BinaryIntExp) e).getLeft());
+            scanExp(((BinaryIntExp) e).getRight());
+        } else if(e instanceof ComparableExp) {
+            scanExp(((ComparableExp) e).getLeft());
+            scanExp(((ComparableExp) e).getRight());
+        } else if(e instanceof BiLogicalExp) {
+            scanExp(((BiLogicalExp) e).getLeft());
+            scanExp(((BiLogicalExp) e).getRight());
+        } else if(e instanceof NotExp) {
+            scanExp(((NotExp) e).getValue());
+        } else if(e instanceof ArrayWithIndexExp) {
+            scanExp(((ArrayWithIndexExp) e).getVariableExp());
+            scanExp(((ArrayWithIndexExp) e).getIndexExp());
+        } else if(e instanceof SelfOperationExp) {
+            scanExp((Exp) ((SelfOperationExp) e).getVariableExp());
+        } else if(e instanceof FunctionInstanceExp) {
+            if(((FunctionInstanceExp) e).getParameterList() != null) {
+                for (Exp parameter : ((FunctionInstanceExp) e).getParameterList()) {
+                    scanExp(parameter);
+                }
+            }
+        } else if(e instanceof ArrayOfExp) {
+            for (Exp element : ((ArrayOfExp) e).getExpList()) {
+                scanExp(element);
+            }
+        } else if(e instanceof MutableListOfExp) {
+            for (Exp element : ((MutableListOfExp) e).getExpList()) {
+                scanExp(element);
+            }
+        } else if(e instanceof ArrayExp) {
+            scanExp(((ArrayExp) e).getSize());
+            scanExp(((ArrayExp) e).getLambdaExp());
+        } else if(e instanceof MutableListExp) {
+            scanExp(((MutableListExp) e).getSize());
+            scanExp(((MutableListExp) e).getLambdaExp());
+        } else if(e instanceof LambdaExp) {
+            scanExp(((LambdaExp) e).getReturnExp());
+        } else if(e instanceof RangeExp) {
+            scanExp(((RangeExp) e).getStart());
+            scanExp(((RangeExp) e).getEnd());
+        } else if(e instanceof StringExp) {
+            if(((StringExp) e).getInterpolationExp() != null) {
+                for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                    scanExp(interpolation);
+                }
+            }
+        }
+        // IntExp, BooleanExp and VariableExp are leaves
+    }
+}
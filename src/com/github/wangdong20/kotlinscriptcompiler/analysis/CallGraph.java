@@ -0,0 +1,137 @@
+package com.github.wangdong20.kotlinscriptcompiler.analysis;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.FunctionInstanceExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+
+import java.util.*;
+
+/**
+ * Call sites (FunctionInstanceExp) to function declarations of a program. Functions are identified by
+ * name, overloads with the same name share one node, which is conservative for every user of the graph.
+ * Calls through variables of function type have no declaration and are not part of the graph.
+ */
+public class CallGraph {
+    private final Map<String, List<FunctionDeclareStmt>> functions;
+    private final Map<String, Set<String>> callees;
+    private final Map<String, Set<String>> callers;
+    private final Set<String> toplevelCallees;
+
+    private CallGraph() {
+        functions = new LinkedHashMap<>();
+        callees = new HashMap<>();
+        callers = new HashMap<>();
+        toplevelCallees = new TreeSet<>();
+    }
+
+    public static CallGraph build(final Program program) {
+        CallGraph graph = new CallGraph();
+        for (Stmt s : program.getStmtList()) {
+            if(s instanceof FunctionDeclareStmt) {
+                String name = ((FunctionDeclareStmt) s).getFuncName().getName();
+                graph.functions.computeIfAbsent(name, k -> new ArrayList<>()).add((FunctionDeclareStmt) s);
+            }
+        }
+        for (String name : graph.functions.keySet()) {
+            graph.callees.put(name, new TreeSet<>());
+            graph.callers.put(name, new TreeSet<>());
+        }
+        for (Stmt s : program.getStmtList()) {
+            if(s instanceof FunctionDeclareStmt) {
+                String caller = ((FunctionDeclareStmt) s).getFuncName().getName();
+                for (String callee : calledNames(s)) {
+                    if(graph.functions.containsKey(callee)) {
+                        graph.callees.get(caller).add(callee);
+                        graph.callers.get(callee).add(caller);
+                    }
+                }
+            } else {
+                for (String callee : calledNames(s)) {
+                    if(graph.functions.containsKey(callee)) {
+                        graph.toplevelCallees.add(callee);
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Names of every function called inside s, whether or not it is declared.
+     */
+    public static Set<String> calledNames(final Stmt s) {
+        final Set<String> names = new TreeSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof FunctionInstanceExp) {
+                    names.add(((FunctionInstanceExp) e).getFuncName().getName());
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return names;
+    }
+
+    public Set<String> getFunctionNames() {
+        return functions.keySet();
+    }
+
+    public List<FunctionDeclareStmt> getFunctions(final String name) {
+        List<FunctionDeclareStmt> declarations = functions.get(name);
+        return declarations == null ? Collections.emptyList() : declarations;
+    }
+
+    public boolean isDeclared(final String name) {
+        return functions.containsKey(name);
+    }
+
+    public Set<String> getCallees(final String name) {
+        Set<String> result = callees.get(name);
+        return result == null ? Collections.emptySet() : result;
+    }
+
+    public Set<String> getCallers(final String name) {
+        Set<String> result = callers.get(name);
+        return result == null ? Collections.emptySet() : result;
+    }
+
+    public Set<String> getToplevelCallees() {
+        return toplevelCallees;
+    }
+
+    /**
+     * Whether the function can call itself, directly or through other functions.
+     */
+    public boolean isRecursive(final String name) {
+        Set<String> seen = new TreeSet<>();
+        Deque<String> worklist = new ArrayDeque<>(getCallees(name));
+        while (!worklist.isEmpty()) {
+            String callee = worklist.poll();
+            if(callee.equals(name)) {
+                return true;
+            } else if(seen.add(callee)) {
+                worklist.addAll(getCallees(callee));
+            }
+        }
+        return false;
+    } // isRecursive
+
+    /**
+     * Names of the functions a run of the program can call, directly or through other functions.
+     */
+    public Set<String> reachableFromToplevel() {
+        Set<String> reachable = new TreeSet<>(toplevelCallees);
+        Deque<String> worklist = new ArrayDeque<>(toplevelCallees);
+        while (!worklist.isEmpty()) {
+            for (String callee : getCallees(worklist.poll())) {
+                if(reachable.add(callee)) {
+                    worklist.add(callee);
+                }
+            }
+        }
+        return reachable;
+    } // reachableFromToplevel
+}
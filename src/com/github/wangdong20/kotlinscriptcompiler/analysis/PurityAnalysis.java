@@ -0,0 +1,228 @@
+package com.github.wangdong20.kotlinscriptcompiler.analysis;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Find the user functions without side effects. A function is pure when it does not print, only writes
+ * its own local variables and the arrays it creates itself, and only calls pure functions. It is also
+ * referentially transparent when its result depends on nothing but its arguments: it reads no variable
+ * declared outside of it, no array it did not create, and only calls referentially transparent functions,
+ * so a call with the same arguments can be evaluated once, at compile time or hoisted out of a loop.
+ *
+ * Termination is not part of either property. Overloads share one name, so a name is pure only when all
+ * of them are, and calls through variables of function type make the caller impure.
+ */
+public class PurityAnalysis {
+    private final Set<String> pure;
+    private final Set<String> transparent;
+
+    private PurityAnalysis() {
+        pure = new TreeSet<>();
+        transparent = new TreeSet<>();
+    }
+
+    public static PurityAnalysis analyze(final Program program) {
+        return analyze(CallGraph.build(program));
+    }
+
+    public static PurityAnalysis analyze(final CallGraph callGraph) {
+        PurityAnalysis analysis = new PurityAnalysis();
+        // start from the functions whose own bodies qualify, then remove callers of the others until nothing changes
+        for (String name : callGraph.getFunctionNames()) {
+            boolean isPure = true;
+            boolean isTransparent = true;
+            for (FunctionDeclareStmt function : callGraph.getFunctions(name)) {
+                Effects effects = new Effects(function, callGraph);
+                isPure &= !effects.sideEffect;
+                isTransparent &= !effects.sideEffect && !effects.readsState;
+            }
+            if(isPure) {
+                analysis.pure.add(name);
+            }
+            if(isTransparent) {
+                analysis.transparent.add(name);
+            }
+        }
+        removeImpureCallers(callGraph, analysis.pure);
+        removeImpureCallers(callGraph, analysis.transparent);
+        return analysis;
+    } // analyze
+
+    private static void removeImpureCallers(final CallGraph callGraph, final Set<String> candidates) {
+        Deque<String> worklist = new ArrayDeque<>();
+        for (String name : callGraph.getFunctionNames()) {
+            if(!candidates.contains(name)) {
+                worklist.add(name);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            for (String caller : callGraph.getCallers(worklist.poll())) {
+                if(candidates.remove(caller)) {
+                    worklist.add(caller);
+                }
+            }
+        }
+    } // removeImpureCallers
+
+    public boolean isPure(final String name) {
+        return pure.contains(name);
+    }
+
+    public boolean isReferentiallyTransparent(final String name) {
+        return transparent.contains(name);
+    }
+
+    public Set<String> getPureFunctions() {
+        return Collections.unmodifiableSet(pure);
+    }
+
+    /**
+     * Parameters of the function and every name declared in its body, including loop iterators and
+     * lambda parameters. Only these are safe from calls: a function may also assign top-level variables,
+     * which a call of a function that is not pure can change too.
+     */
+    public static Set<String> localNames(final FunctionDeclareStmt function) {
+        final Set<String> names = new HashSet<>();
+        if(function.getParameterList() != null) {
+            for (Exp parameter : function.getParameterList().keySet()) {
+                names.add(((VariableExp) parameter).getName());
+            }
+        }
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt && ((AssignStmt) s).isNew() && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+                } else if(s instanceof VariableDeclareStmt) {
+                    names.add(((VariableDeclareStmt) s).getVariableExp().getName());
+                } else if(s instanceof ForStmt) {
+                    names.add(((ForStmt) s).getIteratorExp().getName());
+                }
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof LambdaExp && ((LambdaExp) e).getParameterList() != null) {
+                    for (VariableExp parameter : ((LambdaExp) e).getParameterList().keySet()) {
+                        names.add(parameter.getName());
+                    }
+                }
+                return true;
+            }
+        }.scanStmt(function.getBlockStmt());
+        return names;
+    } // localNames
+
+    /**
+     * Variables the function reads or writes without declaring them, the top-level ones declared before it.
+     * Names are never shadowed, so a name declared in the body is never also one of these.
+     */
+    public static Set<String> globalNames(final FunctionDeclareStmt function) {
+        final Set<String> locals = localNames(function);
+        final Set<String> names = new TreeSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp && !locals.contains(((VariableExp) e).getName())) {
+                    names.add(((VariableExp) e).getName());
+                }
+                return true;
+            }
+        }.scanStmt(function.getBlockStmt());
+        return names;
+    } // globalNames
+
+    // What one function body does by itself, ignoring what its callees do.
+    private static class Effects extends AstScanner {
+        private final CallGraph callGraph;
+        private final Set<String> locals;
+        private final Set<String> ownArrays;
+        private boolean sideEffect;
+        private boolean readsState;
+
+        private Effects(final FunctionDeclareStmt function, final CallGraph callGraph) {
+            this.callGraph = callGraph;
+            locals = localNames(function);
+            ownArrays = new HashSet<>();
+            findOwnArrays(function);
+            scanStmt(function.getBlockStmt());
+        }
+
+        // The arrays only ever assigned an array created right there in the body.
+        private void findOwnArrays(final FunctionDeclareStmt function) {
+            final Set<String> otherArrays = new HashSet<>();
+            new AstScanner() {
+                @Override
+                protected boolean visitStmt(Stmt s) {
+                    if(s instanceof AssignStmt && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                        String name = ((VariableExp) ((AssignStmt) s).getVariable()).getName();
+                        if(isNewArray(((AssignStmt) s).getExpression())) {
+                            ownArrays.add(name);
+                        } else {
+                            otherArrays.add(name);
+                        }
+                    }
+                    return true;
+                }
+            }.scanStmt(function.getBlockStmt());
+            ownArrays.removeAll(otherArrays);
+            if(function.getParameterList() != null) {
+                for (Exp parameter : function.getParameterList().keySet()) {
+                    ownArrays.remove(((VariableExp) parameter).getName());
+                }
+            }
+            ownArrays.retainAll(locals);
+        } // findOwnArrays
+
+        private static boolean isNewArray(final Exp e) {
+            return e instanceof ArrayExp || e instanceof ArrayOfExp || e instanceof MutableListExp || e instanceof MutableListOfExp;
+        }
+
+        private void checkWrite(final Variable target) {
+            if(target instanceof ArrayWithIndexExp) {
+                if(!ownArrays.contains(((ArrayWithIndexExp) target).getVariableExp().getName())) {
+                    sideEffect = true;
+                }
+            } else if(!locals.contains(((VariableExp) target).getName())) {
+                sideEffect = true;
+            }
+        } // checkWrite
+
+        @Override
+        protected boolean visitStmt(Stmt s) {
+            if(s instanceof PrintStmt || s instanceof PrintlnStmt) {
+                sideEffect = true;
+            } else if(s instanceof AssignStmt && !((AssignStmt) s).isNew()) {
+                checkWrite(((AssignStmt) s).getVariable());
+            } else if(s instanceof CompoundAssignStmt) {
+                checkWrite(((CompoundAssignStmt) s).getVariable());
+            }
+            return true;
+        }
+
+        @Override
+        protected boolean visitExp(Exp e) {
+            if(e instanceof SelfOperationExp) {
+                checkWrite(((SelfOperationExp) e).getVariableExp());
+            } else if(e instanceof FunctionInstanceExp) {
+                if(!callGraph.isDeclared(((FunctionInstanceExp) e).getFuncName().getName())) {
+                    sideEffect = true;      // call through a variable, could be anything
+                }
+            } else if(e instanceof ArrayWithIndexExp) {
+                if(!ownArrays.contains(((ArrayWithIndexExp) e).getVariableExp().getName())) {
+                    readsState = true;
+                }
+            } else if(e instanceof VariableExp) {
+                if(!locals.contains(((VariableExp) e).getName())) {
+                    readsState = true;
+                }
+            }
+            return true;
+        }
+    }
+}
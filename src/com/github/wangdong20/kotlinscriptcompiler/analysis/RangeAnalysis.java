@@ -0,0 +1,309 @@
+package com.github.wangdong20.kotlinscriptcompiler.analysis;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Prove array accesses in range. Arrays created with Array(size, {...}) or arrayOf(...) get their length,
+ * iterators of range loops get the interval [start, end), and an access arr[i + c] is in range when both
+ * ends of that interval fit in the length of arr. Bounds are compared as expression + constant, so
+ * Array(n + 1, ...) together with for(i in 0..n + 1) is proven without knowing n.
+ *
+ * Only expressions made of literals and variables that are never assigned after their declaration are
+ * used as bounds, so they have the same value wherever they are evaluated.
+ */
+public class RangeAnalysis {
+    private final Set<String> assigned;
+    private final Set<ArrayWithIndexExp> provenInRange;
+    private final Map<ForStmt, VariableExp> lengthBounds;
+
+    private RangeAnalysis(final Set<String> assigned) {
+        this.assigned = assigned;
+        provenInRange = Collections.newSetFromMap(new IdentityHashMap<>());
+        lengthBounds = new IdentityHashMap<>();
+    }
+
+    public static RangeAnalysis analyze(final Program program) {
+        RangeAnalysis analysis = new RangeAnalysis(assignedNames(program.getStmtList()));
+        Map<VariableExp, Exp> facts = new HashMap<>();
+        for (Stmt s : program.getStmtList()) {
+            if(s instanceof FunctionDeclareStmt) {
+                analysis.analyzeStmt(new HashMap<>(), s);
+            } else {
+                facts = analysis.analyzeStmt(facts, s);
+            }
+        }
+        return analysis;
+    } // analyze
+
+    /**
+     * Whether this access (the very node of the program analyzed) can never be out of range.
+     */
+    public boolean isProvenInRange(final ArrayWithIndexExp access) {
+        return provenInRange.contains(access);
+    }
+
+    /**
+     * Array whose length is the end of this range loop and that is indexed in the body, null if none.
+     * The loop can test the iterator against arr.length instead of a copy of the end.
+     */
+    public VariableExp getLengthBound(final ForStmt forStmt) {
+        return lengthBounds.get(forStmt);
+    }
+
+    // facts map an array to its length expression, and an iterator to the RangeExp [start, end) it stays in.
+    private Map<VariableExp, Exp> analyzeStmt(final Map<VariableExp, Exp> facts, final Stmt s) {
+        if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            checkAccesses(facts, asAssign.getExpression());
+            checkAccesses(facts, (Exp) asAssign.getVariable());
+            if(asAssign.isNew()) {
+                Map<VariableExp, Exp> after = new HashMap<>(facts);
+                after.remove(asAssign.getVariable());
+                Exp length = lengthOf(asAssign.getExpression());
+                if(length != null && isStable(length)) {
+                    after.put((VariableExp) asAssign.getVariable(), length);
+                }
+                return after;
+            }
+        } else if(s instanceof CompoundAssignStmt) {
+            checkAccesses(facts, ((CompoundAssignStmt) s).getExpression());
+            checkAccesses(facts, (Exp) ((CompoundAssignStmt) s).getVariable());
+        } else if(s instanceof ForStmt) {
+            analyzeForStmt(facts, (ForStmt) s);
+        } else if(s instanceof WhileStmt) {
+            checkAccesses(facts, ((WhileStmt) s).getCondition());
+            analyzeBlockStmt(facts, ((WhileStmt) s).getBlockStmt());
+        } else if(s instanceof IfStmt) {
+            checkAccesses(facts, ((IfStmt) s).getCondition());
+            analyzeBlockStmt(facts, ((IfStmt) s).getTrueBranch());
+            analyzeBlockStmt(facts, ((IfStmt) s).getFalseBranch());
+        } else if(s instanceof BlockStmt) {
+            analyzeBlockStmt(facts, (BlockStmt) s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            analyzeBlockStmt(facts, ((FunctionDeclareStmt) s).getBlockStmt());
+        } else if(s instanceof ReturnStmt) {
+            checkAccesses(facts, ((ReturnStmt) s).getReturnExp());
+        } else if(s instanceof PrintStmt) {
+            checkAccesses(facts, ((PrintStmt) s).getValue());
+        } else if(s instanceof PrintlnStmt) {
+            checkAccesses(facts, ((PrintlnStmt) s).getValue());
+        } else if(s instanceof FunctionInstanceStmt) {
+            checkAccesses(facts, ((FunctionInstanceStmt) s).getFunctionInstanceExp());
+        } else if(s instanceof SelfOperationStmt) {
+            checkAccesses(facts, ((SelfOperationStmt) s).getSelfOperationExp());
+        } else if(s instanceof VariableDeclareStmt) {
+            Map<VariableExp, Exp> after = new HashMap<>(facts);
+            after.remove(((VariableDeclareStmt) s).getVariableExp());
+            return after;
+        }
+        return facts;
+    } // analyzeStmt
+
+    private void analyzeBlockStmt(final Map<VariableExp, Exp> facts, final BlockStmt blockStmt) {
+        if(blockStmt != null && blockStmt.getStmtList() != null) {
+            Map<VariableExp, Exp> scope = facts;
+            for (Stmt s : blockStmt.getStmtList()) {
+                scope = analyzeStmt(scope, s);
+            }
+        }
+    } // analyzeBlockStmt
+
+    private void analyzeForStmt(final Map<VariableExp, Exp> facts, final ForStmt forStmt) {
+        final VariableExp iterator = forStmt.getIteratorExp();
+        // the iterator hides any outer variable with the same name
+        Map<VariableExp, Exp> inLoop = new HashMap<>();
+        for (Map.Entry<VariableExp, Exp> fact : facts.entrySet()) {
+            if(!fact.getKey().equals(iterator) && !mentions(fact.getValue(), iterator)) {
+                inLoop.put(fact.getKey(), fact.getValue());
+            }
+        }
+        if(forStmt.getArrayExp() == null) {
+            Exp start = forStmt.getRangeExp().getStart();
+            Exp end = forStmt.getRangeExp().getEnd();
+            Exp step = forStmt.getStepExp();
+            checkAccesses(facts, start);
+            checkAccesses(facts, end);
+            checkAccesses(facts, step);
+            if(isStable(end) && !mentions(end, iterator)) {
+                if(!assigned.contains(iterator.getName()) && isStable(start) && !mentions(start, iterator)
+                        && stepKeepsRange(step, end)) {
+                    inLoop.put(iterator, forStmt.getRangeExp());
+                }
+                VariableExp bound = findLengthBound(inLoop, forStmt, end);
+                if(bound != null) {
+                    lengthBounds.put(forStmt, bound);
+                }
+            }
+        }
+        analyzeBlockStmt(inLoop, forStmt.getBlockStmt());
+    } // analyzeForStmt
+
+    // A positive step can only overflow past a symbolic end, so steps other than 1 need a literal end.
+    private static boolean stepKeepsRange(final Exp step, final Exp end) {
+        if(step == null) {
+            return true;
+        } else if(step instanceof IntExp && ((IntExp) step).getValue() == 1) {
+            return true;
+        } else {
+            return step instanceof IntExp && ((IntExp) step).getValue() > 0 && end instanceof IntExp
+                    && (long) ((IntExp) end).getValue() + ((IntExp) step).getValue() <= Integer.MAX_VALUE;
+        }
+    } // stepKeepsRange
+
+    private VariableExp findLengthBound(final Map<VariableExp, Exp> inLoop, final ForStmt forStmt, final Exp end) {
+        final Linear limit = Linear.of(end);
+        final VariableExp[] bound = new VariableExp[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(bound[0] == null && e instanceof ArrayWithIndexExp) {
+                    VariableExp array = ((ArrayWithIndexExp) e).getVariableExp();
+                    Exp length = inLoop.get(array);
+                    if(length != null && !(length instanceof RangeExp) && !assigned.contains(array.getName())
+                            && limit.equals(Linear.of(length))) {
+                        bound[0] = array;
+                    }
+                }
+                return !(e instanceof LambdaExp);
+            }
+        }.scanStmt(forStmt.getBlockStmt());
+        return bound[0];
+    } // findLengthBound
+
+    private void checkAccesses(final Map<VariableExp, Exp> facts, final Exp exp) {
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof ArrayWithIndexExp && isInRange(facts, (ArrayWithIndexExp) e)) {
+                    provenInRange.add((ArrayWithIndexExp) e);
+                }
+                // lambda parameters may hide the variables facts are about
+                return !(e instanceof LambdaExp);
+            }
+        }.scanExp(exp);
+    } // checkAccesses
+
+    private boolean isInRange(final Map<VariableExp, Exp> facts, final ArrayWithIndexExp access) {
+        Exp length = facts.get(access.getVariableExp());
+        if(length == null || length instanceof RangeExp || assigned.contains(access.getVariableExp().getName())) {
+            return false;
+        }
+        Linear size = Linear.of(length);
+        Linear index = Linear.of(access.getIndexExp());
+        if(index.base == null) {
+            return size.base == null && index.offset >= 0 && index.offset < size.offset;
+        }
+        Exp range = facts.get(index.base);
+        if(!(range instanceof RangeExp)) {
+            return false;
+        }
+        Linear start = Linear.of(((RangeExp) range).getStart());
+        Linear end = Linear.of(((RangeExp) range).getEnd());
+        // lowest index is start + offset, highest is end - 1 + offset
+        return start.base == null && start.offset + index.offset >= 0
+                && Objects.equals(end.base, size.base) && end.offset + index.offset <= size.offset;
+    } // isInRange
+
+    private static Exp lengthOf(final Exp e) {
+        if(e instanceof ArrayExp) {
+            return ((ArrayExp) e).getSize();
+        } else if(e instanceof ArrayOfExp) {
+            return new IntExp(((ArrayOfExp) e).getExpList().size());
+        }
+        return null;
+    } // lengthOf
+
+    private boolean isStable(final Exp e) {
+        if(e instanceof IntExp) {
+            return true;
+        } else if(e instanceof VariableExp) {
+            return !assigned.contains(((VariableExp) e).getName());
+        } else if(e instanceof BinaryIntExp) {
+            return isStable(((BinaryIntExp) e).getLeft()) && isStable(((BinaryIntExp) e).getRight());
+        }
+        return false;
+    } // isStable
+
+    private static boolean mentions(final Exp e, final VariableExp variable) {
+        final boolean[] found = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp exp) {
+                if(exp.equals(variable)) {
+                    found[0] = true;
+                }
+                return !found[0];
+            }
+        }.scanExp(e);
+        return found[0];
+    } // mentions
+
+    // Names written after their declaration anywhere in the program, whatever scope they are in.
+    private static Set<String> assignedNames(final List<Stmt> stmts) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt && !((AssignStmt) s).isNew() && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+                } else if(s instanceof CompoundAssignStmt && ((CompoundAssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((CompoundAssignStmt) s).getVariable()).getName());
+                }
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof SelfOperationExp && ((SelfOperationExp) e).getVariableExp() instanceof VariableExp) {
+                    names.add(((VariableExp) ((SelfOperationExp) e).getVariableExp()).getName());
+                }
+                return true;
+            }
+        }.scanStmts(stmts);
+        return names;
+    } // assignedNames
+
+    // e as base + offset, base is null for a literal
+    private static class Linear {
+        private final Exp base;
+        private final long offset;
+
+        private Linear(Exp base, long offset) {
+            this.base = base;
+            this.offset = offset;
+        }
+
+        private static Linear of(final Exp e) {
+            if(e instanceof IntExp) {
+                return new Linear(null, ((IntExp) e).getValue());
+            } else if(e instanceof AdditiveExp && ((AdditiveExp) e).getRight() instanceof IntExp) {
+                Linear left = of(((AdditiveExp) e).getLeft());
+                int right = ((IntExp) ((AdditiveExp) e).getRight()).getValue();
+                return new Linear(left.base, ((AdditiveExp) e).getOp() == AdditiveOp.EXP_PLUS ?
+                        left.offset + right : left.offset - right);
+            } else if(e instanceof AdditiveExp && ((AdditiveExp) e).getLeft() instanceof IntExp
+                    && ((AdditiveExp) e).getOp() == AdditiveOp.EXP_PLUS) {
+                Linear right = of(((AdditiveExp) e).getRight());
+                return new Linear(right.base, right.offset + ((IntExp) ((AdditiveExp) e).getLeft()).getValue());
+            }
+            return new Linear(e, 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(obj instanceof Linear) {
+                return Objects.equals(base, ((Linear) obj).base) && offset == ((Linear) obj).offset;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(base == null ? null : base.toString(), offset);
+        }
+    }
+}
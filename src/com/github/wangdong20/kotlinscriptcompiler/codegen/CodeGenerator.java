@@ -1,13 +1,20 @@
 package com.github.wangdong20.kotlinscriptcompiler.codegen;
 
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.RangeAnalysis;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
 import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeInterner;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeMutableList;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
@@ -15,15 +22,71 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static org.objectweb.asm.Opcodes.*;
 
 public class CodeGenerator {
     private static final String EMPTY_VOID = "()V";
+    // recipe tags of StringConcatFactory.makeConcatWithConstants
+    private static final char CONCAT_ARG = '\u0001';
+    private static final char CONCAT_CONSTANT = '\u0002';
+    // one invokedynamic takes at most 200 argument slots, longer concatenations are split
+    private static final int MAX_CONCAT_ARGS = 199;
+    // Array(size) {constant} of a literal size at least this large is filled by doubling System.arraycopy calls
+    private static final int MIN_DOUBLING_FILL_SIZE = 4096;
+    // arrayOf(...) of at least this many literals is decoded once from a string constant by <clinit>
+    private static final int MIN_STATIC_ARRAY_SIZE = 64;
+    // longest string constant in the constant pool, in bytes of modified UTF-8
+    private static final int MAX_STRING_CONSTANT_BYTES = 65535;
+    private static final Handle CONCAT_BOOTSTRAP = new Handle(H_INVOKESTATIC,
+            "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                    "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+            false);
+    private static final Handle LAMBDA_BOOTSTRAP = new Handle(H_INVOKESTATIC,
+            "java/lang/invoke/LambdaMetafactory",
+            "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                    "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)" +
+                    "Ljava/lang/invoke/CallSite;",
+            false);
+
+    /**
+     * Class file version to write. Java 8 class files build strings with StringBuilder chains,
+     * from Java 11 on string templates and string + compile to one invokedynamic through StringConcatFactory.
+     */
+    public enum Target {
+        JAVA_8(V1_8),
+        JAVA_11(V11);
+
+        private final int version;
+
+        Target(final int version) {
+            this.version = version;
+        }
+
+        public boolean hasStringConcatFactory() {
+            return this != JAVA_8;
+        }
+    }
+
+    private final Target target;
     private final String outputClassName;
     private final String outputFunctionName;
 
@@ -31,18 +94,56 @@ public class CodeGenerator {
     private final ClassWriter classWriter;
     private Map<Variable, VariableEntry> variables;
     private int nextIndex;
+    // top-level variables used by functions live in private static fields, declared by the entry point
+    private final Set<String> sharedNames;
+    private final Map<Variable, VariableEntry> fields;
+    private boolean inEntryPoint;
+    // internal names of the runtime classes the program uses, written next to it by writeProgram
+    private final Set<String> runtimeClasses;
+    // interfaces of function types with more parameters than java.util.function has, by internal name
+    private final Map<String, FunctionInterface> generatedInterfaces;
+    // open blocks, loops and Array(size, lambda) of the method being written, innermost first
+    private final Deque<Scope> scopes;
     private MethodVisitor methodVisitor;
+    private RangeAnalysis rangeAnalysis;
+    // function being written, with the start of its body and the statements it returns after, for tail calls
+    private FunctionDeclareStmt currentFunction;
+    private Label functionBody;
+    private Set<Stmt> tailStmts;
+    // lambdas whose methods are written once the method creating them is done
+    private final Deque<Lambda> pendingLambdas;
+    private int nextLambda;
+    // variables the method being written assigns after declaring them, a lambda cannot capture those
+    private Set<String> reassigned;
+    // static fields of the large literal arrays, by their type descriptor and encoded elements
+    private final Map<String, StaticArray> staticArrays;
 
     public CodeGenerator(final String outputClassName,
                          final String outputFunctionName) {
+        this(outputClassName, outputFunctionName, Target.JAVA_8);
+    }
+
+    public CodeGenerator(final String outputClassName,
+                         final String outputFunctionName,
+                         final Target target) {
         this.outputClassName = outputClassName;
+        this.target = target;
         this.outputFunctionName = outputFunctionName;
         classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         variables = null;
         nextIndex = 0;
+        scopes = new ArrayDeque<>();
+        sharedNames = new HashSet<>();
+        fields = new HashMap<>();
+        runtimeClasses = new TreeSet<>();
+        generatedInterfaces = new TreeMap<>();
+        pendingLambdas = new ArrayDeque<>();
+        nextLambda = 0;
+        reassigned = Collections.emptySet();
+        staticArrays = new LinkedHashMap<>();
 
         functionTable = new HashMap<>();
-        classWriter.visit(V1_8, // Java 1.8 in my laptop
+        classWriter.visit(target.version, // Java 1.8 in my laptop unless asked for more
                 ACC_PUBLIC, // public
                 outputClassName, // class name
                 null, // signature (null means not generic)
@@ -89,14 +190,17 @@ public class CodeGenerator {
 
     private void functionStart(final FunctionDeclareStmt function) throws CodeGeneratorException {
         functionStart(function,
-                Descriptor.toDescriptorString(function));
+                Descriptor.toDescriptorString(function),
+                ACC_PUBLIC | ACC_STATIC);
     } // functionStart
 
     private void functionStart(final FunctionDeclareStmt function,
-                               final String descriptor)
+                               final String descriptor,
+                               final int access)
             throws CodeGeneratorException {
         assert(variables == null);
         assert(nextIndex == 0);
+        assert(scopes.isEmpty());
         assert(methodVisitor == null);
 
         variables = new HashMap<>();
@@ -106,7 +210,7 @@ public class CodeGenerator {
             }
         }
 
-        methodVisitor = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC,
+        methodVisitor = classWriter.visitMethod(access,
                 function.getFuncName().getName(),
                 descriptor,
                 null,
@@ -116,6 +220,7 @@ public class CodeGenerator {
 
     private void functionEnd() {
         assert(variables != null);
+        assert(scopes.isEmpty());
         assert(methodVisitor != null);
 
         methodVisitor.visitMaxs(0, 0);
@@ -124,13 +229,19 @@ public class CodeGenerator {
         methodVisitor = null;
     } // functionEnd
 
-    private VariableEntry getEntryFor(final Variable variable) throws CodeGeneratorException {
+    // Locals first, a function only sees the top-level variables declared before it and cannot redeclare them.
+    private VariableEntry lookup(final Variable variable) {
         final VariableEntry entry = variables.get(variable);
+        return entry != null ? entry : fields.get(variable);
+    } // lookup
+
+    private VariableEntry getEntryFor(final Variable variable) throws CodeGeneratorException {
+        final VariableEntry entry = lookup(variable);
         if (entry != null) {
             return entry;
         } else if(variable instanceof ArrayWithIndexExp) {
-            VariableEntry arrayEntry = variables.get(((ArrayWithIndexExp) variable).getVariableExp());
-            return new VariableEntry(variable, arrayEntry.type, arrayEntry.index);
+            VariableEntry arrayEntry = lookup(((ArrayWithIndexExp) variable).getVariableExp());
+            return arrayEntry.withVariable(variable);
         } else {
             // should be caught by typechecker
             throw new CodeGeneratorException("no such variable declared: " + variable);
@@ -147,13 +258,56 @@ public class CodeGenerator {
             } else {
                 throw new CodeGeneratorException("Array is not in scope: " + ((ArrayWithIndexExp) variable).getVariableExp());
             }
+        } else if(isSharedDeclaration(variable)) {
+            classWriter.visitField(ACC_PRIVATE | ACC_STATIC, ((VariableExp) variable).getName(),
+                    Descriptor.toDescriptorString(type), null, null).visitEnd();
+            final VariableEntry entry = new VariableEntry(variable, type, outputClassName, ((VariableExp) variable).getName());
+            variables.put(variable, entry);
+            fields.put(variable, entry);
+            return entry;
         } else {
+            // slots are handed out in scope order and every type fits in one slot, so leaving a scope
+            // gives its slots back by restoring nextIndex, see exitScope
             final VariableEntry entry = new VariableEntry(variable, type, nextIndex++);
             variables.put(variable, entry);
+            if(!scopes.isEmpty()) {
+                scopes.peek().introduced.add(variable);
+            }
             return entry;
         }
     } // addEntry
 
+    // Whether variable is declared by a statement of the entry point itself, not nested, and a function uses it.
+    private boolean isSharedDeclaration(final Variable variable) {
+        return inEntryPoint && scopes.isEmpty() && variable instanceof VariableExp
+                && sharedNames.contains(((VariableExp) variable).getName());
+    } // isSharedDeclaration
+
+    /**
+     * Variables a scope added to the table and the first slot they took. Names are never shadowed,
+     * addEntry refuses a name already in scope, so leaving a scope only has to remove its own names.
+     */
+    private static class Scope {
+        private final int firstIndex;
+        private final List<Variable> introduced = new ArrayList<>();
+
+        private Scope(final int firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+    }
+
+    private void enterScope() {
+        scopes.push(new Scope(nextIndex));
+    } // enterScope
+
+    private void exitScope() {
+        Scope scope = scopes.pop();
+        for (Variable variable : scope.introduced) {
+            variables.remove(variable);
+        }
+        nextIndex = scope.firstIndex;
+    } // exitScope
+
     private void writeIntLiteral(final int value) {
         switch (value) {
             case -1:
@@ -182,69 +336,96 @@ public class CodeGenerator {
         }
     } // writeIntLiteral
 
-    private void writeComparableOp(final ComparableOp op) throws CodeGeneratorException {
-        // there is no direct instruction for these, but instead a branching
-        // version IF.  Basic idea (with <):
-        //   push left (assumed written already)
-        //   push right (assumed written  already)
-        //   iflt is_less_than
-        //   push 0
-        //   goto after_less_than
-        // is_less_than:
-        //   push 1
-        // after_less_than:
-        final Label conditionTrue = new Label();
-        final Label afterCondition = new Label();
+    private static int comparisonOpcode(final ComparableOp op) throws CodeGeneratorException {
         switch (op) {
             case OP_LESS_THAN:
-                methodVisitor.visitJumpInsn(IF_ICMPLT, conditionTrue);
-                break;
+                return IF_ICMPLT;
             case OP_EQUAL_EQUAL:
-                methodVisitor.visitJumpInsn(IF_ICMPEQ, conditionTrue);
-                break;
+                return IF_ICMPEQ;
             case OP_LESS_EQUAL:
-                methodVisitor.visitJumpInsn(IF_ICMPLE, conditionTrue);
-                break;
+                return IF_ICMPLE;
             case OP_GREATER_THAN:
-                methodVisitor.visitJumpInsn(IF_ICMPGT, conditionTrue);
-                break;
+                return IF_ICMPGT;
             case OP_GREATER_EQUAL:
-                methodVisitor.visitJumpInsn(IF_ICMPGE, conditionTrue);
-                break;
+                return IF_ICMPGE;
             case OP_NOT_EQUAL:
-                methodVisitor.visitJumpInsn(IF_ICMPNE, conditionTrue);
-                break;
+                return IF_ICMPNE;
             default:
                 assert (false);
                 throw new CodeGeneratorException("Unrecognized operation: " + op);
         }
-        writeIntLiteral(0);
-        methodVisitor.visitJumpInsn(GOTO, afterCondition);
-        methodVisitor.visitLabel(conditionTrue);
-        writeIntLiteral(1);
-        methodVisitor.visitLabel(afterCondition);
-    } // writeComparableOp
+    } // comparisonOpcode
 
-    private void writeComparableExp(ComparableExp exp) throws CodeGeneratorException {
-        Exp left = exp.getLeft();
-        Exp right = exp.getRight();
-        writeExp(left);
-        writeExp(right);
-        writeComparableOp(exp.getOp());
-    }
+    private static ComparableOp negate(final ComparableOp op) throws CodeGeneratorException {
+        switch (op) {
+            case OP_LESS_THAN:
+                return ComparableOp.OP_GREATER_EQUAL;
+            case OP_EQUAL_EQUAL:
+                return ComparableOp.OP_NOT_EQUAL;
+            case OP_LESS_EQUAL:
+                return ComparableOp.OP_GREATER_THAN;
+            case OP_GREATER_THAN:
+                return ComparableOp.OP_LESS_EQUAL;
+            case OP_GREATER_EQUAL:
+                return ComparableOp.OP_LESS_THAN;
+            case OP_NOT_EQUAL:
+                return ComparableOp.OP_EQUAL_EQUAL;
+            default:
+                assert (false);
+                throw new CodeGeneratorException("Unrecognized operation: " + op);
+        }
+    } // negate
+
+    // Jump to target when the condition has the value jumpWhen and fall through otherwise. Comparisons,
+    // !, && and || become branches only, the boolean is never pushed and tested again:
+    //   a && b, jump when false:       a || b, jump when true:
+    //     if !a, jump to target          if a, jump to target
+    //     if !b, jump to target          if b, jump to target
+    // and the other way around the left operand jumps over the right one when it decides the result.
+    private void writeConditionJump(final Exp condition, final boolean jumpWhen, final Label target)
+            throws CodeGeneratorException {
+        if(condition instanceof BooleanExp) {
+            if(((BooleanExp) condition).getValue() == jumpWhen) {
+                methodVisitor.visitJumpInsn(GOTO, target);
+            }
+        } else if(condition instanceof ComparableExp) {
+            ComparableExp asComparable = (ComparableExp) condition;
+            writeExp(asComparable.getLeft());
+            writeExp(asComparable.getRight());
+            ComparableOp op = jumpWhen ? asComparable.getOp() : negate(asComparable.getOp());
+            methodVisitor.visitJumpInsn(comparisonOpcode(op), target);
+        } else if(condition instanceof NotExp) {
+            writeConditionJump(((NotExp) condition).getValue(), !jumpWhen, target);
+        } else if(condition instanceof BiLogicalExp) {
+            BiLogicalExp asLogical = (BiLogicalExp) condition;
+            // the value of the left operand that decides the result alone
+            boolean decides = asLogical.getOp() == BiLogicalOp.OP_OR;
+            if(decides == jumpWhen) {
+                writeConditionJump(asLogical.getLeft(), jumpWhen, target);
+                writeConditionJump(asLogical.getRight(), jumpWhen, target);
+            } else {
+                final Label afterRight = new Label();
+                writeConditionJump(asLogical.getLeft(), decides, afterRight);
+                writeConditionJump(asLogical.getRight(), jumpWhen, target);
+                methodVisitor.visitLabel(afterRight);
+            }
+        } else {
+            writeExp(condition);
+            methodVisitor.visitJumpInsn(jumpWhen ? IFNE : IFEQ, target);
+        }
+    } // writeConditionJump
 
-    private void writeNotExp(NotExp exp) throws CodeGeneratorException {
-        Exp e = exp.getValue();
-        writeExp(e);
-        Label ifTrue = new Label();
-        Label endIf = new Label();
-        methodVisitor.visitJumpInsn(IFEQ, ifTrue);
-        writeIntLiteral(0);
-        methodVisitor.visitJumpInsn(GOTO, endIf);
-        methodVisitor.visitLabel(ifTrue);
+    // Push 1 or 0 for a condition that is used as a value.
+    private void writeConditionValue(final Exp condition) throws CodeGeneratorException {
+        final Label conditionFalse = new Label();
+        final Label afterCondition = new Label();
+        writeConditionJump(condition, false, conditionFalse);
         writeIntLiteral(1);
-        methodVisitor.visitLabel(endIf);
-    }
+        methodVisitor.visitJumpInsn(GOTO, afterCondition);
+        methodVisitor.visitLabel(conditionFalse);
+        writeIntLiteral(0);
+        methodVisitor.visitLabel(afterCondition);
+    } // writeConditionValue
 
     private VariableEntry loadVariable(Variable variable) throws CodeGeneratorException {
         final VariableEntry entry = getEntryFor(variable);
@@ -253,93 +434,16 @@ public class CodeGenerator {
     }
 
 
-    private void writeBiLogicalExp(BiLogicalExp exp) throws CodeGeneratorException {
-        Exp left = exp.getLeft();
-        Exp right = exp.getRight();
-        Label ifFalse = new Label();
-        Label endIf = new Label();
-
-        switch (exp.getOp()) {
-            case OP_AND:
-                if(left instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) left).getValue() ? 1 : 0);
-                } else if(left instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) left);
-                } else if(left instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) left);
-                } else if(left instanceof NotExp) {
-                    writeNotExp((NotExp) left);
-                } else if(left instanceof Variable) {
-                    loadVariable((Variable) left);
-                } else {
-                    throw new CodeGeneratorException("Bilogical expression's left value should be boolean type");
-                }
-
-                methodVisitor.visitJumpInsn(IFEQ, ifFalse);
-
-                if(right instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) right).getValue() ? 1 : 0);
-                } else if(right instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) right);
-                } else if(right instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) right);
-                } else if(right instanceof NotExp) {
-                    writeNotExp((NotExp) right);
-                } else if(right instanceof Variable) {
-                    loadVariable((Variable) right);
-                }else {
-                    throw new CodeGeneratorException("Bilogical expression's right value should be boolean type");
-                }
-                methodVisitor.visitJumpInsn(IFEQ, ifFalse);
-                writeIntLiteral(1);
-                methodVisitor.visitJumpInsn(GOTO, endIf);
-                methodVisitor.visitLabel(ifFalse);
-                writeIntLiteral(0);
-                methodVisitor.visitLabel(endIf);
-                break;
-            case OP_OR:
-                if(left instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) left).getValue() ? 1 : 0);
-                } else if(left instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) left);
-                } else if(left instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) left);
-                } else if(left instanceof NotExp) {
-                    writeNotExp((NotExp) left);
-                } else if(left instanceof Variable) {
-                    loadVariable((Variable) left);
-                } else {
-                    throw new CodeGeneratorException("Bilogical expression's left value should be boolean type");
-                }
-
-                methodVisitor.visitJumpInsn(IFNE, ifFalse);
-
-                if(right instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) right).getValue() ? 1 : 0);
-                } else if(right instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) right);
-                } else if(right instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) right);
-                } else if(right instanceof NotExp) {
-                    writeNotExp((NotExp) right);
-                } else if(right instanceof Variable) {
-                    loadVariable((Variable) right);
-                } else {
-                    throw new CodeGeneratorException("Bilogical expression's right value should be boolean type");
-                }
-                methodVisitor.visitJumpInsn(IFNE, ifFalse);
-                writeIntLiteral(0);
-                methodVisitor.visitJumpInsn(GOTO, endIf);
-                methodVisitor.visitLabel(ifFalse);
-                writeIntLiteral(1);
-                methodVisitor.visitLabel(endIf);
-                break;
-        }
-    }
-
     private void writeSelfOperationExp(SelfOperationExp exp, boolean needLoad) throws CodeGeneratorException {
-        int index = getEntryFor(exp.getVariableExp()).index;
-        if(exp.getPreOrder()) {
+        final VariableEntry variableEntry = getEntryFor(exp.getVariableExp());
+        int index = variableEntry.index;
+        if(variableEntry.isField()) {
+            // no IINC for a static field
+            variableEntry.load(this, methodVisitor);
+            writeIntLiteral(exp.getOp() == SelfOp.OP_SELF_INCREASE ? 1 : -1);
+            methodVisitor.visitInsn(IADD);
+            variableEntry.store(this, methodVisitor);
+        } else if(exp.getPreOrder()) {
             // ++i case
             if(exp.getOp() == SelfOp.OP_SELF_INCREASE) {
                 methodVisitor.visitIincInsn(index, 1);
@@ -372,22 +476,28 @@ public class CodeGenerator {
         final Label head = new Label();
         final Label afterFor = new Label();
 
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
+        enterScope();
         VariableEntry entry;
         if(forStmt.getArrayExp() != null) {
             loadVariable(forStmt.getArrayExp());
             String arrayLength = forStmt.hashCode() + forStmt.getArrayExp().getName() + ".length";
             Type type = typeOf(forStmt.getArrayExp());
             BasicType basicType;
+            String listClass = null;
             if(type instanceof TypeArray) {
                 basicType = ((TypeArray) type).getBasicType();
             } else if(type instanceof TypeMutableList) {
                 basicType = ((TypeMutableList) type).getBasicType();
+                listClass = Descriptor.listClassName(basicType);
             } else {
                 throw new CodeGeneratorException("For in variable should be array or list");
             }
             entry = addEntry(new VariableExp(arrayLength), BasicType.TYPE_INT);
-            methodVisitor.visitInsn(ARRAYLENGTH);
+            if(listClass != null) {
+                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, listClass, "size", "()I", false);
+            } else {
+                writeArrayLength(basicType);
+            }
             entry.store(this, methodVisitor);
             String index = forStmt.hashCode() + forStmt.getArrayExp().getName() + ".index";
             writeIntLiteral(0);
@@ -399,21 +509,27 @@ public class CodeGenerator {
             methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
             loadVariable(forStmt.getArrayExp());
             loadVariable(new VariableExp(index));
-            int opcode = 0;
-            switch (basicType) {
-                case TYPE_INT:
-                    opcode = IALOAD;
-                    break;
-                case TYPE_BOOLEAN:
-                    opcode = BALOAD;
-                    break;
-                case TYPE_STRING: case TYPE_ANY:
-                    opcode = AALOAD;
-                    break;
-                case TYPE_UNIT:
-                    throw new CodeGeneratorException("Void type only from return in function");
+            if(listClass != null) {
+                writeListGet(listClass, basicType);
+            } else if(basicType == BasicType.TYPE_ANY) {
+                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "get", "(I)Ljava/lang/Object;", false);
+            } else {
+                int opcode = 0;
+                switch (basicType) {
+                    case TYPE_INT:
+                        opcode = IALOAD;
+                        break;
+                    case TYPE_BOOLEAN:
+                        opcode = BALOAD;
+                        break;
+                    case TYPE_STRING:
+                        opcode = AALOAD;
+                        break;
+                    case TYPE_UNIT:
+                        throw new CodeGeneratorException("Void type only from return in function");
+                }
+                methodVisitor.visitInsn(opcode);
             }
-            methodVisitor.visitInsn(opcode);
             entry = addEntry(forStmt.getIteratorExp(), basicType);
             entry.store(this, methodVisitor);
 
@@ -423,17 +539,22 @@ public class CodeGenerator {
             methodVisitor.visitJumpInsn(GOTO, head);
             methodVisitor.visitLabel(afterFor);
         } else {    // for in range case
+            // Written as a counted loop: the end is a literal or kept in a local, or is the length of an array
+            // indexed in the body, and a literal step becomes IINC, so the JIT can drop the bounds checks.
             RangeExp rangeExp = forStmt.getRangeExp();
+            VariableExp lengthBound = rangeAnalysis.getLengthBound(forStmt);
             writeExp(rangeExp.getStart());
             entry = addEntry(forStmt.getIteratorExp(), BasicType.TYPE_INT);
             entry.store(this, methodVisitor);
             String end = forStmt.hashCode() + rangeExp.getEnd().toString();
-            writeExp(rangeExp.getEnd());
-            entry = addEntry(new VariableExp(end), BasicType.TYPE_INT);
-            entry.store(this, methodVisitor);
+            if(lengthBound == null && !(rangeExp.getEnd() instanceof IntExp)) {
+                writeExp(rangeExp.getEnd());
+                entry = addEntry(new VariableExp(end), BasicType.TYPE_INT);
+                entry.store(this, methodVisitor);
+            }
 
             String step = null;
-            if(forStmt.getStepExp() != null) {
+            if(forStmt.getStepExp() != null && !isIincStep(forStmt.getStepExp())) {
                 step = forStmt.hashCode() + forStmt.getStepExp().toString();
                 writeExp(forStmt.getStepExp());
                 entry = addEntry(new VariableExp(step), BasicType.TYPE_INT);
@@ -441,27 +562,58 @@ public class CodeGenerator {
             }
             methodVisitor.visitLabel(head);
             loadVariable(forStmt.getIteratorExp());
-            loadVariable(new VariableExp(end));
+            if(lengthBound != null) {
+                writeArrayLength(((TypeArray) loadVariable(lengthBound).type).getBasicType());
+            } else if(rangeExp.getEnd() instanceof IntExp) {
+                writeIntLiteral(((IntExp) rangeExp.getEnd()).getValue());
+            } else {
+                loadVariable(new VariableExp(end));
+            }
             methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
             writeBlockStmtInLoop(forStmt.getBlockStmt(), head, afterFor);
-            loadVariable(forStmt.getIteratorExp());
-            if(forStmt.getStepExp() != null) {
+            entry = getEntryFor(forStmt.getIteratorExp());
+            if(step != null) {
+                entry.load(this, methodVisitor);
                 loadVariable(new VariableExp(step));
                 methodVisitor.visitInsn(IADD);
-                entry = getEntryFor(forStmt.getIteratorExp());
                 entry.store(this, methodVisitor);
+            } else if(forStmt.getStepExp() != null) {
+                methodVisitor.visitIincInsn(entry.index, ((IntExp) forStmt.getStepExp()).getValue());
             } else {
-                writeIntLiteral(1);
-                methodVisitor.visitInsn(IADD);
-                entry = getEntryFor(forStmt.getIteratorExp());
-                entry.store(this, methodVisitor);
+                methodVisitor.visitIincInsn(entry.index, 1);
             }
             methodVisitor.visitJumpInsn(GOTO, head);
             methodVisitor.visitLabel(afterFor);
         }
 
         // After for loop
-        variables = gammaBefore;
+        exitScope();
+    }
+
+    // Length of the array on the stack.
+    private void writeArrayLength(final BasicType elementType) {
+        if(elementType == BasicType.TYPE_ANY) {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "length", "()I", false);
+        } else {
+            methodVisitor.visitInsn(ARRAYLENGTH);
+        }
+    } // writeArrayLength
+
+    // Element index of the list below it on the stack, as the type of the list's elements.
+    private void writeListGet(final String listClass, final BasicType basicType) throws CodeGeneratorException {
+        if(basicType == BasicType.TYPE_INT || basicType == BasicType.TYPE_BOOLEAN) {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, listClass, "get", "(I)" + Descriptor.toDescriptorString(basicType), false);
+        } else {
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, listClass, "get", "(I)Ljava/lang/Object;", false);
+            if(basicType == BasicType.TYPE_STRING) {
+                methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/String");
+            }
+        }
+    } // writeListGet
+
+    private static boolean isIincStep(final Exp step) {
+        return step instanceof IntExp && ((IntExp) step).getValue() >= Short.MIN_VALUE
+                && ((IntExp) step).getValue() <= Short.MAX_VALUE;
     }
 
     private void writeBlockStmtInLoop(BlockStmt blockStmt, Label head, Label afterLoop) throws CodeGeneratorException {
@@ -480,18 +632,12 @@ public class CodeGenerator {
 
     private void writeBlockStmt(BlockStmt blockStmt) throws CodeGeneratorException {
         if(blockStmt != null && blockStmt.getStmtList() != null) {
-            // Copy gamma before block
-            Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
+            enterScope();
             writeStatements(blockStmt.getStmtList());
-            // restore gamma after block
-            variables = gammaBefore;
+            exitScope();
         }
     }
 
-    private Map<Variable, VariableEntry> newCopy(final Map<Variable, VariableEntry> table) {
-        return new HashMap<>(table);
-    }
-
     private void writeIfStatement(final IfStmt ifStmt) throws CodeGeneratorException {
         // if false, jump to the else branch.  If true, fall through to true branch.
         // true branch needs to jump after the false.  Looks like this:
@@ -504,15 +650,15 @@ public class CodeGenerator {
         //   false stuff
         // after_false:
 
-        // condition is a boolean, which is represented with an integer which is either
-        // 0 or 1.  IFEQ jumps if the value on top of the operand stack is 0, so this naturally
-        // ends up giving us the if !condition (as odd as it looks)
+        // the condition jumps to false itself, see writeConditionJump, and without a false branch
+        // there is nothing to jump over
         final Label falseLabel = new Label();
         final Label afterFalseLabel = new Label();
-        writeExp(ifStmt.getCondition());
-        methodVisitor.visitJumpInsn(IFEQ, falseLabel);
+        writeConditionJump(ifStmt.getCondition(), false, falseLabel);
         writeBlockStmt(ifStmt.getTrueBranch());
-        methodVisitor.visitJumpInsn(GOTO, afterFalseLabel);
+        if(ifStmt.getFalseBranch() != null) {
+            methodVisitor.visitJumpInsn(GOTO, afterFalseLabel);
+        }
         methodVisitor.visitLabel(falseLabel);
         writeBlockStmt(ifStmt.getFalseBranch());
         methodVisitor.visitLabel(afterFalseLabel);
@@ -525,16 +671,15 @@ public class CodeGenerator {
         //   body
         //   goto head
         // after_while
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
+        enterScope();
         final Label head = new Label();
         final Label afterWhile = new Label();
         methodVisitor.visitLabel(head);
-        writeExp(whileStmt.getCondition());
-        methodVisitor.visitJumpInsn(IFEQ, afterWhile);
+        writeConditionJump(whileStmt.getCondition(), false, afterWhile);
         writeBlockStmtInLoop(whileStmt.getBlockStmt(), head, afterWhile);
         methodVisitor.visitJumpInsn(GOTO, head);
         methodVisitor.visitLabel(afterWhile);
-        variables = gammaBefore;
+        exitScope();
     } // whileWhileStatement
 
     private void writeStatements(final List<Stmt> stmts) throws CodeGeneratorException {
@@ -544,97 +689,150 @@ public class CodeGenerator {
     } // writeStatements
 
     private void writeStatement(final Stmt stmt) throws CodeGeneratorException {
-        if (stmt instanceof VariableDeclareStmt) {
-            // Do nothing here until initialized in AssignStmt
-        } else if (stmt instanceof AssignStmt) {
-            final AssignStmt asAssign = (AssignStmt)stmt;
-            Type type = typeOf(asAssign.getExpression());
-            final VariableEntry entry;
-            if(((AssignStmt) stmt).isNew()) {
-                writeExp(asAssign.getExpression());
-                if(asAssign.getExpression() instanceof ArrayWithIndexExp) {
-                    entry = addEntry(asAssign.getVariable(), ((TypeArray) type).getBasicType());
+        switch (stmt.getKind()) {
+            case STMT_VARIABLE_DECLARE:
+                // Do nothing here until initialized in AssignStmt
+                break;
+            case STMT_ASSIGN:
+                writeAssignStatement((AssignStmt) stmt);
+                break;
+            case STMT_COMPOUND_ASSIGN:
+                writeCompoundAssignStatement((CompoundAssignStmt) stmt);
+                break;
+            case STMT_PRINT:
+                writePrint(((PrintStmt) stmt).getValue(), false);
+                break;
+            case STMT_PRINTLN:
+                writePrint(((PrintlnStmt) stmt).getValue(), true);
+                break;
+            case STMT_IF:
+                writeIfStatement((IfStmt) stmt);
+                break;
+            case STMT_WHILE:
+                writeWhileStatement((WhileStmt) stmt);
+                break;
+            case STMT_RETURN:
+                if(isTailCall(stmt, ((ReturnStmt) stmt).getReturnExp())) {
+                    writeTailCall((FunctionInstanceExp) ((ReturnStmt) stmt).getReturnExp());
                 } else {
-                    entry = addEntry(asAssign.getVariable(), type);
+                    writeExp(((ReturnStmt) stmt).getReturnExp());
                 }
-            } else {
-                entry = getEntryFor(((AssignStmt) stmt).getVariable());
-                if(entry.variable instanceof ArrayWithIndexExp) {
-                    methodVisitor.visitVarInsn(ALOAD, entry.index);
-                    writeExp(((ArrayWithIndexExp) entry.variable).getIndexExp());
-                    writeExp(asAssign.getExpression());
+                break;
+            case STMT_BLOCK:
+                writeBlockStmt((BlockStmt) stmt);
+                break;
+            case STMT_FUNCTION_INSTANCE:
+                if(currentFunction != null && currentFunction.getReturnType() == BasicType.TYPE_UNIT
+                        && isTailCall(stmt, ((FunctionInstanceStmt) stmt).getFunctionInstanceExp())) {
+                    writeTailCall(((FunctionInstanceStmt) stmt).getFunctionInstanceExp());
+                } else if(writeFunctionInstance(((FunctionInstanceStmt) stmt).getFunctionInstanceExp()) != BasicType.TYPE_UNIT) {
+                    methodVisitor.visitInsn(POP);   // the result is not used
                 }
-            }
-            entry.store(this, methodVisitor);
-        } else if(stmt instanceof CompoundAssignStmt) {
-            // support Int += first, then think about string +
-            final CompoundAssignStmt asAssign = (CompoundAssignStmt)stmt;
-            final VariableEntry entry = getEntryFor(asAssign.getVariable());
-            boolean isStringAppend = false;
-            if(asAssign.getVariable() instanceof ArrayWithIndexExp) {
-                methodVisitor.visitVarInsn(ALOAD, entry.index);
-                writeExp(((ArrayWithIndexExp) entry.variable).getIndexExp());
-            }
-            Type type = typeOf((Exp)asAssign.getVariable());
-            if(type == BasicType.TYPE_STRING) {
-                isStringAppend = true;
-            } else if(type instanceof TypeArray && asAssign.getVariable() instanceof ArrayWithIndexExp && ((TypeArray) type).getBasicType() == BasicType.TYPE_STRING) {
-                isStringAppend = true;
+                break;
+            case STMT_FOR:
+                writeForStatement((ForStmt) stmt);
+                break;
+            case STMT_SELF_OPERATION:
+                writeSelfOperationExp(((SelfOperationStmt) stmt).getSelfOperationExp(), false);
+                break;
+            default:
+                throw new CodeGeneratorException("Unrecognized statement so far: " + stmt);
+        }
+    } // writeStatement
+
+    private void writeAssignStatement(final AssignStmt asAssign) throws CodeGeneratorException {
+        Type type = typeOf(asAssign.getExpression());
+        final VariableEntry entry;
+        if(asAssign.isNew() && asAssign.isReadOnly() && isSharedDeclaration(asAssign.getVariable()) && isConstant(asAssign.getExpression())) {
+            writeConstantField((VariableExp) asAssign.getVariable(), type, asAssign.getExpression());
+            return;
+        } else if(asAssign.isNew()) {
+            writeExp(asAssign.getExpression());
+            if(asAssign.getExpression() instanceof ArrayWithIndexExp) {
+                entry = addEntry(asAssign.getVariable(), ((TypeArray) type).getBasicType());
             } else {
-                entry.load(this, methodVisitor);
+                entry = addEntry(asAssign.getVariable(), type);
             }
-
-            switch (((CompoundAssignStmt) stmt).getOp()) {
-                case EXP_PLUS_EQUAL:
-                    if(isStringAppend) {
-                        writeExp(new AdditiveExp((Exp)asAssign.getVariable(), asAssign.getExpression(), AdditiveOp.EXP_PLUS));
-                    } else {
-                        writeExp(asAssign.getExpression());
-                        methodVisitor.visitInsn(IADD);
-                    }
-                    break;
-                case EXP_MINUS_EQUAL:
-                    writeExp(asAssign.getExpression());
-                    methodVisitor.visitInsn(ISUB);
-                    break;
-                case EXP_MULTIPLY_EQUAL:
-                    writeExp(asAssign.getExpression());
-                    methodVisitor.visitInsn(IMUL);
-                    break;
-                case EXP_DIVIDE_EQUAL:
+        } else {
+            entry = getEntryFor(asAssign.getVariable());
+            if(entry.variable instanceof ArrayWithIndexExp) {
+                entry.loadValue(methodVisitor);
+                writeExp(((ArrayWithIndexExp) entry.variable).getIndexExp());
+                if(((TypeArray) entry.type).getBasicType() == BasicType.TYPE_ANY) {
                     writeExp(asAssign.getExpression());
-                    methodVisitor.visitInsn(IDIV);
-                    break;
+                    writeArrayStore(BasicType.TYPE_ANY, valueTypeOf(asAssign.getExpression()));
+                    return;
+                }
             }
-
-            entry.store(this, methodVisitor);
+            writeExp(asAssign.getExpression());
         }
-        else if (stmt instanceof PrintStmt || stmt instanceof PrintlnStmt) {
-            if(stmt instanceof PrintStmt) {
-                writePrint( ((PrintStmt)stmt).getValue(), false);
-            } else {
-                writePrint(((PrintlnStmt)stmt).getValue(), true);
-            }
-        } else if (stmt instanceof IfStmt) {
-            writeIfStatement((IfStmt)stmt);
-        } else if (stmt instanceof WhileStmt) {
-            writeWhileStatement((WhileStmt)stmt);
-        } else if(stmt instanceof ReturnStmt) {
-            writeExp(((ReturnStmt) stmt).getReturnExp());
-        } else if(stmt instanceof BlockStmt) {
-            writeBlockStmt((BlockStmt) stmt);
-        } else if(stmt instanceof FunctionInstanceStmt) {
-            writeFunctionInstance(((FunctionInstanceStmt) stmt).getFunctionInstanceExp());
-        } else if(stmt instanceof ForStmt) {
-            writeForStatement((ForStmt) stmt);
-        } else if(stmt instanceof SelfOperationStmt) {
-            writeSelfOperationExp(((SelfOperationStmt) stmt).getSelfOperationExp(), false);
+        entry.store(this, methodVisitor);
+    } // writeAssignStatement
+
+    private static boolean isConstant(final Exp exp) {
+        return exp instanceof IntExp || exp instanceof BooleanExp
+                || exp instanceof StringExp && ((StringExp) exp).getInterpolationExp() == null;
+    } // isConstant
+
+    // A top-level val of a literal is a static final field with a ConstantValue, set before any code runs.
+    private void writeConstantField(final VariableExp variable, final Type type, final Exp value) throws CodeGeneratorException {
+        Object constant;
+        if(value instanceof IntExp) {
+            constant = ((IntExp) value).getValue();
+        } else if(value instanceof BooleanExp) {
+            constant = ((BooleanExp) value).getValue() ? 1 : 0;
+        } else {
+            constant = ((StringExp) value).getStrWithoutInterpolation();
         }
-        else {
-//            assert(false);
-            throw new CodeGeneratorException("Unrecognized statement so far: " + stmt);
+        classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, variable.getName(),
+                Descriptor.toDescriptorString(type), null, constant).visitEnd();
+        final VariableEntry entry = new VariableEntry(variable, type, outputClassName, variable.getName());
+        variables.put(variable, entry);
+        fields.put(variable, entry);
+    } // writeConstantField
+
+    private void writeCompoundAssignStatement(final CompoundAssignStmt asAssign) throws CodeGeneratorException {
+        // support Int += first, then think about string +
+        final VariableEntry entry = getEntryFor(asAssign.getVariable());
+        boolean isStringAppend = false;
+        if(asAssign.getVariable() instanceof ArrayWithIndexExp) {
+            entry.loadValue(methodVisitor);
+            writeExp(((ArrayWithIndexExp) entry.variable).getIndexExp());
+        }
+        Type type = typeOf((Exp)asAssign.getVariable());
+        if(type == BasicType.TYPE_STRING) {
+            isStringAppend = true;
+        } else if(type instanceof TypeArray && asAssign.getVariable() instanceof ArrayWithIndexExp && ((TypeArray) type).getBasicType() == BasicType.TYPE_STRING) {
+            isStringAppend = true;
+        } else {
+            entry.load(this, methodVisitor);
         }
-    } // writeStatement
+
+        switch (asAssign.getOp()) {
+            case EXP_PLUS_EQUAL:
+                if(isStringAppend) {
+                    writeExp(new AdditiveExp((Exp)asAssign.getVariable(), asAssign.getExpression(), AdditiveOp.EXP_PLUS));
+                } else {
+                    writeExp(asAssign.getExpression());
+                    methodVisitor.visitInsn(IADD);
+                }
+                break;
+            case EXP_MINUS_EQUAL:
+                writeExp(asAssign.getExpression());
+                methodVisitor.visitInsn(ISUB);
+                break;
+            case EXP_MULTIPLY_EQUAL:
+                writeExp(asAssign.getExpression());
+                methodVisitor.visitInsn(IMUL);
+                break;
+            case EXP_DIVIDE_EQUAL:
+                writeExp(asAssign.getExpression());
+                methodVisitor.visitInsn(IDIV);
+                break;
+        }
+
+        entry.store(this, methodVisitor);
+    } // writeCompoundAssignStatement
 
     private void writeReturnFor(final Type type) throws CodeGeneratorException {
         if(type == BasicType.TYPE_INT ||
@@ -642,7 +840,8 @@ public class CodeGenerator {
             methodVisitor.visitInsn(IRETURN);
         } else if(type == BasicType.TYPE_UNIT) {
             methodVisitor.visitInsn(RETURN);
-        } else if(type instanceof TypeArray || type instanceof TypeMutableList || type == BasicType.TYPE_STRING) {
+        } else if(type instanceof TypeArray || type instanceof TypeMutableList || type instanceof TypeHighOrderFunction
+                || type == BasicType.TYPE_STRING || type == BasicType.TYPE_ANY) {
             methodVisitor.visitInsn(ARETURN);
         } else {
             throw new CodeGeneratorException("Unrecognized return type: " + type);
@@ -651,21 +850,78 @@ public class CodeGenerator {
 
     private void writeFunction(final FunctionDeclareStmt function) throws CodeGeneratorException {
         functionStart(function);
+        currentFunction = function;
+        functionBody = new Label();
+        tailStmts = Collections.newSetFromMap(new IdentityHashMap<>());
+        methodVisitor.visitLabel(functionBody);
         if(function.getBlockStmt() != null) {
+            reassigned = assignedNames(function.getBlockStmt().getStmtList());
+            addTailStmts(function.getBlockStmt().getStmtList());
             writeStatements(function.getBlockStmt().getStmtList());
         }
         writeReturnFor(function.getReturnType());
+        currentFunction = null;
         functionEnd();
     } // writeFunction
 
+    // The last statement of a body is followed by the return, and so are the last ones of the branches of a final if.
+    private void addTailStmts(final List<Stmt> stmts) {
+        if(stmts == null || stmts.isEmpty()) {
+            return;
+        }
+        Stmt last = stmts.get(stmts.size() - 1);
+        tailStmts.add(last);
+        if(last instanceof IfStmt) {
+            addTailStmts(((IfStmt) last).getTrueBranch().getStmtList());
+            if(((IfStmt) last).getFalseBranch() != null) {
+                addTailStmts(((IfStmt) last).getFalseBranch().getStmtList());
+            }
+        } else if(last instanceof BlockStmt) {
+            addTailStmts(((BlockStmt) last).getStmtList());
+        }
+    } // addTailStmts
+
+    // Whether stmt ends the function with a call of the function itself.
+    private boolean isTailCall(final Stmt stmt, final Exp exp) {
+        if(currentFunction == null || !tailStmts.contains(stmt) || !(exp instanceof FunctionInstanceExp)
+                || !((FunctionInstanceExp) exp).getFuncName().equals(currentFunction.getFuncName())) {
+            return false;
+        }
+        if(currentFunction.getParameterList() != null) {
+            for (Type type : currentFunction.getParameterList().values()) {
+                if(!(type instanceof BasicType || type instanceof TypeArray)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    } // isTailCall
+
+    // A call of the function itself right before it returns starts the body again with the new arguments
+    // instead, so the recursion runs as a loop in one frame.
+    private void writeTailCall(final FunctionInstanceExp call) throws CodeGeneratorException {
+        for (final Exp param : call.getParameterList()) {
+            writeExp(param);
+        }
+        // every argument is computed before the first parameter changes
+        Exp[] parameters = currentFunction.getParameterList().keySet().toArray(new Exp[0]);
+        for (int i = parameters.length - 1; i >= 0; i--) {
+            getEntryFor((Variable) parameters[i]).store(this, methodVisitor);
+        }
+        methodVisitor.visitJumpInsn(GOTO, functionBody);
+    } // writeTailCall
+
     private void writeEntryPoint(final Program program) throws CodeGeneratorException {
         functionStart(new FunctionDeclareStmt(new VariableExp(outputFunctionName), BasicType.TYPE_UNIT, null, null),
-                EMPTY_VOID);
+                EMPTY_VOID, ACC_PUBLIC | ACC_STATIC);
+        reassigned = assignedNames(program.getStmtList());
+        inEntryPoint = true;
         for(Stmt s : program.getStmtList()) {
             if(!(s instanceof FunctionDeclareStmt)) {
                 writeStatement(s);
             }
         }
+        inEntryPoint = false;
         methodVisitor.visitInsn(RETURN);
         functionEnd();
     } // writeEntryPoint
@@ -673,7 +929,7 @@ public class CodeGenerator {
     private Type writeFunctionInstance(final FunctionInstanceExp call) throws CodeGeneratorException {
         final FunctionDeclareStmt function = functionTable.get(call.getFuncName().getName());
         if (function == null) {
-            throw new CodeGeneratorException("Call to nonexistent function.");
+            return writeFunctionValueCall(call);
         }
 
         for (final Exp param : call.getParameterList()) {
@@ -694,66 +950,138 @@ public class CodeGenerator {
     private Type typeOfFunctionInstance(FunctionInstanceExp exp) throws CodeGeneratorException {
         final FunctionDeclareStmt function = functionTable.get(exp.getFuncName().getName());
         if (function == null) {
-            throw new CodeGeneratorException("Call to nonexistent function.");
+            return functionTypeOf(exp).getReturnType();
         }
         return function.getReturnType();
     }
 
+    // Type of the variable a call goes through when no function has its name.
+    private TypeHighOrderFunction functionTypeOf(final FunctionInstanceExp call) throws CodeGeneratorException {
+        final VariableEntry entry = lookup(call.getFuncName());
+        if(entry == null || !(entry.type instanceof TypeHighOrderFunction)) {
+            throw new CodeGeneratorException("Call to nonexistent function.");
+        }
+        return (TypeHighOrderFunction) entry.type;
+    } // functionTypeOf
+
+    // Call the function value held by a variable through the method of its interface.
+    private Type writeFunctionValueCall(final FunctionInstanceExp call) throws CodeGeneratorException {
+        final TypeHighOrderFunction type = functionTypeOf(call);
+        final FunctionInterface functionInterface = functionInterfaceOf(type);
+        getEntryFor(call.getFuncName()).loadValue(methodVisitor);
+        for (int i = 0; i < call.getParameterList().size(); i++) {
+            writeExp(call.getParameterList().get(i));
+            if(functionInterface.isReference(i)) {
+                writeBox(type.getParameterList().get(i));
+            }
+        }
+        methodVisitor.visitMethodInsn(INVOKEINTERFACE,
+                functionInterface.owner,
+                functionInterface.methodName,
+                functionInterface.descriptor,
+                true);
+        if(functionInterface.isReferenceResult()) {
+            writeUnbox(type.getReturnType());
+        }
+        return type.getReturnType();
+    } // writeFunctionValueCall
+
+    // The interface of type, recorded to be written by writeProgram when it is not in the JDK.
+    private FunctionInterface functionInterfaceOf(final TypeHighOrderFunction type) {
+        final FunctionInterface functionInterface = FunctionInterface.of(type);
+        if(functionInterface.isGenerated()) {
+            generatedInterfaces.put(functionInterface.owner, functionInterface);
+        }
+        return functionInterface;
+    } // functionInterfaceOf
+
+    // Box an Int or Boolean on the stack, values of other types are references already.
+    private void writeBox(final Type type) {
+        if(type == BasicType.TYPE_INT) {
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+        } else if(type == BasicType.TYPE_BOOLEAN) {
+            methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+        }
+    } // writeBox
+
+    // Turn the Object on the stack into a value of type, unboxing an Int or Boolean.
+    private void writeUnbox(final Type type) throws CodeGeneratorException {
+        if(type == BasicType.TYPE_INT) {
+            methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Integer");
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
+        } else if(type == BasicType.TYPE_BOOLEAN) {
+            methodVisitor.visitTypeInsn(CHECKCAST, "java/lang/Boolean");
+            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z", false);
+        } else if(type != BasicType.TYPE_ANY) {
+            methodVisitor.visitTypeInsn(CHECKCAST, org.objectweb.asm.Type.getType(Descriptor.toDescriptorString(type)).getInternalName());
+        }
+    } // writeUnbox
+
     private Type typeOf(Exp temp) throws CodeGeneratorException {
-        Type type;
-        if(temp instanceof IntExp || temp instanceof SelfOperationExp) {
-            type = BasicType.TYPE_INT;
-        } else if(temp instanceof BinaryIntExp) {
-            if(temp instanceof AdditiveExp) {
-                Type left = typeOf(((BinaryIntExp) temp).getLeft());
-                if(((AdditiveExp) temp).getOp() == AdditiveOp.EXP_PLUS) {
-                    if(left == BasicType.TYPE_STRING) {
-                        type = BasicType.TYPE_STRING;
-                    } else {
-                        type = BasicType.TYPE_INT;
-                    }
+        switch (temp.getKind()) {
+            case EXP_INT:
+            case EXP_SELF_OPERATION:
+            case EXP_MULTIPLICATIVE:
+                return BasicType.TYPE_INT;
+            case EXP_ADDITIVE:
+                if(((AdditiveExp) temp).getOp() == AdditiveOp.EXP_PLUS
+                        && typeOf(((AdditiveExp) temp).getLeft()) == BasicType.TYPE_STRING) {
+                    return BasicType.TYPE_STRING;
                 } else {
-                    type = BasicType.TYPE_INT;
+                    return BasicType.TYPE_INT;
                 }
-            } else {
-                type = BasicType.TYPE_INT;
-            }
-        } else if(temp instanceof StringExp) {
-            type = BasicType.TYPE_STRING;
-        } else if(temp instanceof BooleanExp || temp instanceof ComparableExp ||
-                temp instanceof NotExp || temp instanceof BiLogicalExp) {
-            type = BasicType.TYPE_BOOLEAN;
-        } else if(temp instanceof VariableExp || temp instanceof ArrayWithIndexExp) {
-            type = typeOfVariable((Variable) temp);
-        } else if(temp instanceof FunctionInstanceExp) {
-            type = typeOfFunctionInstance((FunctionInstanceExp) temp);
-        } else if(temp instanceof ArrayOfExp) {
-            if(((ArrayOfExp) temp).getExpList().size() > 0) {
-                Exp t = ((ArrayOfExp) temp).getExpList().get(0);
-                BasicType basicType = (BasicType) typeOf(t);
-                boolean isAny = false;
-                for (Exp e : ((ArrayOfExp) temp).getExpList()) {
-                    if(basicType != typeOf(e)) {
-                        isAny = true;
-                        break;
-                    }
+            case EXP_STRING:
+                return BasicType.TYPE_STRING;
+            case EXP_BOOLEAN:
+            case EXP_COMPARABLE:
+            case EXP_NOT:
+            case EXP_BI_LOGICAL:
+                return BasicType.TYPE_BOOLEAN;
+            case EXP_VARIABLE:
+            case EXP_ARRAY_WITH_INDEX:
+                return typeOfVariable((Variable) temp);
+            case EXP_FUNCTION_INSTANCE:
+                return typeOfFunctionInstance((FunctionInstanceExp) temp);
+            case EXP_ARRAY_OF:
+                if(((ArrayOfExp) temp).getExpList().size() > 0) {
+                    return TypeInterner.arrayOf(elementTypeOf(((ArrayOfExp) temp).getExpList()));
+                } else {
+                    throw new CodeGeneratorException("arrayOf(exp*) should has at least one parameter");
                 }
-                if(isAny) {
-                    basicType = BasicType.TYPE_ANY;
+            case EXP_MUTABLE_LIST_OF:
+                if(((MutableListOfExp) temp).getExpList().size() > 0) {
+                    return TypeInterner.mutableListOf(elementTypeOf(((MutableListOfExp) temp).getExpList()));
+                } else {
+                    throw new CodeGeneratorException("mutableListOf(exp*) should has at least one parameter");
                 }
-                type = new TypeArray(basicType);
-            } else {
-                throw new CodeGeneratorException("arrayOf(exp*) should has at least one parameter");
+            case EXP_ARRAY:
+                return TypeInterner.arrayOf(elementTypeOf(((ArrayExp) temp).getLambdaExp()));
+            case EXP_MUTABLE_LIST:
+                return TypeInterner.mutableListOf(elementTypeOf(((MutableListExp) temp).getLambdaExp()));
+            case EXP_LAMBDA:
+                return typeOfLambda((LambdaExp) temp);
+            default:
+                throw new CodeGeneratorException("Unrecognized expression type");
+        }
+    }
+
+    private BasicType elementTypeOf(final List<Exp> elements) throws CodeGeneratorException {
+        BasicType basicType = (BasicType) valueTypeOf(elements.get(0));
+        for (Exp e : elements) {
+            if(basicType != valueTypeOf(e)) {
+                return BasicType.TYPE_ANY;
             }
-        } else if(temp instanceof ArrayExp) {
-            Type genericType = typeOf(((ArrayExp) temp).getLambdaExp().getReturnExp());
-            type = new TypeArray((BasicType) genericType);
         }
-        else {
-            throw new CodeGeneratorException("Unrecognized expression type");
+        return basicType;
+    } // elementTypeOf
+
+    // Type of the elements Array(size, lambda) or MutableList(size, lambda) creates.
+    private BasicType elementTypeOf(final LambdaExp lambdaExp) throws CodeGeneratorException {
+        if(lambdaExp.getParameterList() != null && lambdaExp.getParameterList().containsKey(lambdaExp.getReturnExp())) {
+            return BasicType.TYPE_INT;   // {i -> i}, the parameter is the index
         }
-        return type;
-    }
+        return (BasicType) valueTypeOf(lambdaExp.getReturnExp());
+    } // elementTypeOf
 
     private void writeStringExp(StringExp s) throws CodeGeneratorException {
         if(s.getStrWithoutInterpolation() == null) {
@@ -765,7 +1093,6 @@ public class CodeGenerator {
             Exp[] exps = new Exp[s.getInterpolationExp().size()];
             s.getInterpolationExp().keySet().toArray(indexs);
             s.getInterpolationExp().values().toArray(exps);
-            Type type;
             methodVisitor.visitTypeInsn(NEW, "java/lang/StringBuilder");
             methodVisitor.visitInsn(DUP);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
@@ -779,9 +1106,8 @@ public class CodeGenerator {
                 writeIntLiteral(indexs[i]);
                 methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;", false);
                 methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-                writeExp(exps[i]);
-                type = typeOf(exps[i]);
-                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + Descriptor.toDescriptorString(type) + ")Ljava/lang/StringBuilder;", false);
+                String appended = writeStringPiece(exps[i]);
+                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + appended + ")Ljava/lang/StringBuilder;", false);
             }
             methodVisitor.visitLdcInsn(s.getStrWithoutInterpolation());
             writeIntLiteral(indexs[indexs.length - 1]);
@@ -793,80 +1119,203 @@ public class CodeGenerator {
     }
 
     // assume array is already created.
-    private void writeValueToInitArrayExp(int opcode, VariableExp iteratorExp, Exp initExp, String arrayPrefix, String sizeVar) throws CodeGeneratorException {
+    // Fill the array on the stack with initExp computed for every index, leaving the array on the stack. The
+    // lambda parameter is the loop counter unless the body assigns it, then a hidden counter is copied into it.
+    private void writeValueToInitArrayExp(BasicType elementType, VariableExp iteratorExp, Exp initExp, String arrayPrefix, String sizeVar) throws CodeGeneratorException {
         final Label head = new Label();
         final Label afterFor = new Label();
-        VariableEntry entry;
+        VariableEntry array = addEntry(new VariableExp(arrayPrefix + ".array"), TypeInterner.arrayOf(elementType));
+        array.store(this, methodVisitor);
+        boolean hidden = iteratorExp == null || assigns(initExp, iteratorExp);
+        VariableEntry counter = hidden ? addEntry(new VariableExp(arrayPrefix + ".index"), BasicType.TYPE_INT)
+                : getEntryFor(iteratorExp);
         writeIntLiteral(0);
-        entry = addEntry(new VariableExp(arrayPrefix + ".index"), BasicType.TYPE_INT);
-        entry.store(this, methodVisitor);
+        counter.store(this, methodVisitor);
         methodVisitor.visitLabel(head);
-        loadVariable(new VariableExp(arrayPrefix + ".index"));
+        counter.load(this, methodVisitor);
         loadVariable(new VariableExp(sizeVar));
         methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
-        methodVisitor.visitInsn(DUP);
-        loadVariable(new VariableExp(arrayPrefix + ".index"));
+        if(hidden && iteratorExp != null) {
+            counter.load(this, methodVisitor);
+            getEntryFor(iteratorExp).store(this, methodVisitor);
+        }
+        array.load(this, methodVisitor);
+        counter.load(this, methodVisitor);
         writeExp(initExp);
-        methodVisitor.visitInsn(opcode);
-        entry = getEntryFor(new VariableExp(arrayPrefix + ".index"));
-        methodVisitor.visitIincInsn(entry.index, 1);
-        if(iteratorExp != null) {
-            entry = getEntryFor(iteratorExp);
-            methodVisitor.visitIincInsn(entry.index, 1);
+        writeArrayStore(elementType, valueTypeOf(initExp));
+        methodVisitor.visitIincInsn(counter.index, 1);
+        methodVisitor.visitJumpInsn(GOTO, head);
+        methodVisitor.visitLabel(afterFor);
+        array.load(this, methodVisitor);
+    } // writeValueToInitArrayExp
+
+    // Arrays.fill(array, value) of the array on the stack, leaving it there.
+    private void writeArraysFill(BasicType elementType, Exp value) throws CodeGeneratorException {
+        methodVisitor.visitInsn(DUP);
+        writeExp(value);
+        String descriptor;
+        if(elementType == BasicType.TYPE_INT) {
+            descriptor = "([II)V";
+        } else if(elementType == BasicType.TYPE_BOOLEAN) {
+            descriptor = "([ZZ)V";
+        } else {
+            descriptor = "([Ljava/lang/Object;Ljava/lang/Object;)V";
         }
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/util/Arrays", "fill", descriptor, false);
+    } // writeArraysFill
+
+    // Store value in the first element of the array on the stack, then copy the filled part after itself until
+    // the array is full, log2(size) bulk copies instead of one store per element. The array is left on the stack.
+    private void writeDoublingFill(BasicType elementType, Exp value, String arrayPrefix, String sizeVar) throws CodeGeneratorException {
+        final Label head = new Label();
+        final Label afterFor = new Label();
+        methodVisitor.visitInsn(DUP);
+        writeIntLiteral(0);
+        writeExp(value);
+        writeArrayStore(elementType, valueTypeOf(value));
+        VariableEntry array = addEntry(new VariableExp(arrayPrefix + ".array"), TypeInterner.arrayOf(elementType));
+        array.store(this, methodVisitor);
+        VariableEntry filled = addEntry(new VariableExp(arrayPrefix + ".filled"), BasicType.TYPE_INT);
+        VariableEntry count = addEntry(new VariableExp(arrayPrefix + ".count"), BasicType.TYPE_INT);
+        writeIntLiteral(1);
+        filled.store(this, methodVisitor);
+        methodVisitor.visitLabel(head);
+        filled.load(this, methodVisitor);
+        loadVariable(new VariableExp(sizeVar));
+        methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
+        // count = min(filled, size - filled)
+        filled.load(this, methodVisitor);
+        loadVariable(new VariableExp(sizeVar));
+        filled.load(this, methodVisitor);
+        methodVisitor.visitInsn(ISUB);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Math", "min", "(II)I", false);
+        count.store(this, methodVisitor);
+        array.load(this, methodVisitor);
+        writeIntLiteral(0);
+        array.load(this, methodVisitor);
+        filled.load(this, methodVisitor);
+        count.load(this, methodVisitor);
+        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/System", "arraycopy",
+                "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        filled.load(this, methodVisitor);
+        count.load(this, methodVisitor);
+        methodVisitor.visitInsn(IADD);
+        filled.store(this, methodVisitor);
         methodVisitor.visitJumpInsn(GOTO, head);
         methodVisitor.visitLabel(afterFor);
-    }
+        array.load(this, methodVisitor);
+    } // writeDoublingFill
+
+    // Whether initExp gives the same value for every index, so it can be computed once: a literal or
+    // a variable other than the lambda parameter.
+    private static boolean isConstantInit(Exp initExp, VariableExp iteratorExp) {
+        return initExp instanceof IntExp || initExp instanceof BooleanExp
+                || initExp instanceof StringExp && ((StringExp) initExp).getInterpolationExp() == null
+                || initExp instanceof VariableExp && !initExp.equals(iteratorExp);
+    } // isConstantInit
+
+    // Whether initExp is what a new array of elementType already holds.
+    private static boolean isDefaultInit(Exp initExp, BasicType elementType) {
+        return elementType == BasicType.TYPE_INT && initExp instanceof IntExp && ((IntExp) initExp).getValue() == 0
+                || elementType == BasicType.TYPE_BOOLEAN && initExp instanceof BooleanExp && !((BooleanExp) initExp).getValue();
+    } // isDefaultInit
+
+    // Whether e increments or decrements variable.
+    private static boolean assigns(Exp e, final VariableExp variable) {
+        final boolean[] found = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                found[0] |= e instanceof SelfOperationExp && variable.equals(((SelfOperationExp) e).getVariableExp());
+                return !found[0];
+            }
+        }.scanExp(e);
+        return found[0];
+    } // assigns
 
     private void writeArrayExp(ArrayExp arrayExp) throws CodeGeneratorException {
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
-        VariableEntry entry;
-        LinkedHashMap<VariableExp, Type> parameters = arrayExp.getLambdaExp().getParameterList();
-        VariableExp[] variableExps = new VariableExp[1];
+        writeArrayExp(arrayExp, arrayExp.getSize(), arrayExp.getLambdaExp(), true);
+    }
+
+    // The array of Array(size, lambda) or MutableList(size, lambda), node is the expression creating it.
+    // Elements of type Any go to an AnyArray when tagged, to an Object[] for a list. A constant body
+    // fills the array in bulk, any other runs once per index.
+    private void writeArrayExp(Exp node, Exp size, LambdaExp lambdaExp, boolean tagged) throws CodeGeneratorException {
+        enterScope();
+        LinkedHashMap<VariableExp, Type> parameters = lambdaExp.getParameterList();
+        VariableExp iteratorExp = null;
         if(parameters != null && parameters.size() == 1) {
-            variableExps = new VariableExp[1];
-            parameters.keySet().toArray(variableExps);
-            entry = addEntry(variableExps[0], BasicType.TYPE_INT);
-            writeIntLiteral(0);
-            entry.store(this, methodVisitor);
+            iteratorExp = parameters.keySet().iterator().next();
+            addEntry(iteratorExp, BasicType.TYPE_INT);
         }
 
-        Exp size = arrayExp.getSize();
-        String arrayPrefix = arrayExp.hashCode() + "";
-        String sizeVar = arrayExp.hashCode() + ".size";
-        Exp returnExp = arrayExp.getLambdaExp().getReturnExp();
+        String arrayPrefix = node.hashCode() + "";
+        String sizeVar = node.hashCode() + ".size";
+        Exp returnExp = lambdaExp.getReturnExp();
         writeExp(size);
-        entry = addEntry(new VariableExp(sizeVar), BasicType.TYPE_INT);
+        VariableEntry entry = addEntry(new VariableExp(sizeVar), BasicType.TYPE_INT);
         entry.store(this, methodVisitor);
-        Type type = typeOf(returnExp);
+        Type type = valueTypeOf(returnExp);
         loadVariable(new VariableExp(sizeVar));
 
+        BasicType elementType;
         switch ((BasicType) type) {
             case TYPE_INT:
                 methodVisitor.visitIntInsn(NEWARRAY, T_INT);
-                writeValueToInitArrayExp(IASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                elementType = BasicType.TYPE_INT;
                 break;
             case TYPE_STRING:
                 methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/String");
-                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                elementType = BasicType.TYPE_STRING;
                 break;
             case TYPE_BOOLEAN:
                 methodVisitor.visitIntInsn(NEWARRAY, T_BOOLEAN);
-                writeValueToInitArrayExp(BASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                elementType = BasicType.TYPE_BOOLEAN;
                 break;
             case TYPE_ANY:
-                methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
-                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                if(tagged) {
+                    writeNewAnyArray();
+                    elementType = BasicType.TYPE_ANY;
+                } else {
+                    // the lambda returns a value of static type Any, already a reference stored like a String
+                    methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+                    elementType = BasicType.TYPE_STRING;
+                }
                 break;
-            case TYPE_UNIT:
+            default:
                 throw new CodeGeneratorException("Void type only from return in function");
         }
 
-        variables = gammaBefore;
+        if(isDefaultInit(returnExp, elementType)) {
+            // nothing to store, a new array is all zeros and false
+        } else if(elementType != BasicType.TYPE_ANY && isConstantInit(returnExp, iteratorExp)) {
+            if(size instanceof IntExp && ((IntExp) size).getValue() >= MIN_DOUBLING_FILL_SIZE) {
+                writeDoublingFill(elementType, returnExp, arrayPrefix, sizeVar);
+            } else {
+                writeArraysFill(elementType, returnExp);
+            }
+        } else {
+            writeValueToInitArrayExp(elementType, iteratorExp, returnExp, arrayPrefix, sizeVar);
+        }
+
+        exitScope();
     }
 
+    // Wrap the array on the stack, just created, into the runtime list of its type.
+    private void writeListOf(final TypeMutableList listType) throws CodeGeneratorException {
+        String listClass = Descriptor.listClassName(listType.getBasicType());
+        String arrayDescriptor = listType.getBasicType() == BasicType.TYPE_INT || listType.getBasicType() == BasicType.TYPE_BOOLEAN
+                ? Descriptor.toDescriptorString(TypeInterner.arrayOf(listType.getBasicType())) : "[Ljava/lang/Object;";
+        methodVisitor.visitMethodInsn(INVOKESTATIC, listClass, "of", "(" + arrayDescriptor + ")L" + listClass + ";", false);
+        runtimeClasses.add(listClass);
+    } // writeListOf
+
     private void writeValueToArray(BasicType type, List<Exp> exps) throws CodeGeneratorException {
         int size = exps.size();
+        if(size >= MIN_STATIC_ARRAY_SIZE && type != BasicType.TYPE_ANY && allConstant(exps)) {
+            writeStaticArrayClone(type, exps);
+            return;
+        }
         writeIntLiteral(size);
         switch (type) {
             case TYPE_INT:
@@ -897,18 +1346,12 @@ public class CodeGenerator {
                 }
                 break;
             case TYPE_ANY:
-                methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+                writeNewAnyArray();
                 for(int i = 0; i < size; i++) {
                     methodVisitor.visitInsn(DUP);
                     writeIntLiteral(i);
                     writeExp(exps.get(i));
-                    Type t = typeOf(exps.get(i));
-                    if(t == BasicType.TYPE_INT) {
-                        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
-                    } else if(t == BasicType.TYPE_BOOLEAN) {
-                        methodVisitor.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
-                    }
-                    methodVisitor.visitInsn(AASTORE);
+                    writeArrayStore(BasicType.TYPE_ANY, valueTypeOf(exps.get(i)));
                 }
                 break;
             case TYPE_UNIT:
@@ -916,69 +1359,335 @@ public class CodeGenerator {
         }
     }
 
+    private static boolean allConstant(final List<Exp> exps) {
+        for (Exp e : exps) {
+            if(!isConstant(e)) {
+                return false;
+            }
+        }
+        return true;
+    } // allConstant
+
+    /**
+     * A static array of literals and the string its elements are encoded into, see ConstantArrays.
+     */
+    private static class StaticArray {
+        private final String fieldName;
+        private final BasicType type;
+        private final int length;
+        private final String data;
+
+        private StaticArray(final String fieldName, final BasicType type, final int length, final String data) {
+            this.fieldName = fieldName;
+            this.type = type;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    // A copy of the static field holding the array of literals exps, declared the first time they are used.
+    private void writeStaticArrayClone(final BasicType type, final List<Exp> exps) throws CodeGeneratorException {
+        final String descriptor = Descriptor.toDescriptorString(TypeInterner.arrayOf(type));
+        final String data = encodeElements(type, exps);
+        StaticArray array = staticArrays.get(descriptor + data);
+        if(array == null) {
+            array = new StaticArray("arrayOf$" + staticArrays.size(), type, exps.size(), data);
+            staticArrays.put(descriptor + data, array);
+            classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, array.fieldName,
+                    descriptor, null, null).visitEnd();
+        }
+        methodVisitor.visitFieldInsn(GETSTATIC, outputClassName, array.fieldName, descriptor);
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, descriptor, "clone", "()Ljava/lang/Object;", false);
+        methodVisitor.visitTypeInsn(CHECKCAST, descriptor);
+    } // writeStaticArrayClone
+
+    // The literals exps as the string the ConstantArrays decoder of type reads.
+    private static String encodeElements(final BasicType type, final List<Exp> exps) {
+        final StringBuilder data = new StringBuilder();
+        for (Exp e : exps) {
+            if(type == BasicType.TYPE_INT) {
+                int value = ((IntExp) e).getValue();
+                data.append((char) (value >>> 16)).append((char) value);
+            } else if(type == BasicType.TYPE_BOOLEAN) {
+                data.append(((BooleanExp) e).getValue() ? '1' : '0');
+            } else {
+                String value = ((StringExp) e).getStrWithoutInterpolation();
+                data.append((char) value.length()).append(value);
+            }
+        }
+        return data.toString();
+    } // encodeElements
+
+    // <clinit> decoding every static array of literals, when the program has some.
+    private void writeClassInitializer() throws CodeGeneratorException {
+        if(staticArrays.isEmpty()) {
+            return;
+        }
+        final MethodVisitor visitor = classWriter.visitMethod(ACC_STATIC, "<clinit>", EMPTY_VOID, null, null);
+        visitor.visitCode();
+        for (StaticArray array : staticArrays.values()) {
+            writeLongString(visitor, array.data);
+            switch (array.type) {
+                case TYPE_INT:
+                    visitor.visitMethodInsn(INVOKESTATIC, Descriptor.CONSTANT_ARRAYS_CLASS_NAME, "ints",
+                            "(Ljava/lang/String;)[I", false);
+                    break;
+                case TYPE_BOOLEAN:
+                    visitor.visitMethodInsn(INVOKESTATIC, Descriptor.CONSTANT_ARRAYS_CLASS_NAME, "booleans",
+                            "(Ljava/lang/String;)[Z", false);
+                    break;
+                default:
+                    visitor.visitLdcInsn(array.length);
+                    visitor.visitMethodInsn(INVOKESTATIC, Descriptor.CONSTANT_ARRAYS_CLASS_NAME, "strings",
+                            "(Ljava/lang/String;I)[Ljava/lang/String;", false);
+            }
+            visitor.visitFieldInsn(PUTSTATIC, outputClassName, array.fieldName,
+                    Descriptor.toDescriptorString(TypeInterner.arrayOf(array.type)));
+        }
+        visitor.visitInsn(RETURN);
+        visitor.visitMaxs(0, 0);
+        visitor.visitEnd();
+        runtimeClasses.add(Descriptor.CONSTANT_ARRAYS_CLASS_NAME);
+    } // writeClassInitializer
+
+    // Push data, split into constants small enough for the constant pool and joined with String.concat.
+    private static void writeLongString(final MethodVisitor visitor, final String data) {
+        int start = 0;
+        int bytes = 0;
+        boolean first = true;
+        for (int i = 0; i <= data.length(); i++) {
+            int charBytes = 0;
+            if(i < data.length()) {
+                char c = data.charAt(i);
+                charBytes = c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            if(i == data.length() || bytes + charBytes > MAX_STRING_CONSTANT_BYTES) {
+                visitor.visitLdcInsn(data.substring(start, i));
+                if(!first) {
+                    visitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "concat",
+                            "(Ljava/lang/String;)Ljava/lang/String;", false);
+                }
+                first = false;
+                start = i;
+                bytes = 0;
+            }
+            bytes += charBytes;
+        }
+    } // writeLongString
+
+    // Elements of a MutableList<Any>, boxed into an Object[] for ObjectList.
+    private void writeValueToObjectArray(List<Exp> exps) throws CodeGeneratorException {
+        int size = exps.size();
+        writeIntLiteral(size);
+        methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        for(int i = 0; i < size; i++) {
+            methodVisitor.visitInsn(DUP);
+            writeIntLiteral(i);
+            writeExp(exps.get(i));
+            writeBox(valueTypeOf(exps.get(i)));
+            methodVisitor.visitInsn(AASTORE);
+        }
+    }
+
+    // new AnyArray(length), the length on the stack.
+    private void writeNewAnyArray() {
+        methodVisitor.visitTypeInsn(NEW, Descriptor.ANY_ARRAY_CLASS_NAME);
+        methodVisitor.visitInsn(DUP_X1);
+        methodVisitor.visitInsn(SWAP);
+        methodVisitor.visitMethodInsn(INVOKESPECIAL, Descriptor.ANY_ARRAY_CLASS_NAME, "<init>", "(I)V", false);
+        runtimeClasses.add(Descriptor.ANY_ARRAY_CLASS_NAME);
+    } // writeNewAnyArray
+
+    // Store the value on top of the stack into the element of the array and index below it. An Array<Any>
+    // keeps Ints and Booleans unboxed, valueType picks the setter.
+    private void writeArrayStore(final BasicType elementType, final Type valueType) throws CodeGeneratorException {
+        switch (elementType) {
+            case TYPE_INT:
+                methodVisitor.visitInsn(IASTORE);
+                break;
+            case TYPE_BOOLEAN:
+                methodVisitor.visitInsn(BASTORE);
+                break;
+            case TYPE_STRING:
+                methodVisitor.visitInsn(AASTORE);
+                break;
+            case TYPE_ANY:
+                if(valueType == BasicType.TYPE_INT) {
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "setInt", "(II)V", false);
+                } else if(valueType == BasicType.TYPE_BOOLEAN) {
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "setBoolean", "(IZ)V", false);
+                } else {
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "set", "(ILjava/lang/Object;)V", false);
+                }
+                break;
+            default:
+                throw new CodeGeneratorException("Void type only use for return from function!");
+        }
+    } // writeArrayStore
+
+    // Type of what writeExp(exp) leaves on the stack, typeOf gives the array type for an element read.
+    private Type valueTypeOf(final Exp exp) throws CodeGeneratorException {
+        Type type = typeOf(exp);
+        if(exp instanceof ArrayWithIndexExp && type instanceof TypeArray) {
+            return ((TypeArray) type).getBasicType();
+        }
+        return type;
+    } // valueTypeOf
+
     public Type writeExp(Exp exp) throws CodeGeneratorException {
-        if(exp instanceof IntExp) {
-            writeIntLiteral(((IntExp) exp).getValue());
-            return BasicType.TYPE_INT;
-        } else if(exp instanceof BooleanExp) {
-            writeIntLiteral(((BooleanExp) exp).getValue() ? 1 : 0);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof StringExp) {
-            writeStringExp((StringExp) exp);
-            return BasicType.TYPE_STRING;
-        } else if(exp instanceof VariableExp) {
-            return loadVariable((VariableExp)exp).type;
-        } else if(exp instanceof ArrayWithIndexExp) {
-            return loadVariable((ArrayWithIndexExp)exp).type;
-        } else if(exp instanceof SelfOperationExp) {
-            writeSelfOperationExp((SelfOperationExp) exp, true);
-            return BasicType.TYPE_INT;
-        } else if(exp instanceof BinaryIntExp) {
-            if(writeAdditiveExpOrMultplicativeExp((BinaryIntExp) exp)) {
-                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
-            }
-            return typeOf(exp);
-        } else if(exp instanceof ComparableExp) {
-            writeComparableExp((ComparableExp) exp);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof NotExp) {
-            writeNotExp((NotExp) exp);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof BiLogicalExp) {
-            writeBiLogicalExp((BiLogicalExp) exp);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof FunctionInstanceExp) {
-            return writeFunctionInstance((FunctionInstanceExp) exp);
-        } else if(exp instanceof ArrayOfExp) {
-            if(((ArrayOfExp) exp).getExpList().size() > 0) {
-                Exp temp = ((ArrayOfExp) exp).getExpList().get(0);
-                BasicType type = (BasicType) typeOf(temp);
-                boolean isAny = false;
-                for (Exp e : ((ArrayOfExp) exp).getExpList()) {
-                    if(type != typeOf(e)) {
-                        isAny = true;
-                        break;
-                    }
+        switch (exp.getKind()) {
+            case EXP_INT:
+                writeIntLiteral(((IntExp) exp).getValue());
+                return BasicType.TYPE_INT;
+            case EXP_BOOLEAN:
+                writeIntLiteral(((BooleanExp) exp).getValue() ? 1 : 0);
+                return BasicType.TYPE_BOOLEAN;
+            case EXP_STRING:
+                if(target.hasStringConcatFactory() && ((StringExp) exp).getInterpolationExp() != null
+                        && ((StringExp) exp).getInterpolationExp().size() > 0) {
+                    writeStringConcat(exp);
+                } else {
+                    writeStringExp((StringExp) exp);
                 }
-                if(isAny) {
-                    type = BasicType.TYPE_ANY;
+                return BasicType.TYPE_STRING;
+            case EXP_VARIABLE:
+            case EXP_ARRAY_WITH_INDEX:
+                return loadVariable((Variable) exp).type;
+            case EXP_SELF_OPERATION:
+                writeSelfOperationExp((SelfOperationExp) exp, true);
+                return BasicType.TYPE_INT;
+            case EXP_ADDITIVE:
+            case EXP_MULTIPLICATIVE:
+                if(target.hasStringConcatFactory() && typeOf(exp) == BasicType.TYPE_STRING) {
+                    writeStringConcat(exp);
+                } else if(writeAdditiveExpOrMultplicativeExp((BinaryIntExp) exp)) {
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
                 }
+                return typeOf(exp);
+            case EXP_COMPARABLE:
+            case EXP_NOT:
+            case EXP_BI_LOGICAL:
+                writeConditionValue(exp);
+                return BasicType.TYPE_BOOLEAN;
+            case EXP_FUNCTION_INSTANCE:
+                return writeFunctionInstance((FunctionInstanceExp) exp);
+            case EXP_ARRAY_OF: {
+                Type arrayType = typeOf(exp);
+                writeValueToArray(((TypeArray) arrayType).getBasicType(), ((ArrayOfExp) exp).getExpList());
+                return arrayType;
+            }
+            case EXP_ARRAY: {
+                Type arrayType = typeOf(exp);
+                writeArrayExp((ArrayExp) exp);
+                return arrayType;
+            }
+            case EXP_MUTABLE_LIST_OF: {
+                Type listType = typeOf(exp);
+                if(((TypeMutableList) listType).getBasicType() == BasicType.TYPE_ANY) {
+                    writeValueToObjectArray(((MutableListOfExp) exp).getExpList());
+                } else {
+                    writeValueToArray(((TypeMutableList) listType).getBasicType(), ((MutableListOfExp) exp).getExpList());
+                }
+                writeListOf((TypeMutableList) listType);
+                return listType;
+            }
+            case EXP_MUTABLE_LIST: {
+                Type listType = typeOf(exp);
+                writeArrayExp(exp, ((MutableListExp) exp).getSize(), ((MutableListExp) exp).getLambdaExp(), false);
+                writeListOf((TypeMutableList) listType);
+                return listType;
+            }
+            case EXP_LAMBDA:
+                return writeLambda((LambdaExp) exp);
+            default:
+                throw new CodeGeneratorException("Unsupported expression so far!");
+        }
+    }
 
-                writeValueToArray(type, ((ArrayOfExp) exp).getExpList());
-                return new TypeArray(type);
+    /**
+     * Recipe, argument types and constants of one makeConcatWithConstants call site being written.
+     */
+    private static class Concat {
+        private final StringBuilder recipe = new StringBuilder();
+        private final StringBuilder argumentTypes = new StringBuilder();
+        // the recipe first, then the constants it refers to
+        private final List<Object> bootstrapArguments = new ArrayList<>();
+        // the whole string while there are no arguments
+        private final StringBuilder text = new StringBuilder();
+        private int arguments = 0;
+
+        private void addConstant(final String constant) {
+            text.append(constant);
+            if(constant.indexOf(CONCAT_ARG) >= 0 || constant.indexOf(CONCAT_CONSTANT) >= 0) {
+                recipe.append(CONCAT_CONSTANT);
+                bootstrapArguments.add(constant);
             } else {
-                throw new CodeGeneratorException("arrayOf(exp*) should has at least one parameter");
+                recipe.append(constant);
             }
-        } else if(exp instanceof ArrayExp) {
-            Type returnGenericType = typeOf(((ArrayExp) exp).getLambdaExp().getReturnExp());
-            writeArrayExp((ArrayExp) exp);
-            return new TypeArray((BasicType) returnGenericType);
         }
-        else {
-            throw new CodeGeneratorException("Unsupported expression so far!");
+
+        private void write(final MethodVisitor methodVisitor) {
+            if(arguments == 0) {
+                methodVisitor.visitLdcInsn(text.toString());
+            } else {
+                bootstrapArguments.add(0, recipe.toString());
+                methodVisitor.visitInvokeDynamicInsn("makeConcatWithConstants",
+                        "(" + argumentTypes + ")Ljava/lang/String;",
+                        CONCAT_BOOTSTRAP,
+                        bootstrapArguments.toArray());
+            }
         }
     }
 
+    // string + chains and string templates as a single invokedynamic, constants go into the recipe
+    private void writeStringConcat(Exp exp) throws CodeGeneratorException {
+        writeConcatPieces(exp, new Concat()).write(methodVisitor);
+    } // writeStringConcat
+
+    // returns the call site still being filled, a new one once the previous one ran out of arguments
+    private Concat writeConcatPieces(Exp exp, Concat concat) throws CodeGeneratorException {
+        if(exp instanceof AdditiveExp && ((AdditiveExp) exp).getOp() == AdditiveOp.EXP_PLUS
+                && typeOf(exp) == BasicType.TYPE_STRING) {
+            concat = writeConcatPieces(((AdditiveExp) exp).getLeft(), concat);
+            return writeConcatPieces(((AdditiveExp) exp).getRight(), concat);
+        } else if(exp instanceof StringExp) {
+            StringExp s = (StringExp) exp;
+            if(s.getStrWithoutInterpolation() == null) {
+                throw new CodeGeneratorException("Null is StringExp!");
+            }
+            int start = 0;
+            if(s.getInterpolationExp() != null) {
+                for (Map.Entry<Integer, Exp> entry : s.getInterpolationExp().entrySet()) {
+                    concat.addConstant(s.getStrWithoutInterpolation().substring(start, entry.getKey()));
+                    concat = writeConcatPieces(entry.getValue(), concat);
+                    start = entry.getKey();
+                }
+            }
+            concat.addConstant(s.getStrWithoutInterpolation().substring(start));
+            return concat;
+        } else if(exp instanceof IntExp) {
+            concat.addConstant(String.valueOf(((IntExp) exp).getValue()));
+            return concat;
+        } else if(exp instanceof BooleanExp) {
+            concat.addConstant(String.valueOf(((BooleanExp) exp).getValue()));
+            return concat;
+        } else {
+            if(concat.arguments == MAX_CONCAT_ARGS) {
+                // the string so far is the first argument of the next call site
+                concat.write(methodVisitor);
+                concat = new Concat();
+                concat.recipe.append(CONCAT_ARG);
+                concat.argumentTypes.append("Ljava/lang/String;");
+                concat.arguments++;
+            }
+            String descriptor = writeStringPiece(exp);
+            concat.recipe.append(CONCAT_ARG);
+            concat.argumentTypes.append(descriptor);
+            concat.arguments++;
+            return concat;
+        }
+    } // writeConcatPieces
+
     // return whether is String append operation or not.
     private boolean writeAdditiveExpOrMultplicativeExp(BinaryIntExp exp) throws CodeGeneratorException {
         Exp left = exp.getLeft();
@@ -1026,6 +1735,17 @@ public class CodeGenerator {
             } else {
                 entry.load(this, methodVisitor);
             }
+        } else if(left instanceof FunctionInstanceExp) {
+            if(typeOf(left) == BasicType.TYPE_STRING) {
+                isStringAppend = true;
+                methodVisitor.visitTypeInsn(NEW, "java/lang/StringBuilder");
+                methodVisitor.visitInsn(DUP);
+                methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+                writeFunctionInstance((FunctionInstanceExp) left);
+                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+            } else {
+                writeFunctionInstance((FunctionInstanceExp) left);
+            }
         } else {
             assert (false);
             throw new CodeGeneratorException("IllTypedException should be handled in typechecker.");
@@ -1088,20 +1808,22 @@ public class CodeGenerator {
             final VariableEntry entry = getEntryFor((ArrayWithIndexExp) right);
             if(isStringAppend) {
                 BasicType basicType = ((TypeArray) entry.type).getBasicType();
-                entry.load(this, methodVisitor);
+                if(basicType == BasicType.TYPE_ANY) {
+                    writeAnyElementString((ArrayWithIndexExp) right);
+                } else {
+                    entry.load(this, methodVisitor);
+                }
                 switch (basicType) {
                     case TYPE_INT:
                         methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;", false);
                         break;
                     case TYPE_STRING:
+                    case TYPE_ANY:
                         methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
                         break;
                     case TYPE_BOOLEAN:
                         methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Z)Ljava/lang/StringBuilder;", false);
                         break;
-                    case TYPE_ANY:
-                        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;", false);
-                        break;
                     case TYPE_UNIT:
                         throw new CodeGeneratorException("Void type should only return from function declaration");
                 }
@@ -1115,6 +1837,12 @@ public class CodeGenerator {
             } else {
                 throw new CodeGeneratorException("String can be only in string + string operation.");
             }
+        } else if(right instanceof FunctionInstanceExp) {
+            Type type = writeFunctionInstance((FunctionInstanceExp) right);
+            if(isStringAppend) {
+                String appended = type instanceof BasicType ? Descriptor.toDescriptorString(type) : "Ljava/lang/Object;";
+                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + appended + ")Ljava/lang/StringBuilder;", false);
+            }
         }
         else {
             assert (false);
@@ -1144,11 +1872,36 @@ public class CodeGenerator {
                 methodVisitor.visitInsn(IDIV);
             } else if(op == MultiplicativeOp.OP_MOD) {
                 methodVisitor.visitInsn(IREM);
+            } else if(op == MultiplicativeOp.OP_SHIFT_LEFT) {
+                methodVisitor.visitInsn(ISHL);
+            } else if(op == MultiplicativeOp.OP_SHIFT_RIGHT) {
+                methodVisitor.visitInsn(ISHR);
+            } else if(op == MultiplicativeOp.OP_AND) {
+                methodVisitor.visitInsn(IAND);
             }
         }
         return isStringAppend;
     }
 
+    // Write exp as a piece of a string, returning the descriptor it is appended as. Arrays and lists are
+    // appended as objects, an Array<Any> element as its text.
+    private String writeStringPiece(final Exp exp) throws CodeGeneratorException {
+        if(exp instanceof ArrayWithIndexExp && valueTypeOf(exp) == BasicType.TYPE_ANY) {
+            writeAnyElementString((ArrayWithIndexExp) exp);
+            return "Ljava/lang/String;";
+        }
+        writeExp(exp);
+        Type type = valueTypeOf(exp);
+        return type instanceof BasicType ? Descriptor.toDescriptorString(type) : "Ljava/lang/Object;";
+    } // writeStringPiece
+
+    // The text of an Array<Any> element, read without boxing it.
+    private void writeAnyElementString(final ArrayWithIndexExp element) throws CodeGeneratorException {
+        getEntryFor(element).loadValue(methodVisitor);
+        writeExp(element.getIndexExp());
+        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "toString", "(I)Ljava/lang/String;", false);
+    } // writeAnyElementString
+
     private void writePrint(final Exp exp, boolean isNewLine) throws CodeGeneratorException {
         Type type = typeOf(exp);
         final String descriptor;
@@ -1165,7 +1918,7 @@ public class CodeGenerator {
                     descriptor = "(I)V";
                 } else if (basicType == BasicType.TYPE_BOOLEAN) {
                     descriptor = "(Z)V";
-                } else if(basicType == BasicType.TYPE_STRING) {
+                } else if(basicType == BasicType.TYPE_STRING || basicType == BasicType.TYPE_ANY) {
                     descriptor = "(Ljava/lang/String;)V";
                 } else {
                     throw new CodeGeneratorException("Unrecognized type; " + type);
@@ -1182,7 +1935,11 @@ public class CodeGenerator {
                 "java/lang/System",
                 "out",
                 "Ljava/io/PrintStream;");
-        writeExp(exp);
+        if(exp instanceof ArrayWithIndexExp && valueTypeOf(exp) == BasicType.TYPE_ANY) {
+            writeAnyElementString((ArrayWithIndexExp) exp);
+        } else {
+            writeExp(exp);
+        }
         methodVisitor.visitMethodInsn(INVOKEVIRTUAL,
                 "java/io/PrintStream",
                 isNewLine ? "println" : "print",
@@ -1190,6 +1947,184 @@ public class CodeGenerator {
                 false);
     } // writePrint
 
+    /**
+     * A lambda whose method is still to be written. The method takes the captured local variables first,
+     * then the parameters of the lambda, as LambdaMetafactory binds them.
+     */
+    private static class Lambda {
+        private final String name;
+        private final String descriptor;
+        private final LambdaExp lambdaExp;
+        private final TypeHighOrderFunction type;
+        private final List<VariableEntry> captured;
+
+        private Lambda(final String name, final String descriptor, final LambdaExp lambdaExp,
+                       final TypeHighOrderFunction type, final List<VariableEntry> captured) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.lambdaExp = lambdaExp;
+            this.type = type;
+            this.captured = captured;
+        }
+    }
+
+    private TypeHighOrderFunction typeOfLambda(final LambdaExp lambdaExp) throws CodeGeneratorException {
+        // the parameters are in scope for typing the body only, the entries they hide come back afterwards
+        final Map<Variable, VariableEntry> hidden = new HashMap<>();
+        final List<Type> parameterTypes = new ArrayList<>();
+        if(lambdaExp.getParameterList() != null) {
+            for (Map.Entry<VariableExp, Type> parameter : lambdaExp.getParameterList().entrySet()) {
+                hidden.put(parameter.getKey(), variables.put(parameter.getKey(),
+                        new VariableEntry(parameter.getKey(), parameter.getValue(), nextIndex)));
+                parameterTypes.add(parameter.getValue());
+            }
+        }
+        try {
+            return TypeInterner.functionOf(parameterTypes, valueTypeOf(lambdaExp.getReturnExp()));
+        } finally {
+            for (Map.Entry<Variable, VariableEntry> entry : hidden.entrySet()) {
+                if(entry.getValue() == null) {
+                    variables.remove(entry.getKey());
+                } else {
+                    variables.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    } // typeOfLambda
+
+    // An instance of the functional interface of the lambda, made by LambdaMetafactory from a synthetic method.
+    private Type writeLambda(final LambdaExp lambdaExp) throws CodeGeneratorException {
+        final TypeHighOrderFunction type = typeOfLambda(lambdaExp);
+        final FunctionInterface functionInterface = functionInterfaceOf(type);
+        final List<VariableEntry> captured = capturedBy(lambdaExp);
+        final StringBuilder capturedDescriptor = new StringBuilder();
+        for (VariableEntry entry : captured) {
+            entry.loadValue(methodVisitor);
+            capturedDescriptor.append(Descriptor.toDescriptorString(entry.type));
+        }
+        final String name = "lambda$" + nextLambda++;
+        final String descriptor = "(" + capturedDescriptor + functionInterface.implementationDescriptor(type, false).substring(1);
+        methodVisitor.visitInvokeDynamicInsn(functionInterface.methodName,
+                "(" + capturedDescriptor + ")L" + functionInterface.owner + ";",
+                LAMBDA_BOOTSTRAP,
+                org.objectweb.asm.Type.getMethodType(functionInterface.descriptor),
+                new Handle(H_INVOKESTATIC, outputClassName, name, descriptor, false),
+                org.objectweb.asm.Type.getMethodType(functionInterface.implementationDescriptor(type, true)));
+        pendingLambdas.add(new Lambda(name, descriptor, lambdaExp, type, captured));
+        return type;
+    } // writeLambda
+
+    // Local variables the lambda reads, passed to its method by value. Top-level variables lambdas read are fields.
+    private List<VariableEntry> capturedBy(final LambdaExp lambdaExp) throws CodeGeneratorException {
+        final Set<String> names = readNames(lambdaExp.getReturnExp());
+        if(lambdaExp.getParameterList() != null) {
+            for (VariableExp parameter : lambdaExp.getParameterList().keySet()) {
+                names.remove(parameter.getName());
+            }
+        }
+        final List<VariableEntry> captured = new ArrayList<>();
+        for (String name : names) {
+            final VariableEntry entry = variables.get(new VariableExp(name));
+            if(entry != null && !entry.isField()) {
+                if(reassigned.contains(name)) {
+                    throw new CodeGeneratorException("Lambda cannot capture " + name + ", it is assigned after its declaration");
+                }
+                captured.add(entry);
+            }
+        }
+        return captured;
+    } // capturedBy
+
+    private void writeLambdaMethod(final Lambda lambda) throws CodeGeneratorException {
+        final LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        for (VariableEntry entry : lambda.captured) {
+            parameters.put((Exp) entry.variable, entry.type);
+        }
+        if(lambda.lambdaExp.getParameterList() != null) {
+            parameters.putAll(lambda.lambdaExp.getParameterList());
+        }
+        functionStart(new FunctionDeclareStmt(new VariableExp(lambda.name), lambda.type.getReturnType(), parameters, null),
+                lambda.descriptor, ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC);
+        final AssignedNames assigned = new AssignedNames();
+        assigned.scanExp(lambda.lambdaExp.getReturnExp());
+        reassigned = assigned.names;
+        writeExp(lambda.lambdaExp.getReturnExp());
+        writeReturnFor(lambda.type.getReturnType());
+        functionEnd();
+    } // writeLambdaMethod
+
+    // Variables exp reads, including the variables of function type it calls.
+    private static Set<String> readNames(final Exp exp) {
+        final Set<String> names = new TreeSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp) {
+                    names.add(((VariableExp) e).getName());
+                } else if(e instanceof FunctionInstanceExp) {
+                    names.add(((FunctionInstanceExp) e).getFuncName().getName());
+                }
+                return true;
+            }
+        }.scanExp(exp);
+        return names;
+    } // readNames
+
+    // Variables read by the lambdas of s, the lambdas of Array(size, lambda) and MutableList(size, lambda) are loops.
+    private static Set<String> lambdaNames(final Stmt s) {
+        final Set<String> names = new TreeSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof LambdaExp) {
+                    names.addAll(readNames(((LambdaExp) e).getReturnExp()));
+                    return false;
+                } else if(e instanceof ArrayExp) {
+                    scanExp(((ArrayExp) e).getSize());
+                    scanExp(((ArrayExp) e).getLambdaExp().getReturnExp());
+                    return false;
+                } else if(e instanceof MutableListExp) {
+                    scanExp(((MutableListExp) e).getSize());
+                    scanExp(((MutableListExp) e).getLambdaExp().getReturnExp());
+                    return false;
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return names;
+    } // lambdaNames
+
+    /**
+     * Variables assigned after their declaration, leaving out the bodies of functions declared in between.
+     */
+    private static class AssignedNames extends AstScanner {
+        private final Set<String> names = new HashSet<>();
+
+        @Override
+        protected boolean visitStmt(Stmt s) {
+            if(s instanceof AssignStmt && !((AssignStmt) s).isNew() && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+            } else if(s instanceof CompoundAssignStmt && ((CompoundAssignStmt) s).getVariable() instanceof VariableExp) {
+                names.add(((VariableExp) ((CompoundAssignStmt) s).getVariable()).getName());
+            }
+            return !(s instanceof FunctionDeclareStmt);
+        }
+
+        @Override
+        protected boolean visitExp(Exp e) {
+            if(e instanceof SelfOperationExp && ((SelfOperationExp) e).getVariableExp() instanceof VariableExp) {
+                names.add(((VariableExp) ((SelfOperationExp) e).getVariableExp()).getName());
+            }
+            return true;
+        }
+    }
+
+    private static Set<String> assignedNames(final List<Stmt> stmts) {
+        final AssignedNames assigned = new AssignedNames();
+        assigned.scanStmts(stmts);
+        return assigned.names;
+    } // assignedNames
+
     private void loadFunctionTable(final Program program) throws CodeGeneratorException {
         for (final Stmt s : program.getStmtList()) {
             if(s instanceof FunctionDeclareStmt) {
@@ -1201,18 +2136,73 @@ public class CodeGenerator {
         }
     } // loadFunctionTable
 
-    public void writeProgram(final Program program) throws CodeGeneratorException, IOException {
+    // the class file of the program, without writing it anywhere
+    public byte[] generateClass(final Program program) throws CodeGeneratorException {
         loadFunctionTable(program);
+        rangeAnalysis = RangeAnalysis.analyze(program);
         for (final FunctionDeclareStmt function : functionTable.values()) {
-            writeFunction(function);
+            sharedNames.addAll(PurityAnalysis.globalNames(function));
+            for (final String callee : CallGraph.calledNames(function)) {
+                if(!functionTable.containsKey(callee)) {
+                    sharedNames.add(callee);    // a top-level variable of function type
+                }
+            }
+        }
+        // lambdas see later assignments of the top-level variables they read, as functions do
+        for (final Stmt s : program.getStmtList()) {
+            if(!(s instanceof FunctionDeclareStmt)) {
+                sharedNames.addAll(lambdaNames(s));
+            }
         }
+        // the entry point declares the fields the functions use
         writeEntryPoint(program);
+        for (final FunctionDeclareStmt function : functionTable.values()) {
+            writeFunction(function);
+        }
+        while (!pendingLambdas.isEmpty()) {
+            writeLambdaMethod(pendingLambdas.poll());
+        }
+        writeClassInitializer();
         classWriter.visitEnd();
+        return classWriter.toByteArray();
+    } // generateClass
 
+    public void writeProgram(final Program program) throws CodeGeneratorException, IOException {
+        final byte[] classFile = generateClass(program);
         final BufferedOutputStream output =
                 new BufferedOutputStream(new FileOutputStream(new File(outputClassName + ".class")));
-        output.write(classWriter.toByteArray());
+        output.write(classFile);
         output.close();
+        writeRuntimeClasses();
     } // writeProgram
 
+    /**
+     * Copy the runtime classes the program uses from the compiler's class path, and write the interfaces
+     * generated for its function types, so the class runs on its own.
+     */
+    private void writeRuntimeClasses() throws IOException {
+        for (final FunctionInterface functionInterface : generatedInterfaces.values()) {
+            final File file = new File(functionInterface.owner + ".class");
+            file.getParentFile().mkdirs();
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+                output.write(functionInterface.generate());
+            }
+        }
+        for (final String runtimeClass : runtimeClasses) {
+            final File file = new File(runtimeClass + ".class");
+            file.getParentFile().mkdirs();
+            try (InputStream input = CodeGenerator.class.getResourceAsStream("/" + runtimeClass + ".class");
+                 OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+                if(input == null) {
+                    throw new IOException("Runtime class not found: " + runtimeClass);
+                }
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+        }
+    } // writeRuntimeClasses
+
 }
@@ -2,8 +2,17 @@ package com.github.wangdong20.kotlinscriptcompiler.codegen;
 
 import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.*;
+import com.github.wangdong20.kotlinscriptcompiler.runtime.AnyArray;
+import com.github.wangdong20.kotlinscriptcompiler.runtime.BooleanList;
+import com.github.wangdong20.kotlinscriptcompiler.runtime.ConstantArrays;
+import com.github.wangdong20.kotlinscriptcompiler.runtime.IntList;
+import com.github.wangdong20.kotlinscriptcompiler.runtime.ObjectList;
 
 public class Descriptor {
+    // Array<Any> is a runtime class keeping Ints and Booleans unboxed
+    public static final String ANY_ARRAY_CLASS_NAME = org.objectweb.asm.Type.getInternalName(AnyArray.class);
+    // decoders of the large literal arrays written into string constants
+    public static final String CONSTANT_ARRAYS_CLASS_NAME = org.objectweb.asm.Type.getInternalName(ConstantArrays.class);
 
     public static String toDescriptorString(Type type) throws CodeGeneratorException {
         if(type instanceof BasicType) {
@@ -32,20 +41,31 @@ public class Descriptor {
                 case TYPE_UNIT:
                     return "[V";
                 case TYPE_ANY:
-                    return "[Ljava/lang/Object;";
+                    return "L" + ANY_ARRAY_CLASS_NAME + ";";
                 default:
                     throw new CodeGeneratorException("Unknown type " + type);
             }
         } else if(type instanceof TypeMutableList) {
-            return "Ljava/util/List;";
+            return "L" + listClassName(((TypeMutableList) type).getBasicType()) + ";";
         } else if(type instanceof TypeHighOrderFunction) {
-            // return ? don't know how to implement high order function
-            return null;
+            return "L" + FunctionInterface.of((TypeHighOrderFunction) type).owner + ";";
         } else {
             throw new CodeGeneratorException("Unknown type " + type);
         }
     }
 
+    // Runtime class of MutableList<basicType>, lists of Int and Boolean keep their elements unboxed.
+    public static String listClassName(BasicType basicType) {
+        switch (basicType) {
+            case TYPE_INT:
+                return org.objectweb.asm.Type.getInternalName(IntList.class);
+            case TYPE_BOOLEAN:
+                return org.objectweb.asm.Type.getInternalName(BooleanList.class);
+            default:
+                return org.objectweb.asm.Type.getInternalName(ObjectList.class);
+        }
+    }
+
     public static String toDescriptorString(FunctionDeclareStmt functionDeclareStmt) throws CodeGeneratorException {
         StringBuilder result = new StringBuilder();
         result.append("(");
@@ -0,0 +1,182 @@
+package com.github.wangdong20.kotlinscriptcompiler.codegen;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import org.objectweb.asm.ClassWriter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The java.util.function interface a function type compiles to. Ints and Booleans are both ints in the JVM,
+ * so a parameter of either type takes an int slot of IntUnaryOperator, IntPredicate, IntBinaryOperator and
+ * the like, and is only boxed when no interface of the shape has one there, as in (Int, String) -> Int.
+ * Function types of three or more parameters have no interface in java.util.function, they take
+ * FunctionN, or ConsumerN when they return Unit, which the code generator writes into the runtime package.
+ */
+public class FunctionInterface {
+    // shape of a signature: 'I' for an Int or Boolean parameter, 'L' for any other, then the result kind
+    private static final Map<String, FunctionInterface> INTERFACES = new HashMap<>();
+    // package of the interfaces generated for function types of more parameters, next to the runtime classes
+    private static final String GENERATED_PACKAGE =
+            Descriptor.ANY_ARRAY_CLASS_NAME.substring(0, Descriptor.ANY_ARRAY_CLASS_NAME.lastIndexOf('/') + 1);
+    private static final String GENERATED_METHOD_NAME = "invoke";
+
+    static {
+        add("V", "java/lang/Runnable", "run", "()V");
+        add("I", "java/util/function/IntSupplier", "getAsInt", "()I");
+        add("Z", "java/util/function/BooleanSupplier", "getAsBoolean", "()Z");
+        add("L", "java/util/function/Supplier", "get", "()Ljava/lang/Object;");
+        add("IV", "java/util/function/IntConsumer", "accept", "(I)V");
+        add("II", "java/util/function/IntUnaryOperator", "applyAsInt", "(I)I");
+        add("IZ", "java/util/function/IntPredicate", "test", "(I)Z");
+        add("IL", "java/util/function/IntFunction", "apply", "(I)Ljava/lang/Object;");
+        add("LV", "java/util/function/Consumer", "accept", "(Ljava/lang/Object;)V");
+        add("LI", "java/util/function/ToIntFunction", "applyAsInt", "(Ljava/lang/Object;)I");
+        add("LZ", "java/util/function/Predicate", "test", "(Ljava/lang/Object;)Z");
+        add("LL", "java/util/function/Function", "apply", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        add("III", "java/util/function/IntBinaryOperator", "applyAsInt", "(II)I");
+        // no IntBiPredicate, a Boolean result is an int like any other
+        add("IIZ", "java/util/function/IntBinaryOperator", "applyAsInt", "(II)I");
+        add("LIV", "java/util/function/ObjIntConsumer", "accept", "(Ljava/lang/Object;I)V");
+        add("LLV", "java/util/function/BiConsumer", "accept", "(Ljava/lang/Object;Ljava/lang/Object;)V");
+        add("LLI", "java/util/function/ToIntBiFunction", "applyAsInt", "(Ljava/lang/Object;Ljava/lang/Object;)I");
+        add("LLZ", "java/util/function/BiPredicate", "test", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+        add("LLL", "java/util/function/BiFunction", "apply", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+
+    public final String owner;
+    public final String methodName;
+    // erased descriptor of the interface method
+    public final String descriptor;
+
+    private FunctionInterface(final String owner, final String methodName, final String descriptor) {
+        this.owner = owner;
+        this.methodName = methodName;
+        this.descriptor = descriptor;
+    }
+
+    private static void add(final String shape, final String owner, final String methodName, final String descriptor) {
+        INTERFACES.put(shape, new FunctionInterface(owner, methodName, descriptor));
+    }
+
+    public static FunctionInterface of(final TypeHighOrderFunction type) {
+        final List<Type> parameters = type.getParameterList();
+        final String result = resultKind(type.getReturnType());
+        StringBuilder shape = new StringBuilder();
+        for (Type parameter : parameters) {
+            shape.append(isInt(parameter) ? 'I' : 'L');
+        }
+        FunctionInterface found = INTERFACES.get(shape + result);
+        if(found == null && parameters.size() <= 2) {
+            // box the Int and Boolean parameters, every interface taking references exists
+            found = INTERFACES.get(parameters.size() == 1 ? "L" + result : "LL" + result);
+        }
+        if(found == null) {
+            found = generated(parameters.size(), result.equals("V"));
+        }
+        return found;
+    } // of
+
+    // FunctionN or ConsumerN, every parameter and the result boxed.
+    private static FunctionInterface generated(final int arity, final boolean unit) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < arity; i++) {
+            descriptor.append("Ljava/lang/Object;");
+        }
+        descriptor.append(unit ? ")V" : ")Ljava/lang/Object;");
+        return new FunctionInterface(GENERATED_PACKAGE + (unit ? "Consumer" : "Function") + arity,
+                GENERATED_METHOD_NAME, descriptor.toString());
+    } // generated
+
+    // Whether the interface is not in the JDK and has to be written next to the program by generate.
+    public boolean isGenerated() {
+        return owner.startsWith(GENERATED_PACKAGE);
+    }
+
+    // Class file of the generated interface.
+    public byte[] generate() {
+        final ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(V1_8, ACC_PUBLIC | ACC_ABSTRACT | ACC_INTERFACE, owner, null, "java/lang/Object", null);
+        classWriter.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, methodName, descriptor, null, null).visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    } // generate
+
+    private static boolean isInt(final Type type) {
+        return type == BasicType.TYPE_INT || type == BasicType.TYPE_BOOLEAN;
+    }
+
+    private static String resultKind(final Type type) {
+        if(type == BasicType.TYPE_UNIT) {
+            return "V";
+        } else if(type == BasicType.TYPE_INT) {
+            return "I";
+        } else if(type == BasicType.TYPE_BOOLEAN) {
+            return "Z";
+        }
+        return "L";
+    } // resultKind
+
+    // Whether the parameter at index is passed as an Object, boxed when its type is Int or Boolean.
+    public boolean isReference(final int index) {
+        return parameterDescriptor(index).startsWith("L");
+    }
+
+    // Whether the result is returned as an Object and has to be cast, or unboxed, to its type.
+    public boolean isReferenceResult() {
+        return descriptor.endsWith(";");
+    }
+
+    private String parameterDescriptor(final int index) {
+        String parameters = descriptor.substring(1, descriptor.indexOf(')'));
+        int position = 0;
+        for (int i = 0; i < index; i++) {
+            position = parameters.charAt(position) == 'L' ? parameters.indexOf(';', position) + 1 : position + 1;
+        }
+        return parameters.substring(position);
+    } // parameterDescriptor
+
+    /**
+     * Descriptor of a method implementing the interface for type, boxed parameters and results keep
+     * their own types and LambdaMetafactory unboxes and casts them. Ints and Booleans passed as ints
+     * are both declared I.
+     */
+    public String implementationDescriptor(final TypeHighOrderFunction type, final boolean instantiated)
+            throws CodeGeneratorException {
+        StringBuilder result = new StringBuilder("(");
+        for (int i = 0; i < type.getParameterList().size(); i++) {
+            Type parameter = type.getParameterList().get(i);
+            if(!isReference(i)) {
+                result.append('I');
+            } else if(instantiated) {
+                result.append(referenceDescriptor(parameter));
+            } else {
+                result.append(Descriptor.toDescriptorString(parameter));
+            }
+        }
+        result.append(')');
+        if(!isReferenceResult()) {
+            result.append(descriptor.substring(descriptor.indexOf(')') + 1));
+        } else if(instantiated) {
+            result.append(referenceDescriptor(type.getReturnType()));
+        } else {
+            result.append(Descriptor.toDescriptorString(type.getReturnType()));
+        }
+        return result.toString();
+    } // implementationDescriptor
+
+    // Descriptor of a value of type held in an Object, the wrapper of an Int or Boolean.
+    public static String referenceDescriptor(final Type type) throws CodeGeneratorException {
+        if(type == BasicType.TYPE_INT) {
+            return "Ljava/lang/Integer;";
+        } else if(type == BasicType.TYPE_BOOLEAN) {
+            return "Ljava/lang/Boolean;";
+        }
+        return Descriptor.toDescriptorString(type);
+    } // referenceDescriptor
+}
@@ -5,6 +5,8 @@ import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Variable;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeMutableList;
 import org.objectweb.asm.MethodVisitor;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -13,23 +15,56 @@ public class VariableEntry {
     public final Variable variable;
     public final Type type;
     public final int index;
+    // class and name of the static field holding a top-level variable, null for a local
+    public final String owner;
+    public final String fieldName;
 
     public VariableEntry(Variable variable, Type type, int index) {
         assert(index >= 0);
         this.variable = variable;
         this.type = type;
         this.index = index;
+        this.owner = null;
+        this.fieldName = null;
     }
 
-    public void load(CodeGenerator codeGenerator, final MethodVisitor visitor) throws CodeGeneratorException {
-        // both are treated as integers at the bytecode level
-        if (type == BasicType.TYPE_INT ||
-                type == BasicType.TYPE_BOOLEAN) {
+    public VariableEntry(Variable variable, Type type, String owner, String fieldName) {
+        this.variable = variable;
+        this.type = type;
+        this.index = -1;
+        this.owner = owner;
+        this.fieldName = fieldName;
+    }
+
+    public boolean isField() {
+        return owner != null;
+    }
+
+    // The same storage accessed through another variable, an element of the array it holds.
+    public VariableEntry withVariable(Variable other) {
+        return isField() ? new VariableEntry(other, type, owner, fieldName) : new VariableEntry(other, type, index);
+    }
+
+    // Push the whole value, the array itself for an element entry.
+    public void loadValue(final MethodVisitor visitor) throws CodeGeneratorException {
+        if(isField()) {
+            visitor.visitFieldInsn(GETSTATIC, owner, fieldName, Descriptor.toDescriptorString(type));
+        } else if (type == BasicType.TYPE_INT || type == BasicType.TYPE_BOOLEAN) {
+            // both are treated as integers at the bytecode level
             visitor.visitVarInsn(ILOAD, index);
-        } else if (type == BasicType.TYPE_STRING || type == BasicType.TYPE_ANY) {
+        } else {
             visitor.visitVarInsn(ALOAD, index);
+        }
+    } // loadValue
+
+    public void load(CodeGenerator codeGenerator, final MethodVisitor visitor) throws CodeGeneratorException {
+        if (type == BasicType.TYPE_INT ||
+                type == BasicType.TYPE_BOOLEAN ||
+                type == BasicType.TYPE_STRING || type == BasicType.TYPE_ANY || type instanceof TypeMutableList
+                || type instanceof TypeHighOrderFunction) {
+            loadValue(visitor);
         } else if(type instanceof TypeArray) {
-            visitor.visitVarInsn(ALOAD, index);
+            loadValue(visitor);
             if(variable instanceof ArrayWithIndexExp) {
                 codeGenerator.writeExp(((ArrayWithIndexExp) variable).getIndexExp());
                 int opcode;
@@ -41,9 +76,11 @@ public class VariableEntry {
                         opcode = BALOAD;
                         break;
                     case TYPE_STRING:
-                    case TYPE_ANY:
                         opcode = AALOAD;
                         break;
+                    case TYPE_ANY:
+                        visitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "get", "(I)Ljava/lang/Object;", false);
+                        return;
                     default: throw new CodeGeneratorException("Unsupported type in array: " + type);
                 }
                 visitor.visitInsn(opcode);
@@ -55,11 +92,14 @@ public class VariableEntry {
     } // load
 
     public void store(CodeGenerator codeGenerator, final MethodVisitor visitor) throws CodeGeneratorException {
-        // both are treated as integers at the bytecode level
-        if (type == BasicType.TYPE_INT ||
+        if(isField() && !(variable instanceof ArrayWithIndexExp)) {
+            visitor.visitFieldInsn(PUTSTATIC, owner, fieldName, Descriptor.toDescriptorString(type));
+        } else if (type == BasicType.TYPE_INT ||
                 type == BasicType.TYPE_BOOLEAN) {
+            // both are treated as integers at the bytecode level
             visitor.visitVarInsn(ISTORE, index);
-        } else if (type == BasicType.TYPE_STRING || type == BasicType.TYPE_ANY) {
+        } else if (type == BasicType.TYPE_STRING || type == BasicType.TYPE_ANY || type instanceof TypeMutableList
+                || type instanceof TypeHighOrderFunction) {
             visitor.visitVarInsn(ASTORE, index);
         } else if(type instanceof TypeArray) {
             if(variable instanceof ArrayWithIndexExp) {
@@ -72,9 +112,12 @@ public class VariableEntry {
                         opcode = BASTORE;
                         break;
                     case TYPE_STRING:
-                    case TYPE_ANY:
                         opcode = AASTORE;
                         break;
+                    case TYPE_ANY:
+                        // a value of static type Any, the code generator stores Ints and Booleans with their own setters
+                        visitor.visitMethodInsn(INVOKEVIRTUAL, Descriptor.ANY_ARRAY_CLASS_NAME, "set", "(ILjava/lang/Object;)V", false);
+                        return;
                     default: throw new CodeGeneratorException("Unsupported type in array: " + type);
                 }
                 visitor.visitInsn(opcode);
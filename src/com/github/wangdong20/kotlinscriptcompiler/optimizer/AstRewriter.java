@@ -0,0 +1,163 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copy a tree, letting subclasses replace expressions on the way. visitExp returns the replacement of an
+ * expression or null to copy it and rewrite its children. Assignment targets and the variables of self
+ * operations are never replaced, only the index of an array element target is rewritten, and lambda
+ * bodies are copied as they are because their parameters shadow the names around them.
+ */
+public abstract class AstRewriter {
+
+    protected Exp visitExp(Exp e) {
+        return null;
+    }
+
+    public List<Stmt> rewriteStmts(List<Stmt> stmts) {
+        if(stmts == null) {
+            return null;
+        }
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            result.add(rewriteStmt(s));
+        }
+        return result;
+    }
+
+    public BlockStmt rewriteBlock(BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(rewriteStmts(blockStmt.getStmtList()));
+    }
+
+    public Stmt rewriteStmt(Stmt s) {
+        if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            return new AssignStmt(rewriteExp(asAssign.getExpression()), rewriteVariable(asAssign.getVariable()),
+                    asAssign.getType(), asAssign.isReadOnly(), asAssign.isNew());
+        } else if(s instanceof CompoundAssignStmt) {
+            CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            return new CompoundAssignStmt(rewriteExp(asAssign.getExpression()), rewriteVariable(asAssign.getVariable()),
+                    asAssign.getOp());
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            if(asFor.getArrayExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), rewriteBlock(asFor.getBlockStmt()));
+            }
+            RangeExp rangeExp = (RangeExp) rewriteExp(asFor.getRangeExp());
+            if(asFor.getStepExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), rangeExp, rewriteExp(asFor.getStepExp()),
+                        rewriteBlock(asFor.getBlockStmt()));
+            }
+            return new ForStmt(asFor.getIteratorExp(), rangeExp, rewriteBlock(asFor.getBlockStmt()));
+        } else if(s instanceof WhileStmt) {
+            return new WhileStmt(rewriteExp(((WhileStmt) s).getCondition()), rewriteBlock(((WhileStmt) s).getBlockStmt()));
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(asIf.getFalseBranch() != null) {
+                return new IfStmt(rewriteExp(asIf.getCondition()), rewriteBlock(asIf.getTrueBranch()),
+                        rewriteBlock(asIf.getFalseBranch()));
+            }
+            return new IfStmt(rewriteExp(asIf.getCondition()), rewriteBlock(asIf.getTrueBranch()));
+        } else if(s instanceof BlockStmt) {
+            return rewriteBlock((BlockStmt) s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            return new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), rewriteBlock(asFunction.getBlockStmt()), asFunction.isInline());
+        } else if(s instanceof ReturnStmt) {
+            return new ReturnStmt(rewriteExp(((ReturnStmt) s).getReturnExp()));
+        } else if(s instanceof PrintStmt) {
+            return new PrintStmt(rewriteExp(((PrintStmt) s).getValue()));
+        } else if(s instanceof PrintlnStmt) {
+            return new PrintlnStmt(rewriteExp(((PrintlnStmt) s).getValue()));
+        } else if(s instanceof FunctionInstanceStmt) {
+            Exp call = rewriteExp(((FunctionInstanceStmt) s).getFunctionInstanceExp());
+            // a call statement keeps a call, only its arguments may change
+            if(call instanceof FunctionInstanceExp) {
+                return new FunctionInstanceStmt((FunctionInstanceExp) call);
+            }
+            return new FunctionInstanceStmt(rewriteArguments(((FunctionInstanceStmt) s).getFunctionInstanceExp()));
+        }
+        // VariableDeclareStmt, SelfOperationStmt and ControlLoopStmt have nothing to rewrite
+        return s;
+    }
+
+    public Variable rewriteVariable(Variable variable) {
+        if(variable instanceof ArrayWithIndexExp) {
+            return new ArrayWithIndexExp(((ArrayWithIndexExp) variable).getVariableExp(),
+                    rewriteExp(((ArrayWithIndexExp) variable).getIndexExp()));
+        }
+        return variable;
+    }
+
+    public Exp rewriteExp(Exp e) {
+        if(e == null) {
+            return null;
+        }
+        Exp replacement = visitExp(e);
+        if(replacement != null) {
+            return replacement;
+        }
+        if(e instanceof AdditiveExp) {
+            return new AdditiveExp(rewriteExp(((AdditiveExp) e).getLeft()), rewriteExp(((AdditiveExp) e).getRight()),
+                    ((AdditiveExp) e).getOp());
+        } else if(e instanceof MultiplicativeExp) {
+            return new MultiplicativeExp(rewriteExp(((MultiplicativeExp) e).getLeft()),
+                    rewriteExp(((MultiplicativeExp) e).getRight()), ((MultiplicativeExp) e).getOp());
+        } else if(e instanceof ComparableExp) {
+            return new ComparableExp(rewriteExp(((ComparableExp) e).getLeft()), rewriteExp(((ComparableExp) e).getRight()),
+                    ((ComparableExp) e).getOp());
+        } else if(e instanceof BiLogicalExp) {
+            return new BiLogicalExp(rewriteExp(((BiLogicalExp) e).getLeft()), rewriteExp(((BiLogicalExp) e).getRight()),
+                    ((BiLogicalExp) e).getOp());
+        } else if(e instanceof NotExp) {
+            return new NotExp(rewriteExp(((NotExp) e).getValue()));
+        } else if(e instanceof ArrayWithIndexExp) {
+            return (Exp) rewriteVariable((ArrayWithIndexExp) e);
+        } else if(e instanceof FunctionInstanceExp) {
+            return rewriteArguments((FunctionInstanceExp) e);
+        } else if(e instanceof ArrayOfExp) {
+            return new ArrayOfExp(rewriteExps(((ArrayOfExp) e).getExpList()));
+        } else if(e instanceof MutableListOfExp) {
+            return new MutableListOfExp(rewriteExps(((MutableListOfExp) e).getExpList()));
+        } else if(e instanceof ArrayExp) {
+            return new ArrayExp(rewriteExp(((ArrayExp) e).getSize()), ((ArrayExp) e).getLambdaExp());
+        } else if(e instanceof MutableListExp) {
+            return new MutableListExp(rewriteExp(((MutableListExp) e).getSize()), ((MutableListExp) e).getLambdaExp());
+        } else if(e instanceof RangeExp) {
+            return new RangeExp(rewriteExp(((RangeExp) e).getStart()), rewriteExp(((RangeExp) e).getEnd()));
+        } else if(e instanceof StringExp && ((StringExp) e).getInterpolationExp() != null) {
+            LinkedHashMap<Integer, Exp> positions = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Exp> entry : ((StringExp) e).getInterpolationExp().entrySet()) {
+                positions.put(entry.getKey(), rewriteExp(entry.getValue()));
+            }
+            return new StringExp(((StringExp) e).getStrWithoutInterpolation(), positions);
+        }
+        // literals, variables, lambdas and self operations are kept
+        return e;
+    }
+
+    private FunctionInstanceExp rewriteArguments(FunctionInstanceExp call) {
+        return new FunctionInstanceExp(call.getFuncName(), rewriteExps(call.getParameterList()));
+    }
+
+    private List<Exp> rewriteExps(List<Exp> exps) {
+        if(exps == null) {
+            return null;
+        }
+        List<Exp> result = new ArrayList<>();
+        for (Exp e : exps) {
+            result.add(rewriteExp(e));
+        }
+        return result;
+    }
+}
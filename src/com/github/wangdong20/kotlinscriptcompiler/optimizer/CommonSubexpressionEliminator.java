@@ -0,0 +1,448 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Compute an expression once when the same value is needed again. Statements are walked in order keeping
+ * the expressions computed so far, and an if condition stays available in both branches, so the cond and
+ * branches of an if form one extended block. An expression computed again while still available is read
+ * from a val declared right before the statement that first computed it, or from the variable that
+ * statement assigned it to.
+ *
+ * Assigning a variable makes the expressions reading it unavailable, writing any array element makes every
+ * array read unavailable because two names can refer to the same array, and calling a function that is
+ * not pure or changing a variable inside an expression makes everything unavailable. A loop only sees
+ * the expressions it does not change anywhere in its body, and what is computed inside a loop or branch
+ * is forgotten after it. Only the left operand of && and || is always evaluated, so expressions are never
+ * first computed in a right operand, and the range of a for loop is left for RangeAnalysis.
+ */
+public class CommonSubexpressionEliminator {
+    public static final String TEMP_PREFIX = "common$";
+
+    private final PurityAnalysis purity;
+    private int nextTemp;
+    // expressions a statement computes first, in the order it evaluates them
+    private final Map<Stmt, List<Available>> computed;
+    // expressions a statement reads again
+    private final Map<Stmt, List<Available>> reused;
+
+    private static class Available {
+        private final Exp exp;
+        private VariableExp temp;
+        // temp is a variable of the program assigned exp, not a val added here
+        private final boolean inVariable;
+        private boolean used;
+
+        private Available(final Exp exp, final VariableExp temp) {
+            this.exp = exp;
+            this.temp = temp;
+            inVariable = temp != null;
+        }
+    }
+
+    private CommonSubexpressionEliminator(final PurityAnalysis purity, final int nextTemp) {
+        this.purity = purity;
+        this.nextTemp = nextTemp;
+        computed = new IdentityHashMap<>();
+        reused = new IdentityHashMap<>();
+    }
+
+    public static Program eliminate(final Program program) {
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(PurityAnalysis.analyze(program),
+                LoopInvariantCodeMotion.firstFreeTemp(program.getStmtList(), TEMP_PREFIX));
+        eliminator.analyzeStmts(program.getStmtList(), new ArrayList<>());
+        return new Program(eliminator.rewriteStmts(program.getStmtList()));
+    } // eliminate
+
+    private void analyzeStmts(final List<Stmt> stmts, final List<Available> available) {
+        for (Stmt s : stmts) {
+            analyzeStmt(s, available);
+        }
+    } // analyzeStmts
+
+    // Find the expressions s computes and reads again, and update available to after s.
+    private void analyzeStmt(final Stmt s, final List<Available> available) {
+        if(s instanceof FunctionDeclareStmt) {
+            BlockStmt body = ((FunctionDeclareStmt) s).getBlockStmt();
+            if(body != null && body.getStmtList() != null) {
+                analyzeStmts(body.getStmtList(), new ArrayList<>());
+            }
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            if(hasSideEffect(asFor.getRangeExp()) || hasSideEffect(asFor.getStepExp())) {
+                available.clear();
+            }
+            Changes changes = changesIn(s);
+            forget(available, changes);
+            analyzeBlock(asFor.getBlockStmt(), available);
+        } else if(s instanceof WhileStmt) {
+            Changes changes = changesIn(s);
+            forget(available, changes);
+            if(!hasSideEffect(((WhileStmt) s).getCondition())) {
+                // evaluated in every iteration, so it may read but not define what the body uses
+                scan(((WhileStmt) s).getCondition(), s, available, false);
+            }
+            analyzeBlock(((WhileStmt) s).getBlockStmt(), available);
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(hasSideEffect(asIf.getCondition())) {
+                available.clear();
+            } else {
+                scan(asIf.getCondition(), s, available, true);
+            }
+            analyzeBlock(asIf.getTrueBranch(), available);
+            analyzeBlock(asIf.getFalseBranch(), available);
+        } else if(s instanceof BlockStmt) {
+            analyzeBlock((BlockStmt) s, available);
+        } else if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            Exp value = asAssign.getExpression();
+            if(hasSideEffect(value) || hasSideEffect((Exp) asAssign.getVariable())) {
+                available.clear();
+            } else if(asAssign.getVariable() instanceof VariableExp) {
+                VariableExp variable = (VariableExp) asAssign.getVariable();
+                boolean isNew = isCandidate(value) && find(available, value) == null;
+                if(isNew) {
+                    scanChildren(value, s, available, true);
+                } else {
+                    scan(value, s, available, true);
+                }
+                forget(available, variable.getName());
+                if(isNew && !mentions(value, variable.getName())) {
+                    available.add(new Available(value, variable));
+                }
+            } else {
+                scan(((ArrayWithIndexExp) asAssign.getVariable()).getIndexExp(), s, available, true);
+                scan(value, s, available, true);
+                forgetArrayReads(available);
+            }
+        } else if(s instanceof CompoundAssignStmt) {
+            CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            if(hasSideEffect(asAssign.getExpression()) || hasSideEffect((Exp) asAssign.getVariable())) {
+                available.clear();
+            } else if(asAssign.getVariable() instanceof VariableExp) {
+                scan(asAssign.getExpression(), s, available, true);
+                forget(available, ((VariableExp) asAssign.getVariable()).getName());
+            } else {
+                scan(((ArrayWithIndexExp) asAssign.getVariable()).getIndexExp(), s, available, true);
+                scan(asAssign.getExpression(), s, available, true);
+                forgetArrayReads(available);
+            }
+        } else if(s instanceof VariableDeclareStmt) {
+            forget(available, ((VariableDeclareStmt) s).getVariableExp().getName());
+        } else if(s instanceof SelfOperationStmt) {
+            forget(available, changesIn(s));
+        } else if(s instanceof ControlLoopStmt) {
+            // nothing after it in the block runs
+        } else {
+            Exp value = valueOf(s);
+            if(hasSideEffect(value)) {
+                available.clear();
+            } else {
+                scan(value, s, available, true);
+            }
+        }
+    } // analyzeStmt
+
+    private void analyzeBlock(final BlockStmt blockStmt, final List<Available> available) {
+        if(blockStmt != null && blockStmt.getStmtList() != null) {
+            analyzeStmts(blockStmt.getStmtList(), new ArrayList<>(available));
+            forget(available, changesIn(blockStmt));
+        }
+    } // analyzeBlock
+
+    // The expression evaluated by a return, print or call statement.
+    private static Exp valueOf(final Stmt s) {
+        if(s instanceof ReturnStmt) {
+            return ((ReturnStmt) s).getReturnExp();
+        } else if(s instanceof PrintStmt) {
+            return ((PrintStmt) s).getValue();
+        } else if(s instanceof PrintlnStmt) {
+            return ((PrintlnStmt) s).getValue();
+        } else if(s instanceof FunctionInstanceStmt) {
+            return ((FunctionInstanceStmt) s).getFunctionInstanceExp();
+        }
+        return null;
+    } // valueOf
+
+    private void scan(final Exp e, final Stmt s, final List<Available> available, final boolean mayCompute) {
+        if(e == null || e instanceof LambdaExp) {
+            return;
+        }
+        if(isCandidate(e)) {
+            Available found = find(available, e);
+            if(found != null) {
+                found.used = true;
+                reused.computeIfAbsent(s, k -> new ArrayList<>()).add(found);
+                return;
+            }
+        }
+        scanChildren(e, s, available, mayCompute);
+        if(mayCompute && isCandidate(e)) {
+            Available first = new Available(e, null);
+            available.add(first);
+            computed.computeIfAbsent(s, k -> new ArrayList<>()).add(first);
+        }
+    } // scan
+
+    private void scanChildren(final Exp e, final Stmt s, final List<Available> available, final boolean mayCompute) {
+        if(e instanceof BinaryIntExp) {
+            scan(((BinaryIntExp) e).getLeft(), s, available, mayCompute);
+            scan(((BinaryIntExp) e).getRight(), s, available, mayCompute);
+        } else if(e instanceof ComparableExp) {
+            scan(((ComparableExp) e).getLeft(), s, available, mayCompute);
+            scan(((ComparableExp) e).getRight(), s, available, mayCompute);
+        } else if(e instanceof BiLogicalExp) {
+            scan(((BiLogicalExp) e).getLeft(), s, available, mayCompute);
+            scan(((BiLogicalExp) e).getRight(), s, available, false);
+        } else if(e instanceof NotExp) {
+            scan(((NotExp) e).getValue(), s, available, mayCompute);
+        } else if(e instanceof ArrayWithIndexExp) {
+            scan(((ArrayWithIndexExp) e).getIndexExp(), s, available, mayCompute);
+        } else if(e instanceof FunctionInstanceExp && ((FunctionInstanceExp) e).getParameterList() != null) {
+            for (Exp argument : ((FunctionInstanceExp) e).getParameterList()) {
+                scan(argument, s, available, mayCompute);
+            }
+        } else if(e instanceof StringExp && ((StringExp) e).getInterpolationExp() != null) {
+            for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                scan(interpolation, s, available, mayCompute);
+            }
+        }
+        // array creation and ranges keep their operands where they are
+    } // scanChildren
+
+    private static Available find(final List<Available> available, final Exp e) {
+        for (Available a : available) {
+            if(a.exp.equals(e)) {
+                return a;
+            }
+        }
+        return null;
+    } // find
+
+    // Array reads, strings and expressions of two or more operators made only of variables, literals and
+    // other such expressions. A single operator on variables costs less than storing and loading a temp.
+    private static boolean isCandidate(final Exp e) {
+        if(e instanceof BinaryIntExp || e instanceof ComparableExp || e instanceof BiLogicalExp || e instanceof NotExp
+                || e instanceof ArrayWithIndexExp || e instanceof StringExp && ((StringExp) e).getInterpolationExp() != null) {
+            final boolean[] simple = { true };
+            final int[] cost = { 0 };
+            new AstScanner() {
+                @Override
+                protected boolean visitExp(Exp e) {
+                    if(e instanceof FunctionInstanceExp || e instanceof SelfOperationExp || e instanceof LambdaExp
+                            || e instanceof ArrayExp || e instanceof ArrayOfExp || e instanceof MutableListExp
+                            || e instanceof MutableListOfExp) {
+                        simple[0] = false;
+                    } else if(e instanceof ArrayWithIndexExp || e instanceof StringExp) {
+                        cost[0] += 2;
+                    } else if(!(e instanceof VariableExp || e instanceof IntExp || e instanceof BooleanExp)) {
+                        cost[0]++;
+                    }
+                    return simple[0];
+                }
+            }.scanExp(e);
+            return simple[0] && cost[0] >= 2;
+        }
+        return false;
+    } // isCandidate
+
+    private static boolean mentions(final Exp e, final String name) {
+        final boolean[] found = { false };
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp && ((VariableExp) e).getName().equals(name)) {
+                    found[0] = true;
+                }
+                return !found[0];
+            }
+        }.scanExp(e);
+        return found[0];
+    } // mentions
+
+    private static boolean readsArray(final Exp e) {
+        final boolean[] found = { false };
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof ArrayWithIndexExp) {
+                    found[0] = true;
+                }
+                return !found[0];
+            }
+        }.scanExp(e);
+        return found[0];
+    } // readsArray
+
+    // Whether evaluating e may change a variable, an array or anything else.
+    private boolean hasSideEffect(final Exp e) {
+        final boolean[] found = { false };
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof SelfOperationExp || e instanceof FunctionInstanceExp
+                        && !purity.isPure(((FunctionInstanceExp) e).getFuncName().getName())) {
+                    found[0] = true;
+                }
+                return !found[0] && !(e instanceof LambdaExp);
+            }
+        }.scanExp(e);
+        return found[0];
+    } // hasSideEffect
+
+    private static void forget(final List<Available> available, final String name) {
+        available.removeIf(a -> mentions(a.exp, name) || a.temp != null && a.temp.getName().equals(name));
+    }
+
+    private static void forgetArrayReads(final List<Available> available) {
+        available.removeIf(a -> readsArray(a.exp));
+    }
+
+    private static void forget(final List<Available> available, final Changes changes) {
+        if(changes.everything) {
+            available.clear();
+            return;
+        }
+        for (String name : changes.names) {
+            forget(available, name);
+        }
+        if(changes.arrays) {
+            forgetArrayReads(available);
+        }
+    } // forget
+
+    // What running a statement, including its nested blocks, may change.
+    private static class Changes {
+        private final Set<String> names = new HashSet<>();
+        private boolean arrays;
+        private boolean everything;
+
+        private void write(final Variable target) {
+            if(target instanceof VariableExp) {
+                names.add(((VariableExp) target).getName());
+            } else {
+                arrays = true;
+            }
+        }
+    }
+
+    private Changes changesIn(final Stmt s) {
+        final Changes changes = new Changes();
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt) {
+                    changes.write(((AssignStmt) s).getVariable());
+                } else if(s instanceof CompoundAssignStmt) {
+                    changes.write(((CompoundAssignStmt) s).getVariable());
+                } else if(s instanceof VariableDeclareStmt) {
+                    changes.names.add(((VariableDeclareStmt) s).getVariableExp().getName());
+                } else if(s instanceof ForStmt) {
+                    changes.names.add(((ForStmt) s).getIteratorExp().getName());
+                }
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof SelfOperationExp) {
+                    changes.write(((SelfOperationExp) e).getVariableExp());
+                } else if(e instanceof FunctionInstanceExp && !purity.isPure(((FunctionInstanceExp) e).getFuncName().getName())) {
+                    changes.everything = true;
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return changes;
+    } // changesIn
+
+    private List<Stmt> rewriteStmts(final List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            List<Available> temps = new ArrayList<>();
+            if(reused.containsKey(s)) {
+                temps.addAll(reused.get(s));
+            }
+            if(computed.containsKey(s)) {
+                for (Available first : computed.get(s)) {
+                    if(first.used) {
+                        // the val reads the temps of its operands declared right above it
+                        result.add(new AssignStmt(new Replacer(temps).rewriteExpChildren(first.exp),
+                                first.temp = new VariableExp(TEMP_PREFIX + nextTemp++), true, true));
+                        temps.add(first);
+                    }
+                }
+            }
+            result.add(rewriteStmt(s, new Replacer(temps)));
+        }
+        return result;
+    } // rewriteStmts
+
+    private BlockStmt rewriteBlock(final BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(rewriteStmts(blockStmt.getStmtList()));
+    } // rewriteBlock
+
+    // Replace what s reads again in its own expressions, nested blocks are rewritten with their own temps.
+    private Stmt rewriteStmt(final Stmt s, final Replacer replacer) {
+        if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            return new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), rewriteBlock(asFunction.getBlockStmt()), asFunction.isInline());
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            if(asFor.getArrayExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), rewriteBlock(asFor.getBlockStmt()));
+            } else if(asFor.getStepExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(),
+                        rewriteBlock(asFor.getBlockStmt()));
+            }
+            return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), rewriteBlock(asFor.getBlockStmt()));
+        } else if(s instanceof WhileStmt) {
+            return new WhileStmt(replacer.rewriteExp(((WhileStmt) s).getCondition()),
+                    rewriteBlock(((WhileStmt) s).getBlockStmt()));
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(asIf.getFalseBranch() != null) {
+                return new IfStmt(replacer.rewriteExp(asIf.getCondition()), rewriteBlock(asIf.getTrueBranch()),
+                        rewriteBlock(asIf.getFalseBranch()));
+            }
+            return new IfStmt(replacer.rewriteExp(asIf.getCondition()), rewriteBlock(asIf.getTrueBranch()));
+        } else if(s instanceof BlockStmt) {
+            return rewriteBlock((BlockStmt) s);
+        }
+        return replacer.rewriteStmt(s);
+    } // rewriteStmt
+
+    private static class Replacer extends AstRewriter {
+        private final List<Available> temps;
+
+        private Replacer(final List<Available> temps) {
+            this.temps = temps;
+        }
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            if(e instanceof LambdaExp) {
+                return e;
+            }
+            Available found = find(temps, e);
+            return found != null ? found.temp : null;
+        }
+
+        private Exp rewriteExpChildren(final Exp e) {
+            List<Available> others = new ArrayList<>(temps);
+            others.removeIf(a -> a.exp.equals(e));
+            return new Replacer(others).rewriteExp(e);
+        }
+    }
+}
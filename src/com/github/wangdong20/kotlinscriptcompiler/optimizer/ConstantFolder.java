@@ -0,0 +1,416 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+
+import java.util.*;
+
+/**
+ * Evaluate expressions whose operands are literals at compile time, replace reads of val variables
+ * initialized with a literal by that literal, and keep only the branch of an if statement whose
+ * condition is known. Calls of referentially transparent functions with literal arguments are run by the
+ * Interpreter and replaced by their result when it finishes within its step budget. Runs on a typechecked
+ * program and returns a new program, the input is not changed. Division or modulo by zero is left alone
+ * so it still fails at runtime.
+ */
+public class ConstantFolder {
+    private final PurityAnalysis purity;
+    private final Interpreter interpreter;
+
+    private ConstantFolder(final CallGraph callGraph) {
+        purity = PurityAnalysis.analyze(callGraph);
+        interpreter = new Interpreter(callGraph);
+    }
+
+    public static Program foldProgram(final Program program) {
+        return new ConstantFolder(CallGraph.build(program)).fold(program);
+    } // foldProgram
+
+    private Program fold(final Program program) {
+        Map<Variable, Exp> constants = new HashMap<>();
+        List<Stmt> stmts = new ArrayList<>();
+        for (Stmt s : program.getStmtList()) {
+            constants = foldStmt(constants, s, stmts);
+        }
+        return new Program(stmts);
+    } // fold
+
+    private List<Stmt> foldStmts(final Map<Variable, Exp> constants, final List<Stmt> stmts) {
+        Map<Variable, Exp> scope = constants;
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            scope = foldStmt(scope, s, result);
+        }
+        return result;
+    } // foldStmts
+
+    private BlockStmt foldBlockStmt(final Map<Variable, Exp> constants, final BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(foldStmts(constants, blockStmt.getStmtList()));
+    } // foldBlockStmt
+
+    // Add the folded statement to result, return the constants visible after it.
+    private Map<Variable, Exp> foldStmt(final Map<Variable, Exp> constants, final Stmt s, final List<Stmt> result) {
+        if(s instanceof VariableDeclareStmt) {
+            result.add(s);
+            return without(constants, ((VariableDeclareStmt) s).getVariableExp());
+        } else if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            Exp expression = foldExp(constants, asAssign.getExpression());
+            result.add(new AssignStmt(expression, foldVariable(constants, asAssign.getVariable()),
+                    asAssign.getType(), asAssign.isReadOnly(), asAssign.isNew()));
+            if(asAssign.isNew()) {
+                Map<Variable, Exp> after = without(constants, asAssign.getVariable());
+                if(asAssign.isReadOnly() && isLiteral(expression)
+                        && (asAssign.getType() == null || asAssign.getType() == typeOfLiteral(expression))) {
+                    after.put(asAssign.getVariable(), expression);
+                }
+                return after;
+            }
+            return constants;
+        } else if(s instanceof CompoundAssignStmt) {
+            CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            result.add(new CompoundAssignStmt(foldExp(constants, asAssign.getExpression()),
+                    foldVariable(constants, asAssign.getVariable()), asAssign.getOp()));
+            return constants;
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            Map<Variable, Exp> inLoop = without(constants, asFor.getIteratorExp());
+            BlockStmt blockStmt = foldBlockStmt(inLoop, asFor.getBlockStmt());
+            if(asFor.getArrayExp() != null) {
+                result.add(new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), blockStmt));
+            } else {
+                RangeExp rangeExp = (RangeExp) foldExp(constants, asFor.getRangeExp());
+                if(asFor.getStepExp() != null) {
+                    result.add(new ForStmt(asFor.getIteratorExp(), rangeExp, foldExp(constants, asFor.getStepExp()), blockStmt));
+                } else {
+                    result.add(new ForStmt(asFor.getIteratorExp(), rangeExp, blockStmt));
+                }
+            }
+            return constants;
+        } else if(s instanceof WhileStmt) {
+            result.add(new WhileStmt(foldExp(constants, ((WhileStmt) s).getCondition()),
+                    foldBlockStmt(constants, ((WhileStmt) s).getBlockStmt())));
+            return constants;
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            Exp condition = foldExp(constants, asIf.getCondition());
+            if(condition instanceof BooleanExp) {
+                BlockStmt taken = foldBlockStmt(constants,
+                        ((BooleanExp) condition).getValue() ? asIf.getTrueBranch() : asIf.getFalseBranch());
+                if(taken != null && taken.getStmtList() != null) {
+                    if(declaresVariable(taken)) {
+                        result.add(taken);      // keep the scope of the branch
+                    } else {
+                        result.addAll(taken.getStmtList());
+                    }
+                }
+            } else if(asIf.getFalseBranch() != null) {
+                result.add(new IfStmt(condition, foldBlockStmt(constants, asIf.getTrueBranch()),
+                        foldBlockStmt(constants, asIf.getFalseBranch())));
+            } else {
+                result.add(new IfStmt(condition, foldBlockStmt(constants, asIf.getTrueBranch())));
+            }
+            return constants;
+        } else if(s instanceof BlockStmt) {
+            result.add(foldBlockStmt(constants, (BlockStmt) s));
+            return constants;
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            Map<Variable, Exp> inFunction = newCopy(constants);
+            if(asFunction.getParameterList() != null) {
+                for (Exp parameter : asFunction.getParameterList().keySet()) {
+                    inFunction.remove(parameter);
+                }
+            }
+            result.add(new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), foldBlockStmt(inFunction, asFunction.getBlockStmt()), asFunction.isInline()));
+            return constants;
+        } else if(s instanceof ReturnStmt) {
+            result.add(new ReturnStmt(foldExp(constants, ((ReturnStmt) s).getReturnExp())));
+            return constants;
+        } else if(s instanceof PrintStmt) {
+            result.add(new PrintStmt(foldExp(constants, ((PrintStmt) s).getValue())));
+            return constants;
+        } else if(s instanceof PrintlnStmt) {
+            result.add(new PrintlnStmt(foldExp(constants, ((PrintlnStmt) s).getValue())));
+            return constants;
+        } else if(s instanceof FunctionInstanceStmt) {
+            Exp call = foldExp(constants, ((FunctionInstanceStmt) s).getFunctionInstanceExp());
+            if(call instanceof FunctionInstanceExp) {
+                result.add(new FunctionInstanceStmt((FunctionInstanceExp) call));
+            }
+            // else it was evaluated at compile time and has no side effect
+            return constants;
+        } else {
+            // SelfOperationStmt and ControlLoopStmt have nothing to fold
+            result.add(s);
+            return constants;
+        }
+    } // foldStmt
+
+    private Variable foldVariable(final Map<Variable, Exp> constants, final Variable variable) {
+        if(variable instanceof ArrayWithIndexExp) {
+            return new ArrayWithIndexExp(((ArrayWithIndexExp) variable).getVariableExp(),
+                    foldExp(constants, ((ArrayWithIndexExp) variable).getIndexExp()));
+        }
+        return variable;
+    } // foldVariable
+
+    private Exp foldExp(final Map<Variable, Exp> constants, final Exp e) {
+        if(e == null || e instanceof IntExp || e instanceof BooleanExp || e instanceof SelfOperationExp) {
+            return e;
+        } else if(e instanceof VariableExp) {
+            Exp constant = constants.get(e);
+            return constant != null ? constant : e;
+        } else if(e instanceof StringExp) {
+            return foldStringExp(constants, (StringExp) e);
+        } else if(e instanceof AdditiveExp) {
+            AdditiveExp asAdditive = (AdditiveExp) e;
+            Exp left = foldExp(constants, asAdditive.getLeft());
+            Exp right = foldExp(constants, asAdditive.getRight());
+            if(left instanceof IntExp && right instanceof IntExp) {
+                int l = ((IntExp) left).getValue();
+                int r = ((IntExp) right).getValue();
+                return new IntExp(asAdditive.getOp() == AdditiveOp.EXP_PLUS ? l + r : l - r);
+            } else if(left instanceof StringExp && asAdditive.getOp() == AdditiveOp.EXP_PLUS) {
+                StringExp concatenated = concat((StringExp) left, right);
+                if(concatenated != null) {
+                    return concatenated;
+                }
+            }
+            return new AdditiveExp(left, right, asAdditive.getOp());
+        } else if(e instanceof MultiplicativeExp) {
+            MultiplicativeExp asMultiplicative = (MultiplicativeExp) e;
+            Exp left = foldExp(constants, asMultiplicative.getLeft());
+            Exp right = foldExp(constants, asMultiplicative.getRight());
+            if(left instanceof IntExp && right instanceof IntExp) {
+                int l = ((IntExp) left).getValue();
+                int r = ((IntExp) right).getValue();
+                switch (asMultiplicative.getOp()) {
+                    case OP_MULTIPLY:
+                        return new IntExp(l * r);
+                    case OP_DIVIDE:
+                        if(r != 0) {
+                            return new IntExp(l / r);
+                        }
+                        break;
+                    case OP_MOD:
+                        if(r != 0) {
+                            return new IntExp(l % r);
+                        }
+                        break;
+                    case OP_SHIFT_LEFT:
+                        return new IntExp(l << r);
+                    case OP_SHIFT_RIGHT:
+                        return new IntExp(l >> r);
+                    case OP_AND:
+                        return new IntExp(l & r);
+                }
+            }
+            return new MultiplicativeExp(left, right, asMultiplicative.getOp());
+        } else if(e instanceof ComparableExp) {
+            ComparableExp asComparable = (ComparableExp) e;
+            Exp left = foldExp(constants, asComparable.getLeft());
+            Exp right = foldExp(constants, asComparable.getRight());
+            if(left instanceof IntExp && right instanceof IntExp) {
+                return new BooleanExp(compare(((IntExp) left).getValue(), ((IntExp) right).getValue(), asComparable.getOp()));
+            } else if(left instanceof BooleanExp && right instanceof BooleanExp) {
+                if(asComparable.getOp() == ComparableOp.OP_EQUAL_EQUAL) {
+                    return new BooleanExp(((BooleanExp) left).getValue() == ((BooleanExp) right).getValue());
+                } else if(asComparable.getOp() == ComparableOp.OP_NOT_EQUAL) {
+                    return new BooleanExp(((BooleanExp) left).getValue() != ((BooleanExp) right).getValue());
+                }
+            }
+            return new ComparableExp(left, right, asComparable.getOp());
+        } else if(e instanceof BiLogicalExp) {
+            BiLogicalExp asBiLogical = (BiLogicalExp) e;
+            Exp left = foldExp(constants, asBiLogical.getLeft());
+            Exp right = foldExp(constants, asBiLogical.getRight());
+            if(left instanceof BooleanExp) {
+                // the right side is only evaluated when the left side does not decide the result
+                boolean l = ((BooleanExp) left).getValue();
+                if(asBiLogical.getOp() == BiLogicalOp.OP_AND) {
+                    return l ? right : left;
+                } else {
+                    return l ? left : right;
+                }
+            }
+            return new BiLogicalExp(left, right, asBiLogical.getOp());
+        } else if(e instanceof NotExp) {
+            Exp value = foldExp(constants, ((NotExp) e).getValue());
+            if(value instanceof BooleanExp) {
+                return new BooleanExp(!((BooleanExp) value).getValue());
+            }
+            return new NotExp(value);
+        } else if(e instanceof ArrayWithIndexExp) {
+            return (Exp) foldVariable(constants, (ArrayWithIndexExp) e);
+        } else if(e instanceof FunctionInstanceExp) {
+            return evaluateCall(new FunctionInstanceExp(((FunctionInstanceExp) e).getFuncName(),
+                    foldExps(constants, ((FunctionInstanceExp) e).getParameterList())));
+        } else if(e instanceof ArrayOfExp) {
+            return new ArrayOfExp(foldExps(constants, ((ArrayOfExp) e).getExpList()));
+        } else if(e instanceof MutableListOfExp) {
+            return new MutableListOfExp(foldExps(constants, ((MutableListOfExp) e).getExpList()));
+        } else if(e instanceof ArrayExp) {
+            return new ArrayExp(foldExp(constants, ((ArrayExp) e).getSize()),
+                    (LambdaExp) foldExp(constants, ((ArrayExp) e).getLambdaExp()));
+        } else if(e instanceof MutableListExp) {
+            return new MutableListExp(foldExp(constants, ((MutableListExp) e).getSize()),
+                    (LambdaExp) foldExp(constants, ((MutableListExp) e).getLambdaExp()));
+        } else if(e instanceof LambdaExp) {
+            LambdaExp asLambda = (LambdaExp) e;
+            Map<Variable, Exp> inLambda = newCopy(constants);
+            if(asLambda.getParameterList() != null) {
+                for (VariableExp parameter : asLambda.getParameterList().keySet()) {
+                    inLambda.remove(parameter);
+                }
+            }
+            return new LambdaExp(asLambda.getParameterList(), foldExp(inLambda, asLambda.getReturnExp()));
+        } else if(e instanceof RangeExp) {
+            return new RangeExp(foldExp(constants, ((RangeExp) e).getStart()), foldExp(constants, ((RangeExp) e).getEnd()));
+        } else {
+            return e;
+        }
+    } // foldExp
+
+    // A call of a referentially transparent function with literal arguments is replaced by its result.
+    private Exp evaluateCall(final FunctionInstanceExp call) {
+        if(call.getParameterList() != null && purity.isReferentiallyTransparent(call.getFuncName().getName())) {
+            for (Exp argument : call.getParameterList()) {
+                if(!isLiteral(argument)) {
+                    return call;
+                }
+            }
+            Exp result = interpreter.evaluateCall(call.getFuncName().getName(), call.getParameterList());
+            if(result != null) {
+                return result;
+            }
+        }
+        return call;
+    } // evaluateCall
+
+    private List<Exp> foldExps(final Map<Variable, Exp> constants, final List<Exp> exps) {
+        if(exps == null) {
+            return null;
+        }
+        List<Exp> result = new ArrayList<>(exps.size());
+        for (Exp e : exps) {
+            result.add(foldExp(constants, e));
+        }
+        return result;
+    } // foldExps
+
+    private static boolean compare(int left, int right, ComparableOp op) {
+        switch (op) {
+            case OP_GREATER_THAN:
+                return left > right;
+            case OP_LESS_THAN:
+                return left < right;
+            case OP_GREATER_EQUAL:
+                return left >= right;
+            case OP_LESS_EQUAL:
+                return left <= right;
+            case OP_EQUAL_EQUAL:
+                return left == right;
+            default:
+                return left != right;
+        }
+    } // compare
+
+    // Insert every interpolation that folded to a literal into the string itself.
+    private StringExp foldStringExp(final Map<Variable, Exp> constants, final StringExp e) {
+        if(e.getInterpolationExp() == null || e.getInterpolationExp().isEmpty()) {
+            return e;
+        }
+        String original = e.getStrWithoutInterpolation();
+        StringBuilder str = new StringBuilder();
+        LinkedHashMap<Integer, Exp> interpolation = new LinkedHashMap<>();
+        int copied = 0;
+        for (Map.Entry<Integer, Exp> entry : e.getInterpolationExp().entrySet()) {
+            str.append(original, copied, entry.getKey());
+            copied = entry.getKey();
+            Exp value = foldExp(constants, entry.getValue());
+            if(isLiteral(value)) {
+                str.append(literalToString(value));
+            } else {
+                interpolation.put(str.length(), value);
+            }
+        }
+        str.append(original.substring(copied));
+        return new StringExp(str.toString(), interpolation.isEmpty() ? null : interpolation);
+    } // foldStringExp
+
+    // left + right where left is a string, null if right is not known at compile time.
+    private static StringExp concat(final StringExp left, final Exp right) {
+        String str = left.getStrWithoutInterpolation();
+        LinkedHashMap<Integer, Exp> interpolation = left.getInterpolationExp() == null ?
+                new LinkedHashMap<>() : new LinkedHashMap<>(left.getInterpolationExp());
+        if(isLiteral(right)) {
+            str += literalToString(right);
+        } else if(right instanceof StringExp) {
+            // a string with interpolation, its positions move behind the left string
+            for (Map.Entry<Integer, Exp> entry : ((StringExp) right).getInterpolationExp().entrySet()) {
+                if(interpolation.containsKey(str.length() + entry.getKey())) {
+                    return null;    // two interpolations cannot share one position
+                }
+                interpolation.put(str.length() + entry.getKey(), entry.getValue());
+            }
+            str += ((StringExp) right).getStrWithoutInterpolation();
+        } else {
+            return null;
+        }
+        return new StringExp(str, interpolation.isEmpty() ? null : interpolation);
+    } // concat
+
+    private static boolean isLiteral(final Exp e) {
+        return e instanceof IntExp || e instanceof BooleanExp
+                || (e instanceof StringExp && ((StringExp) e).getInterpolationExp() == null);
+    } // isLiteral
+
+    private static Type typeOfLiteral(final Exp e) {
+        if(e instanceof IntExp) {
+            return BasicType.TYPE_INT;
+        } else if(e instanceof BooleanExp) {
+            return BasicType.TYPE_BOOLEAN;
+        } else {
+            return BasicType.TYPE_STRING;
+        }
+    } // typeOfLiteral
+
+    private static String literalToString(final Exp e) {
+        if(e instanceof IntExp) {
+            return String.valueOf(((IntExp) e).getValue());
+        } else if(e instanceof BooleanExp) {
+            return String.valueOf(((BooleanExp) e).getValue());
+        } else {
+            return ((StringExp) e).getStrWithoutInterpolation();
+        }
+    } // literalToString
+
+    private static boolean declaresVariable(final BlockStmt blockStmt) {
+        for (Stmt s : blockStmt.getStmtList()) {
+            if(s instanceof VariableDeclareStmt || (s instanceof AssignStmt && ((AssignStmt) s).isNew())) {
+                return true;
+            }
+        }
+        return false;
+    } // declaresVariable
+
+    private static Map<Variable, Exp> without(final Map<Variable, Exp> constants, final Variable variable) {
+        Map<Variable, Exp> copy = newCopy(constants);
+        copy.remove(variable);
+        return copy;
+    } // without
+
+    private static Map<Variable, Exp> newCopy(final Map<Variable, Exp> constants) {
+        return new HashMap<>(constants);
+    } // newCopy
+}
@@ -0,0 +1,371 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Remove code that cannot change what a program does: statements after return, break or continue,
+ * functions no run of the program can call, and stores to local variables that are never read afterwards.
+ * Liveness is computed backwards over the tree, loops are iterated until the live variables at their head
+ * stop changing. A store is only removed when its value cannot fail or have side effects, so calls,
+ * array reads and division by anything but a non zero literal are kept even when the result is unused.
+ *
+ * Top level variables read inside a function or a lambda are never removed, functions run at the point
+ * they are called and lambdas may capture the variable.
+ */
+public class DeadCodeEliminator {
+    // variables whose stores can be removed, the locals of the function or top level being swept
+    private final Set<String> candidates;
+    // functions a run of the program can call, null inside a function
+    private final Set<String> reachable;
+    private Set<String> liveAtBreak;
+    private Set<String> liveAtContinue;
+
+    private DeadCodeEliminator(final Set<String> candidates, final Set<String> reachable) {
+        this.candidates = candidates;
+        this.reachable = reachable;
+    }
+
+    public static Program eliminate(final Program program) {
+        Set<String> sharedNames = new HashSet<>();
+        for (Stmt s : program.getStmtList()) {
+            sharedNames.addAll(s instanceof FunctionDeclareStmt ? mentionedNames(s) : lambdaNames(s));
+        }
+        Set<String> candidates = declaredNames(program.getStmtList());
+        candidates.removeAll(sharedNames);
+        return new Program(new DeadCodeEliminator(candidates, CallGraph.build(program).reachableFromToplevel())
+                .sweep(program.getStmtList(), new HashSet<>()));
+    } // eliminate
+
+    private static FunctionDeclareStmt eliminateFunction(final FunctionDeclareStmt function) {
+        if(function.getBlockStmt() == null || function.getBlockStmt().getStmtList() == null) {
+            return function;
+        }
+        List<Stmt> body = function.getBlockStmt().getStmtList();
+        Set<String> candidates = declaredNames(body);
+        candidates.removeAll(lambdaNames(function));
+        return new FunctionDeclareStmt(function.getFuncName(), function.getReturnType(), function.getParameterList(),
+                new BlockStmt(new DeadCodeEliminator(candidates, null).sweep(body, new HashSet<>())), function.isInline());
+    } // eliminateFunction
+
+    // Return the statements of stmts worth keeping, live holds the variables live after them on entry and
+    // the variables live before them on exit.
+    private List<Stmt> sweep(final List<Stmt> stmts, final Set<String> live) {
+        LinkedList<Stmt> kept = new LinkedList<>();
+        for (int i = reachableLength(stmts) - 1; i >= 0; i--) {
+            Stmt s = sweepStmt(stmts.get(i), live, kept);
+            if(s != null) {
+                kept.addFirst(s);
+            }
+        }
+        return new ArrayList<>(kept);
+    } // sweep
+
+    private static int reachableLength(final List<Stmt> stmts) {
+        for (int i = 0; i < stmts.size(); i++) {
+            if(alwaysJumps(stmts.get(i))) {
+                return i + 1;
+            }
+        }
+        return stmts.size();
+    } // reachableLength
+
+    private static boolean alwaysJumps(final Stmt s) {
+        if(s instanceof ReturnStmt || s instanceof ControlLoopStmt) {
+            return true;
+        } else if(s instanceof BlockStmt) {
+            List<Stmt> stmts = ((BlockStmt) s).getStmtList();
+            return stmts != null && !stmts.isEmpty() && alwaysJumps(stmts.get(reachableLength(stmts) - 1));
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            return asIf.getTrueBranch() != null && asIf.getFalseBranch() != null
+                    && alwaysJumps(asIf.getTrueBranch()) && alwaysJumps(asIf.getFalseBranch());
+        }
+        return false;
+    } // alwaysJumps
+
+    // Return s with its dead parts removed or null when all of it is dead, and update live to before s.
+    private Stmt sweepStmt(final Stmt s, final Set<String> live, final List<Stmt> after) {
+        if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            if(asAssign.getVariable() instanceof VariableExp) {
+                String name = ((VariableExp) asAssign.getVariable()).getName();
+                if(isDead(name, live) && isRemovable(asAssign.getExpression())
+                        && (!asAssign.isNew() || !mentionedNames(after).contains(name))) {
+                    return null;
+                }
+                live.remove(name);
+            } else {
+                addUses(live, (Exp) asAssign.getVariable());
+            }
+            addUses(live, asAssign.getExpression());
+            return s;
+        } else if(s instanceof VariableDeclareStmt) {
+            return mentionedNames(after).contains(((VariableDeclareStmt) s).getVariableExp().getName()) ? s : null;
+        } else if(s instanceof CompoundAssignStmt) {
+            CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            if(asAssign.getVariable() instanceof VariableExp
+                    && isDead(((VariableExp) asAssign.getVariable()).getName(), live)
+                    && isRemovable(asAssign.getExpression())
+                    && (asAssign.getOp() != CompoundAssignOp.EXP_DIVIDE_EQUAL || isNonZero(asAssign.getExpression()))) {
+                return null;
+            }
+            addUses(live, (Exp) asAssign.getVariable());
+            addUses(live, asAssign.getExpression());
+            return s;
+        } else if(s instanceof SelfOperationStmt) {
+            Variable variable = ((SelfOperationStmt) s).getSelfOperationExp().getVariableExp();
+            if(variable instanceof VariableExp && isDead(((VariableExp) variable).getName(), live)) {
+                return null;
+            }
+            addUses(live, (Exp) variable);
+            return s;
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            Set<String> liveInFalse = new HashSet<>(live);
+            BlockStmt falseBranch = sweepBlock(asIf.getFalseBranch(), liveInFalse);
+            BlockStmt trueBranch = sweepBlock(asIf.getTrueBranch(), live);
+            live.addAll(liveInFalse);
+            if(isEmpty(trueBranch) && isEmpty(falseBranch) && isRemovable(asIf.getCondition())) {
+                return null;
+            }
+            addUses(live, asIf.getCondition());
+            if(isEmpty(falseBranch)) {
+                return new IfStmt(asIf.getCondition(), trueBranch);
+            }
+            return new IfStmt(asIf.getCondition(), trueBranch, falseBranch);
+        } else if(s instanceof WhileStmt) {
+            WhileStmt asWhile = (WhileStmt) s;
+            Set<String> head = new HashSet<>(live);
+            addUses(head, asWhile.getCondition());
+            BlockStmt body = sweepLoop(asWhile.getBlockStmt(), live, head, null);
+            live.addAll(head);
+            return new WhileStmt(asWhile.getCondition(), body);
+        } else if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            Set<String> head = new HashSet<>(live);
+            BlockStmt body = sweepLoop(asFor.getBlockStmt(), live, head, asFor.getIteratorExp().getName());
+            if(asFor.getArrayExp() != null) {
+                live.addAll(head);
+                addUses(live, asFor.getArrayExp());
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), body);
+            }
+            if(isEmpty(body) && isRemovable(asFor.getRangeExp())
+                    && (asFor.getStepExp() == null || isPositive(asFor.getStepExp()))) {
+                return null;
+            }
+            live.addAll(head);
+            addUses(live, asFor.getRangeExp());
+            addUses(live, asFor.getStepExp());
+            if(asFor.getStepExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), body);
+            }
+            return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), body);
+        } else if(s instanceof BlockStmt) {
+            BlockStmt block = sweepBlock((BlockStmt) s, live);
+            return isEmpty(block) ? null : block;
+        } else if(s instanceof FunctionDeclareStmt) {
+            // the body runs where the function is called, not here
+            return reachable.contains(((FunctionDeclareStmt) s).getFuncName().getName())
+                    ? eliminateFunction((FunctionDeclareStmt) s) : null;
+        } else if(s instanceof ReturnStmt) {
+            live.clear();
+            addUses(live, ((ReturnStmt) s).getReturnExp());
+            return s;
+        } else if(s == ControlLoopStmt.STMT_BREAK) {
+            live.clear();
+            if(liveAtBreak != null) {
+                live.addAll(liveAtBreak);
+            }
+            return s;
+        } else if(s == ControlLoopStmt.STMT_CONTINUE) {
+            live.clear();
+            if(liveAtContinue != null) {
+                live.addAll(liveAtContinue);
+            }
+            return s;
+        } else if(s instanceof PrintStmt) {
+            addUses(live, ((PrintStmt) s).getValue());
+            return s;
+        } else if(s instanceof PrintlnStmt) {
+            addUses(live, ((PrintlnStmt) s).getValue());
+            return s;
+        } else if(s instanceof FunctionInstanceStmt) {
+            addUses(live, ((FunctionInstanceStmt) s).getFunctionInstanceExp());
+            return s;
+        } else {
+            addUses(s, live);
+            return s;
+        }
+    } // sweepStmt
+
+    private BlockStmt sweepBlock(final BlockStmt block, final Set<String> live) {
+        if(block == null || block.getStmtList() == null) {
+            return block;
+        }
+        return new BlockStmt(sweep(block.getStmtList(), live));
+    } // sweepBlock
+
+    // Sweep a loop body until the variables live at the loop head stop changing. On entry live holds the
+    // variables live after the loop and head those live at the head without the body, on exit head holds
+    // the variables live at the head.
+    private BlockStmt sweepLoop(final BlockStmt body, final Set<String> live, final Set<String> head,
+                                final String iterator) {
+        Set<String> breakBefore = liveAtBreak;
+        Set<String> continueBefore = liveAtContinue;
+        liveAtBreak = new HashSet<>(live);
+        BlockStmt result;
+        while (true) {
+            liveAtContinue = new HashSet<>(head);
+            Set<String> liveInBody = new HashSet<>(head);
+            result = sweepBlock(body, liveInBody);
+            if(iterator != null) {
+                liveInBody.remove(iterator);
+            }
+            if(head.containsAll(liveInBody)) {
+                break;
+            }
+            head.addAll(liveInBody);
+        }
+        liveAtBreak = breakBefore;
+        liveAtContinue = continueBefore;
+        return result;
+    } // sweepLoop
+
+    private boolean isDead(final String name, final Set<String> live) {
+        return candidates.contains(name) && !live.contains(name);
+    }
+
+    private static boolean isEmpty(final BlockStmt block) {
+        return block == null || block.getStmtList() == null || block.getStmtList().isEmpty();
+    }
+
+    private static boolean isNonZero(final Exp e) {
+        return e instanceof IntExp && ((IntExp) e).getValue() != 0;
+    }
+
+    private static boolean isPositive(final Exp e) {
+        return e instanceof IntExp && ((IntExp) e).getValue() > 0;
+    }
+
+    // Whether evaluating e can neither fail, loop forever nor have a side effect.
+    private static boolean isRemovable(final Exp e) {
+        if(e == null || e instanceof IntExp || e instanceof BooleanExp || e instanceof VariableExp
+                || e instanceof LambdaExp) {
+            return true;
+        } else if(e instanceof MultiplicativeExp && (((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_DIVIDE
+                || ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_MOD)) {
+            return isRemovable(((MultiplicativeExp) e).getLeft()) && isNonZero(((MultiplicativeExp) e).getRight());
+        } else if(e instanceof BinaryIntExp) {
+            return isRemovable(((BinaryIntExp) e).getLeft()) && isRemovable(((BinaryIntExp) e).getRight());
+        } else if(e instanceof ComparableExp) {
+            return isRemovable(((ComparableExp) e).getLeft()) && isRemovable(((ComparableExp) e).getRight());
+        } else if(e instanceof BiLogicalExp) {
+            return isRemovable(((BiLogicalExp) e).getLeft()) && isRemovable(((BiLogicalExp) e).getRight());
+        } else if(e instanceof NotExp) {
+            return isRemovable(((NotExp) e).getValue());
+        } else if(e instanceof RangeExp) {
+            return isRemovable(((RangeExp) e).getStart()) && isRemovable(((RangeExp) e).getEnd());
+        } else if(e instanceof StringExp) {
+            if(((StringExp) e).getInterpolationExp() != null) {
+                for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                    if(!isRemovable(interpolation)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } else if(e instanceof ArrayOfExp) {
+            return allRemovable(((ArrayOfExp) e).getExpList());
+        } else if(e instanceof MutableListOfExp) {
+            return allRemovable(((MutableListOfExp) e).getExpList());
+        }
+        // calls, array reads, self operations, and Array(size, ...) may fail or have side effects
+        return false;
+    } // isRemovable
+
+    private static boolean allRemovable(final List<Exp> exps) {
+        for (Exp e : exps) {
+            if(!isRemovable(e)) {
+                return false;
+            }
+        }
+        return true;
+    } // allRemovable
+
+    private static void addUses(final Set<String> live, final Exp e) {
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp) {
+                    live.add(((VariableExp) e).getName());
+                } else if(e instanceof FunctionInstanceExp) {
+                    // a call through a variable of function type reads it
+                    live.add(((FunctionInstanceExp) e).getFuncName().getName());
+                }
+                return true;
+            }
+        }.scanExp(e);
+    } // addUses
+
+    private static void addUses(final Stmt s, final Set<String> live) {
+        live.addAll(mentionedNames(s));
+    }
+
+    private static Set<String> mentionedNames(final Stmt s) {
+        return mentionedNames(Collections.singletonList(s));
+    }
+
+    private static Set<String> mentionedNames(final List<Stmt> stmts) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp) {
+                    names.add(((VariableExp) e).getName());
+                } else if(e instanceof FunctionInstanceExp) {
+                    names.add(((FunctionInstanceExp) e).getFuncName().getName());
+                }
+                return true;
+            }
+        }.scanStmts(stmts);
+        return names;
+    } // mentionedNames
+
+    // Names read inside the lambdas of s.
+    private static Set<String> lambdaNames(final Stmt s) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof LambdaExp) {
+                    addUses(names, e);
+                    return false;
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return names;
+    } // lambdaNames
+
+    private static Set<String> declaredNames(final List<Stmt> stmts) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt && ((AssignStmt) s).isNew()) {
+                    names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+                } else if(s instanceof VariableDeclareStmt) {
+                    names.add(((VariableDeclareStmt) s).getVariableExp().getName());
+                }
+                return !(s instanceof FunctionDeclareStmt);
+            }
+        }.scanStmts(stmts);
+        return names;
+    } // declaredNames
+}
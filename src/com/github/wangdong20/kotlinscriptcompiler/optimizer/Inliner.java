@@ -0,0 +1,590 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+
+import java.util.*;
+
+/**
+ * Replace calls of small functions by their bodies. A function is inlined when it is declared once, cannot
+ * call itself, has at most MAX_SIZE statements and expressions, or is declared inline, has no lambdas nor
+ * calls through variables of function type other than its parameters, and returns only at the end of its
+ * body or at the end of both branches of a final if, which is how the code generator expects returns.
+ *
+ * The body is copied right before the statement holding the call with every parameter and local renamed.
+ * Functions using top-level variables are kept, the call site may come before their declaration or in a
+ * function with a local of the same name, so every name of an inlined body can be renamed. Arguments that are not a
+ * literal or variable are computed into a val first, so are variables when the body calls a function not
+ * proven pure, which may write them, and parameters the body writes get a var. A final return becomes the expression standing for
+ * the call, returns in branches assign a variable declared before the body. A call is only inlined when
+ * what its statement evaluates before it cannot fail or change anything, so running the body earlier is
+ * not observable, and never in a while condition or the right operand of && and ||, which may be
+ * evaluated another number of times. Calls in the copied bodies are inlined by the next run.
+ *
+ * A lambda passed for a parameter of function type is kept in a val, and the calls through the parameter
+ * in the copied body are inlined right away like calls of a function whose body returns the lambda's
+ * expression, the names the lambda captures staying as they are. The calls that cannot be inlined go
+ * through the val, which dead code elimination drops once nothing calls it.
+ */
+public class Inliner {
+    public static final String TEMP_PREFIX = "inline$";
+    public static final int MAX_SIZE = 32;
+    // calls inlined into one statement, each one may bring the calls of its result expression along
+    private static final int MAX_CALLS_PER_STMT = 8;
+
+    private final Map<String, FunctionDeclareStmt> inlinable;
+    private final Set<String> functionNames;
+    // names captured by the lambdas inlinable through the val holding them
+    private final Map<String, Set<String>> captured;
+    private final PurityAnalysis purity;
+    private int nextTemp;
+
+    private Inliner(final Map<String, FunctionDeclareStmt> inlinable, final Set<String> functionNames,
+                    final PurityAnalysis purity, final int nextTemp) {
+        this.inlinable = inlinable;
+        this.functionNames = functionNames;
+        this.purity = purity;
+        this.captured = new HashMap<>();
+        this.nextTemp = nextTemp;
+    }
+
+    public static Program inline(final Program program) {
+        CallGraph callGraph = CallGraph.build(program);
+        Map<String, FunctionDeclareStmt> inlinable = new HashMap<>();
+        for (String name : callGraph.getFunctionNames()) {
+            List<FunctionDeclareStmt> declarations = callGraph.getFunctions(name);
+            if(declarations.size() == 1 && !callGraph.isRecursive(name) && isInlinable(declarations.get(0))
+                    && PurityAnalysis.globalNames(declarations.get(0)).isEmpty()
+                    && callsOnlyFunctionsOrParameters(callGraph, declarations.get(0))) {
+                inlinable.put(name, declarations.get(0));
+            }
+        }
+        if(inlinable.isEmpty()) {
+            return program;
+        }
+        Inliner inliner = new Inliner(inlinable, callGraph.getFunctionNames(), PurityAnalysis.analyze(callGraph),
+                LoopInvariantCodeMotion.firstFreeTemp(program.getStmtList(), TEMP_PREFIX));
+        return new Program(inliner.inlineStmts(program.getStmtList()));
+    } // inline
+
+    // Whether every call of function is of a declared function or through one of its parameters.
+    private static boolean callsOnlyFunctionsOrParameters(final CallGraph callGraph, final FunctionDeclareStmt function) {
+        Set<String> allowed = new HashSet<>(callGraph.getFunctionNames());
+        if(function.getParameterList() != null) {
+            for (Exp parameter : function.getParameterList().keySet()) {
+                allowed.add(((VariableExp) parameter).getName());
+            }
+        }
+        return allowed.containsAll(CallGraph.calledNames(function));
+    } // callsOnlyFunctionsOrParameters
+
+    private static boolean isInlinable(final FunctionDeclareStmt function) {
+        if(function.getBlockStmt() == null || function.getBlockStmt().getStmtList() == null) {
+            return false;
+        }
+        final int[] size = new int[1];
+        final boolean[] rejected = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                size[0]++;
+                rejected[0] |= s instanceof FunctionDeclareStmt;
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                size[0]++;
+                rejected[0] |= e instanceof LambdaExp || e instanceof ArrayExp || e instanceof MutableListExp;
+                return true;
+            }
+        }.scanStmts(function.getBlockStmt().getStmtList());
+        if(rejected[0] || size[0] > MAX_SIZE && !function.isInline()) {
+            return false;
+        }
+        List<Stmt> stmts = function.getBlockStmt().getStmtList();
+        if(isUnit(function.getReturnType())) {
+            return !containsReturn(function.getBlockStmt());
+        }
+        return returnsAtEnd(stmts) && (stmts.get(stmts.size() - 1) instanceof ReturnStmt
+                || defaultValue(function.getReturnType()) != null);
+    } // isInlinable
+
+    private static boolean isUnit(final Type type) {
+        return type == null || type == BasicType.TYPE_UNIT;
+    } // isUnit
+
+    // Whether every path through stmts ends with a return and no other statement returns.
+    private static boolean returnsAtEnd(final List<Stmt> stmts) {
+        if(stmts == null || stmts.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < stmts.size() - 1; i++) {
+            if(containsReturn(stmts.get(i))) {
+                return false;
+            }
+        }
+        Stmt last = stmts.get(stmts.size() - 1);
+        if(last instanceof IfStmt && ((IfStmt) last).getFalseBranch() != null) {
+            return returnsAtEnd(((IfStmt) last).getTrueBranch().getStmtList())
+                    && returnsAtEnd(((IfStmt) last).getFalseBranch().getStmtList());
+        }
+        return last instanceof ReturnStmt;
+    } // returnsAtEnd
+
+    private static boolean containsReturn(final Stmt s) {
+        final boolean[] found = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                found[0] |= s instanceof ReturnStmt;
+                return !found[0];
+            }
+        }.scanStmt(s);
+        return found[0];
+    } // containsReturn
+
+    // The value the result variable starts with when returns are in branches.
+    private static Exp defaultValue(final Type type) {
+        if(type == BasicType.TYPE_INT) {
+            return new IntExp(0);
+        } else if(type == BasicType.TYPE_BOOLEAN) {
+            return new BooleanExp(false);
+        } else if(type == BasicType.TYPE_STRING) {
+            return new StringExp("", null);
+        }
+        return null;
+    } // defaultValue
+
+    private List<Stmt> inlineStmts(final List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            inlineStmt(s, result);
+        }
+        return result;
+    } // inlineStmts
+
+    private BlockStmt inlineBlock(final BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(inlineStmts(blockStmt.getStmtList()));
+    } // inlineBlock
+
+    // Add s to result, preceded by the bodies of the calls inlined into it.
+    private void inlineStmt(Stmt s, final List<Stmt> result) {
+        if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            BlockStmt body = inlineBlock(asFor.getBlockStmt());
+            if(asFor.getArrayExp() != null) {
+                s = new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), body);
+            } else if(asFor.getStepExp() != null) {
+                s = new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), body);
+            } else {
+                s = new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), body);
+            }
+        } else if(s instanceof WhileStmt) {
+            s = new WhileStmt(((WhileStmt) s).getCondition(), inlineBlock(((WhileStmt) s).getBlockStmt()));
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(asIf.getFalseBranch() != null) {
+                s = new IfStmt(asIf.getCondition(), inlineBlock(asIf.getTrueBranch()), inlineBlock(asIf.getFalseBranch()));
+            } else {
+                s = new IfStmt(asIf.getCondition(), inlineBlock(asIf.getTrueBranch()));
+            }
+        } else if(s instanceof BlockStmt) {
+            s = inlineBlock((BlockStmt) s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            s = new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), inlineBlock(asFunction.getBlockStmt()), asFunction.isInline());
+        }
+        for (int i = 0; i < MAX_CALLS_PER_STMT; i++) {
+            FunctionInstanceExp call = new CallFinder(s).find();
+            if(call == null) {
+                break;
+            }
+            Exp value = expand(call, result);
+            if(s instanceof FunctionInstanceStmt && ((FunctionInstanceStmt) s).getFunctionInstanceExp() == call) {
+                // the result is not used, only what computing it does is kept
+                if(value != null && !isHarmless(value)) {
+                    result.add(new AssignStmt(value, newTemp(), true, true));
+                }
+                return;
+            }
+            s = new Replacer(call, value).rewriteStmt(s);
+        }
+        result.add(s);
+    } // inlineStmt
+
+    private VariableExp newTemp() {
+        return new VariableExp(TEMP_PREFIX + nextTemp++);
+    } // newTemp
+
+    // Add the body of the called function to result, returning what stands for the call afterwards.
+    private Exp expand(final FunctionInstanceExp call, final List<Stmt> result) {
+        FunctionDeclareStmt function = inlinable.get(call.getFuncName().getName());
+        Renamer renamer = new Renamer();
+        if(captured.containsKey(call.getFuncName().getName())) {
+            for (String name : captured.get(call.getFuncName().getName())) {
+                renamer.names.put(name, new VariableExp(name));
+            }
+        }
+        boolean lambdas = false;
+        if(function.getParameterList() != null) {
+            // a parameter the body writes gets its own var, writing the argument would change the caller's variable
+            Set<String> written = assignedNames(function.getBlockStmt());
+            // a call of a function not proven pure may write a global passed in, the parameter keeps the value it had
+            boolean callsImpure = LoopInvariantCodeMotion.assignedIn(function.getBlockStmt(), purity).contains(null);
+            int index = 0;
+            for (Map.Entry<Exp, Type> parameter : function.getParameterList().entrySet()) {
+                String name = ((VariableExp) parameter.getKey()).getName();
+                Exp argument = call.getParameterList().get(index++);
+                if(!written.contains(name) && (argument instanceof IntExp || argument instanceof BooleanExp
+                        || argument instanceof VariableExp && !callsImpure
+                        || argument instanceof StringExp && ((StringExp) argument).getInterpolationExp() == null)) {
+                    renamer.names.put(name, argument);
+                } else {
+                    VariableExp temp = newTemp();
+                    result.add(new AssignStmt(argument, temp, !written.contains(name), true));
+                    renamer.names.put(name, temp);
+                    if(argument instanceof LambdaExp && parameter.getValue() instanceof TypeHighOrderFunction) {
+                        lambdas |= addLambda(temp.getName(), (LambdaExp) argument,
+                                ((TypeHighOrderFunction) parameter.getValue()).getReturnType());
+                    }
+                }
+            }
+        }
+        List<Stmt> stmts = function.getBlockStmt().getStmtList();
+        if(isUnit(function.getReturnType())) {
+            addCopies(renamer.rewriteStmts(stmts), lambdas, result);
+            return null;
+        }
+        Stmt last = stmts.get(stmts.size() - 1);
+        if(last instanceof ReturnStmt) {
+            addCopies(renamer.rewriteStmts(stmts.subList(0, stmts.size() - 1)), lambdas, result);
+            return renamer.rewriteExp(((ReturnStmt) last).getReturnExp());
+        }
+        VariableExp temp = newTemp();
+        result.add(new AssignStmt(defaultValue(function.getReturnType()), temp, false, true));
+        addCopies(assignResult(renamer, stmts, temp), lambdas, result);
+        return temp;
+    } // expand
+
+    // Names the statement assigns after declaring them, with = or a compound assignment or ++ and --.
+    private static Set<String> assignedNames(final Stmt s) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt && !((AssignStmt) s).isNew() && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+                } else if(s instanceof CompoundAssignStmt && ((CompoundAssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((CompoundAssignStmt) s).getVariable()).getName());
+                }
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof SelfOperationExp && ((SelfOperationExp) e).getVariableExp() instanceof VariableExp) {
+                    names.add(((VariableExp) ((SelfOperationExp) e).getVariableExp()).getName());
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return names;
+    } // assignedNames
+
+    // Add the copied statements to result, inlining the lambdas passed to the body first.
+    private void addCopies(final List<Stmt> copies, final boolean lambdas, final List<Stmt> result) {
+        if(lambdas) {
+            for (Stmt s : copies) {
+                inlineStmt(s, result);
+            }
+        } else {
+            result.addAll(copies);
+        }
+    } // addCopies
+
+    /**
+     * Make the calls through the val named name of lambda inlinable, as a function returning its expression
+     * or, for a Unit lambda calling a function, making that call. Lambdas holding lambdas are kept.
+     */
+    private boolean addLambda(final String name, final LambdaExp lambda, final Type returnType) {
+        final Set<String> names = new HashSet<>();
+        final boolean[] nested = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp) {
+                    names.add(((VariableExp) e).getName());
+                } else if(e instanceof FunctionInstanceExp) {
+                    names.add(((FunctionInstanceExp) e).getFuncName().getName());
+                }
+                nested[0] |= e instanceof LambdaExp || e instanceof ArrayExp || e instanceof MutableListExp;
+                return true;
+            }
+        }.scanExp(lambda.getReturnExp());
+        if(nested[0] || isUnit(returnType) && !(lambda.getReturnExp() instanceof FunctionInstanceExp)) {
+            return false;
+        }
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        for (Map.Entry<VariableExp, Type> parameter : lambda.getParameterList().entrySet()) {
+            parameters.put(parameter.getKey(), parameter.getValue());
+            names.remove(parameter.getKey().getName());
+        }
+        Stmt body = isUnit(returnType) ? new FunctionInstanceStmt((FunctionInstanceExp) lambda.getReturnExp())
+                : new ReturnStmt(lambda.getReturnExp());
+        inlinable.put(name, new FunctionDeclareStmt(new VariableExp(name), returnType, parameters,
+                new BlockStmt(Collections.singletonList(body))));
+        captured.put(name, names);
+        return true;
+    } // addLambda
+
+    // Copy stmts turning the returns at their end into assignments of temp.
+    private static List<Stmt> assignResult(final Renamer renamer, final List<Stmt> stmts, final VariableExp temp) {
+        List<Stmt> result = renamer.rewriteStmts(stmts.subList(0, stmts.size() - 1));
+        Stmt last = stmts.get(stmts.size() - 1);
+        if(last instanceof ReturnStmt) {
+            result.add(new AssignStmt(renamer.rewriteExp(((ReturnStmt) last).getReturnExp()), temp, false, false));
+        } else {
+            IfStmt asIf = (IfStmt) last;
+            result.add(new IfStmt(renamer.rewriteExp(asIf.getCondition()),
+                    new BlockStmt(assignResult(renamer, asIf.getTrueBranch().getStmtList(), temp)),
+                    new BlockStmt(assignResult(renamer, asIf.getFalseBranch().getStmtList(), temp))));
+        }
+        return result;
+    } // assignResult
+
+    // Whether evaluating e can neither fail nor change anything, nor see a change made by a call.
+    private static boolean isHarmless(final Exp e) {
+        if(e instanceof IntExp || e instanceof BooleanExp || e instanceof VariableExp || e instanceof LambdaExp) {
+            return true;
+        } else if(e instanceof MultiplicativeExp && (((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_DIVIDE
+                || ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_MOD)) {
+            Exp right = ((MultiplicativeExp) e).getRight();
+            return isHarmless(((MultiplicativeExp) e).getLeft()) && right instanceof IntExp && ((IntExp) right).getValue() != 0;
+        } else if(e instanceof BinaryIntExp) {
+            return isHarmless(((BinaryIntExp) e).getLeft()) && isHarmless(((BinaryIntExp) e).getRight());
+        } else if(e instanceof ComparableExp) {
+            return isHarmless(((ComparableExp) e).getLeft()) && isHarmless(((ComparableExp) e).getRight());
+        } else if(e instanceof BiLogicalExp) {
+            return isHarmless(((BiLogicalExp) e).getLeft()) && isHarmless(((BiLogicalExp) e).getRight());
+        } else if(e instanceof NotExp) {
+            return isHarmless(((NotExp) e).getValue());
+        } else if(e instanceof StringExp) {
+            if(((StringExp) e).getInterpolationExp() != null) {
+                for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                    if(!isHarmless(interpolation)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        // calls, array reads, new arrays and self operations
+        return false;
+    } // isHarmless
+
+    // Find the first call of a statement that can be inlined, following the order the statement is evaluated in.
+    private class CallFinder {
+        private final Stmt stmt;
+        // nothing evaluated so far fails or changes anything
+        private boolean harmless;
+        private FunctionInstanceExp found;
+
+        private CallFinder(final Stmt stmt) {
+            this.stmt = stmt;
+            harmless = true;
+        }
+
+        private FunctionInstanceExp find() {
+            if(stmt instanceof AssignStmt) {
+                visitTarget(((AssignStmt) stmt).getVariable(), false);
+                visit(((AssignStmt) stmt).getExpression());
+            } else if(stmt instanceof CompoundAssignStmt) {
+                visitTarget(((CompoundAssignStmt) stmt).getVariable(), true);
+                visit(((CompoundAssignStmt) stmt).getExpression());
+            } else if(stmt instanceof PrintStmt) {
+                visit(((PrintStmt) stmt).getValue());
+            } else if(stmt instanceof PrintlnStmt) {
+                visit(((PrintlnStmt) stmt).getValue());
+            } else if(stmt instanceof ReturnStmt) {
+                visit(((ReturnStmt) stmt).getReturnExp());
+            } else if(stmt instanceof FunctionInstanceStmt) {
+                visit(((FunctionInstanceStmt) stmt).getFunctionInstanceExp());
+            } else if(stmt instanceof IfStmt) {
+                visit(((IfStmt) stmt).getCondition());
+            } else if(stmt instanceof ForStmt && ((ForStmt) stmt).getRangeExp() != null) {
+                visit(((ForStmt) stmt).getRangeExp());
+                visit(((ForStmt) stmt).getStepExp());
+            }
+            // while conditions run again every iteration, the other statements hold no expression
+            return found;
+        } // find
+
+        private void visitTarget(final Variable target, final boolean reads) {
+            if(target instanceof ArrayWithIndexExp) {
+                visit(((ArrayWithIndexExp) target).getIndexExp());
+                // a compound assignment reads the element before its value is computed
+                harmless &= !reads;
+            }
+        } // visitTarget
+
+        private void visit(final Exp e) {
+            if(e == null || found != null || !harmless) {
+                return;
+            }
+            if(e instanceof FunctionInstanceExp) {
+                FunctionInstanceExp call = (FunctionInstanceExp) e;
+                if(isInlinable(call)) {
+                    found = call;
+                    return;
+                }
+                for (Exp argument : call.getParameterList()) {
+                    visit(argument);
+                }
+                harmless = false;
+            } else if(e instanceof BiLogicalExp) {
+                visit(((BiLogicalExp) e).getLeft());
+                harmless &= isHarmless(((BiLogicalExp) e).getRight());
+            } else if(e instanceof BinaryIntExp) {
+                visit(((BinaryIntExp) e).getLeft());
+                visit(((BinaryIntExp) e).getRight());
+                if(e instanceof MultiplicativeExp && (((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_DIVIDE
+                        || ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_MOD)) {
+                    Exp right = ((MultiplicativeExp) e).getRight();
+                    harmless &= right instanceof IntExp && ((IntExp) right).getValue() != 0;
+                }
+            } else if(e instanceof ComparableExp) {
+                visit(((ComparableExp) e).getLeft());
+                visit(((ComparableExp) e).getRight());
+            } else if(e instanceof NotExp) {
+                visit(((NotExp) e).getValue());
+            } else if(e instanceof RangeExp) {
+                visit(((RangeExp) e).getStart());
+                visit(((RangeExp) e).getEnd());
+            } else if(e instanceof StringExp && ((StringExp) e).getInterpolationExp() != null) {
+                for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                    visit(interpolation);
+                }
+            } else if(e instanceof ArrayOfExp) {
+                for (Exp element : ((ArrayOfExp) e).getExpList()) {
+                    visit(element);
+                }
+            } else if(e instanceof MutableListOfExp) {
+                for (Exp element : ((MutableListOfExp) e).getExpList()) {
+                    visit(element);
+                }
+            } else if(e instanceof ArrayWithIndexExp) {
+                visit(((ArrayWithIndexExp) e).getIndexExp());
+                harmless = false;
+            } else if(!isHarmless(e)) {
+                // self operations and new arrays of a computed size
+                harmless = false;
+            }
+        } // visit
+
+        private boolean isInlinable(final FunctionInstanceExp call) {
+            FunctionDeclareStmt function = inlinable.get(call.getFuncName().getName());
+            if(function == null) {
+                return false;
+            }
+            int parameters = function.getParameterList() == null ? 0 : function.getParameterList().size();
+            int arguments = call.getParameterList() == null ? 0 : call.getParameterList().size();
+            // a Unit function has no result to stand for the call, it can only replace a call statement
+            return parameters == arguments && (!isUnit(function.getReturnType())
+                    || stmt instanceof FunctionInstanceStmt && ((FunctionInstanceStmt) stmt).getFunctionInstanceExp() == call);
+        } // isInlinable
+    }
+
+    // Replace one call, found by identity, by what stands for its result.
+    private static class Replacer extends AstRewriter {
+        private final FunctionInstanceExp call;
+        private final Exp value;
+
+        private Replacer(final FunctionInstanceExp call, final Exp value) {
+            this.call = call;
+            this.value = value;
+        }
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            return e == call ? value : null;
+        }
+    }
+
+    // Copy a body giving every parameter its argument and every local a new name.
+    private class Renamer extends AstRewriter {
+        private final Map<String, Exp> names = new HashMap<>();
+
+        private Exp renamed(final VariableExp variable) {
+            Exp name = names.get(variable.getName());
+            if(name == null) {
+                name = newTemp();
+                names.put(variable.getName(), name);
+            }
+            return name;
+        } // renamed
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            if(e instanceof VariableExp) {
+                return renamed((VariableExp) e);
+            } else if(e instanceof FunctionInstanceExp
+                    && !functionNames.contains(((FunctionInstanceExp) e).getFuncName().getName())) {
+                // a call through a parameter of function type, or a name a lambda captures
+                FunctionInstanceExp asCall = (FunctionInstanceExp) e;
+                List<Exp> arguments = new ArrayList<>();
+                for (Exp argument : asCall.getParameterList()) {
+                    arguments.add(rewriteExp(argument));
+                }
+                return new FunctionInstanceExp((VariableExp) renamed(asCall.getFuncName()), arguments);
+            } else if(e instanceof SelfOperationExp) {
+                SelfOperationExp asSelf = (SelfOperationExp) e;
+                return new SelfOperationExp(rewriteVariable(asSelf.getVariableExp()), asSelf.getOp(), asSelf.getPreOrder());
+            }
+            return null;
+        }
+
+        @Override
+        public Variable rewriteVariable(Variable variable) {
+            if(variable instanceof VariableExp) {
+                return (VariableExp) renamed((VariableExp) variable);
+            }
+            ArrayWithIndexExp asArray = (ArrayWithIndexExp) variable;
+            return new ArrayWithIndexExp((VariableExp) renamed(asArray.getVariableExp()), rewriteExp(asArray.getIndexExp()));
+        }
+
+        @Override
+        public Stmt rewriteStmt(Stmt s) {
+            if(s instanceof ForStmt) {
+                ForStmt asFor = (ForStmt) s;
+                VariableExp iterator = (VariableExp) renamed(asFor.getIteratorExp());
+                if(asFor.getArrayExp() != null) {
+                    return new ForStmt(iterator, (VariableExp) renamed(asFor.getArrayExp()), rewriteBlock(asFor.getBlockStmt()));
+                }
+                RangeExp rangeExp = (RangeExp) rewriteExp(asFor.getRangeExp());
+                if(asFor.getStepExp() != null) {
+                    return new ForStmt(iterator, rangeExp, rewriteExp(asFor.getStepExp()), rewriteBlock(asFor.getBlockStmt()));
+                }
+                return new ForStmt(iterator, rangeExp, rewriteBlock(asFor.getBlockStmt()));
+            } else if(s instanceof VariableDeclareStmt) {
+                VariableDeclareStmt asDeclare = (VariableDeclareStmt) s;
+                return new VariableDeclareStmt((VariableExp) renamed(asDeclare.getVariableExp()), asDeclare.getType(),
+                        asDeclare.isReadOnly());
+            } else if(s instanceof SelfOperationStmt) {
+                return new SelfOperationStmt((SelfOperationExp) visitExp(((SelfOperationStmt) s).getSelfOperationExp()));
+            }
+            return super.rewriteStmt(s);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Run calls of user functions at compile time, so a call with literal arguments can be replaced by its
+ * result. Only meant for functions the PurityAnalysis found referentially transparent. Every statement and
+ * expression evaluated costs one step, and a call that needs more than STEP_BUDGET steps, recurses deeper
+ * than MAX_DEPTH, would fail at runtime (division by zero, index out of range) or uses anything the
+ * interpreter does not know is given up, so it is still done at runtime with the same behaviour.
+ *
+ * Values are Integer, Boolean, String and Object[] for arrays. Like the generated code, ranges exclude
+ * their end, and i++ gives the value after the increment.
+ */
+public class Interpreter {
+    public static final int STEP_BUDGET = 1000000;
+    public static final int MAX_DEPTH = 200;
+    public static final int MAX_STRING_LENGTH = 1024;
+
+    private static class GiveUpException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private enum Completion {
+        NORMAL, BREAK, CONTINUE, RETURN
+    }
+
+    private final CallGraph callGraph;
+    private final Map<List<Object>, Exp> results;
+    private int steps;
+    private int depth;
+    private Object returnValue;
+
+    public Interpreter(final CallGraph callGraph) {
+        this.callGraph = callGraph;
+        results = new HashMap<>();
+    }
+
+    /**
+     * Result of calling name with these literal arguments as a literal, or null if it is not evaluated.
+     */
+    public Exp evaluateCall(final String name, final List<Exp> arguments) {
+        List<Object> key = new ArrayList<>();
+        key.add(name);
+        for (Exp argument : arguments) {
+            if(argument instanceof IntExp) {
+                key.add(((IntExp) argument).getValue());
+            } else if(argument instanceof BooleanExp) {
+                key.add(((BooleanExp) argument).getValue());
+            } else if(argument instanceof StringExp && ((StringExp) argument).getInterpolationExp() == null) {
+                key.add(((StringExp) argument).getStrWithoutInterpolation());
+            } else {
+                return null;
+            }
+        }
+        if(results.containsKey(key)) {
+            return results.get(key);
+        }
+        Exp result;
+        steps = 0;
+        depth = 0;
+        try {
+            result = toLiteral(call(name, key.subList(1, key.size())));
+        } catch (GiveUpException e) {
+            result = null;
+        }
+        results.put(key, result);
+        return result;
+    } // evaluateCall
+
+    private static Exp toLiteral(final Object value) {
+        if(value instanceof Integer) {
+            return new IntExp((Integer) value);
+        } else if(value instanceof Boolean) {
+            return new BooleanExp((Boolean) value);
+        } else if(value instanceof String && ((String) value).length() <= MAX_STRING_LENGTH) {
+            return new StringExp((String) value, null);
+        }
+        return null;    // Unit, arrays and very long strings stay calls
+    } // toLiteral
+
+    private void step() throws GiveUpException {
+        if(++steps > STEP_BUDGET) {
+            throw new GiveUpException();
+        }
+    } // step
+
+    private Object call(final String name, final List<Object> arguments) throws GiveUpException {
+        List<FunctionDeclareStmt> functions = callGraph.getFunctions(name);
+        if(functions.size() != 1 || ++depth > MAX_DEPTH) {
+            throw new GiveUpException();
+        }
+        FunctionDeclareStmt function = functions.get(0);
+        if(function.getParameterList() == null || function.getParameterList().size() != arguments.size()) {
+            throw new GiveUpException();
+        }
+        Map<String, Object> env = new HashMap<>();
+        int i = 0;
+        for (Exp parameter : function.getParameterList().keySet()) {
+            env.put(((VariableExp) parameter).getName(), arguments.get(i++));
+        }
+        Object result = null;
+        if(executeBlock(env, function.getBlockStmt()) == Completion.RETURN) {
+            result = returnValue;
+        }
+        depth--;
+        return result;
+    } // call
+
+    private Completion executeBlock(final Map<String, Object> env, final BlockStmt blockStmt) throws GiveUpException {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return Completion.NORMAL;
+        }
+        Set<String> before = new HashSet<>(env.keySet());
+        Completion completion = Completion.NORMAL;
+        for (Stmt s : blockStmt.getStmtList()) {
+            completion = execute(env, s);
+            if(completion != Completion.NORMAL) {
+                break;
+            }
+        }
+        env.keySet().retainAll(before);     // variables declared in the block go out of scope
+        return completion;
+    } // executeBlock
+
+    private Completion execute(final Map<String, Object> env, final Stmt s) throws GiveUpException {
+        step();
+        if(s instanceof VariableDeclareStmt) {
+            env.put(((VariableDeclareStmt) s).getVariableExp().getName(), null);
+        } else if(s instanceof AssignStmt) {
+            AssignStmt asAssign = (AssignStmt) s;
+            Object value = evaluate(env, asAssign.getExpression());
+            if(asAssign.isNew()) {
+                env.put(((VariableExp) asAssign.getVariable()).getName(), value);
+            } else {
+                write(env, asAssign.getVariable(), value);
+            }
+        } else if(s instanceof CompoundAssignStmt) {
+            CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            Object current = evaluate(env, (Exp) asAssign.getVariable());
+            Object value = evaluate(env, asAssign.getExpression());
+            switch (asAssign.getOp()) {
+                case EXP_PLUS_EQUAL:
+                    value = current instanceof String ? concat(current, value) : toInt(current) + toInt(value);
+                    break;
+                case EXP_MINUS_EQUAL:
+                    value = toInt(current) - toInt(value);
+                    break;
+                case EXP_MULTIPLY_EQUAL:
+                    value = toInt(current) * toInt(value);
+                    break;
+                case EXP_DIVIDE_EQUAL:
+                    value = divide(toInt(current), toInt(value));
+                    break;
+            }
+            write(env, asAssign.getVariable(), value);
+        } else if(s instanceof ForStmt) {
+            return executeFor(env, (ForStmt) s);
+        } else if(s instanceof WhileStmt) {
+            while (toBoolean(evaluate(env, ((WhileStmt) s).getCondition()))) {
+                Completion completion = executeBlock(env, ((WhileStmt) s).getBlockStmt());
+                if(completion == Completion.BREAK) {
+                    break;
+                } else if(completion == Completion.RETURN) {
+                    return completion;
+                }
+            }
+        } else if(s instanceof IfStmt) {
+            if(toBoolean(evaluate(env, ((IfStmt) s).getCondition()))) {
+                return executeBlock(env, ((IfStmt) s).getTrueBranch());
+            } else {
+                return executeBlock(env, ((IfStmt) s).getFalseBranch());
+            }
+        } else if(s instanceof BlockStmt) {
+            return executeBlock(env, (BlockStmt) s);
+        } else if(s instanceof ReturnStmt) {
+            returnValue = ((ReturnStmt) s).getReturnExp() == null ? null : evaluate(env, ((ReturnStmt) s).getReturnExp());
+            return Completion.RETURN;
+        } else if(s instanceof FunctionInstanceStmt) {
+            evaluate(env, ((FunctionInstanceStmt) s).getFunctionInstanceExp());
+        } else if(s instanceof SelfOperationStmt) {
+            evaluate(env, ((SelfOperationStmt) s).getSelfOperationExp());
+        } else if(s == ControlLoopStmt.STMT_BREAK) {
+            return Completion.BREAK;
+        } else if(s == ControlLoopStmt.STMT_CONTINUE) {
+            return Completion.CONTINUE;
+        } else {
+            // printing and nested functions
+            throw new GiveUpException();
+        }
+        return Completion.NORMAL;
+    } // execute
+
+    private Completion executeFor(final Map<String, Object> env, final ForStmt forStmt) throws GiveUpException {
+        String iterator = forStmt.getIteratorExp().getName();
+        boolean hidesOuter = env.containsKey(iterator);
+        Object outer = env.get(iterator);
+        Completion result = Completion.NORMAL;
+        if(forStmt.getArrayExp() != null) {
+            Object[] array = toArray(evaluate(env, forStmt.getArrayExp()));
+            for (Object element : array) {
+                env.put(iterator, element);
+                Completion completion = executeBlock(env, forStmt.getBlockStmt());
+                if(completion == Completion.BREAK) {
+                    break;
+                } else if(completion == Completion.RETURN) {
+                    result = completion;
+                    break;
+                }
+            }
+        } else {
+            int start = toInt(evaluate(env, forStmt.getRangeExp().getStart()));
+            int end = toInt(evaluate(env, forStmt.getRangeExp().getEnd()));
+            int step = forStmt.getStepExp() == null ? 1 : toInt(evaluate(env, forStmt.getStepExp()));
+            env.put(iterator, start);
+            while (toInt(env.get(iterator)) < end) {
+                Completion completion = executeBlock(env, forStmt.getBlockStmt());
+                if(completion == Completion.BREAK) {
+                    break;
+                } else if(completion == Completion.RETURN) {
+                    result = completion;
+                    break;
+                }
+                env.put(iterator, toInt(env.get(iterator)) + step);
+            }
+        }
+        if(hidesOuter) {
+            env.put(iterator, outer);
+        } else {
+            env.remove(iterator);
+        }
+        return result;
+    } // executeFor
+
+    private void write(final Map<String, Object> env, final Variable variable, final Object value) throws GiveUpException {
+        if(variable instanceof ArrayWithIndexExp) {
+            Object[] array = toArray(evaluate(env, ((ArrayWithIndexExp) variable).getVariableExp()));
+            array[index(array, evaluate(env, ((ArrayWithIndexExp) variable).getIndexExp()))] = value;
+        } else if(env.containsKey(((VariableExp) variable).getName())) {
+            env.put(((VariableExp) variable).getName(), value);
+        } else {
+            throw new GiveUpException();
+        }
+    } // write
+
+    private Object evaluate(final Map<String, Object> env, final Exp e) throws GiveUpException {
+        step();
+        if(e instanceof IntExp) {
+            return ((IntExp) e).getValue();
+        } else if(e instanceof BooleanExp) {
+            return ((BooleanExp) e).getValue();
+        } else if(e instanceof StringExp) {
+            return evaluateString(env, (StringExp) e);
+        } else if(e instanceof VariableExp) {
+            Object value = env.get(((VariableExp) e).getName());
+            if(value == null) {
+                throw new GiveUpException();
+            }
+            return value;
+        } else if(e instanceof AdditiveExp) {
+            Object left = evaluate(env, ((AdditiveExp) e).getLeft());
+            Object right = evaluate(env, ((AdditiveExp) e).getRight());
+            if(((AdditiveExp) e).getOp() == AdditiveOp.EXP_PLUS) {
+                return left instanceof String ? concat(left, right) : toInt(left) + toInt(right);
+            } else {
+                return toInt(left) - toInt(right);
+            }
+        } else if(e instanceof MultiplicativeExp) {
+            int left = toInt(evaluate(env, ((MultiplicativeExp) e).getLeft()));
+            int right = toInt(evaluate(env, ((MultiplicativeExp) e).getRight()));
+            switch (((MultiplicativeExp) e).getOp()) {
+                case OP_MULTIPLY:
+                    return left * right;
+                case OP_DIVIDE:
+                    return divide(left, right);
+                case OP_SHIFT_LEFT:
+                    return left << right;
+                case OP_SHIFT_RIGHT:
+                    return left >> right;
+                case OP_AND:
+                    return left & right;
+                default:
+                    if(right == 0) {
+                        throw new GiveUpException();
+                    }
+                    return left % right;
+            }
+        } else if(e instanceof ComparableExp) {
+            return compare(evaluate(env, ((ComparableExp) e).getLeft()), evaluate(env, ((ComparableExp) e).getRight()),
+                    ((ComparableExp) e).getOp());
+        } else if(e instanceof BiLogicalExp) {
+            boolean left = toBoolean(evaluate(env, ((BiLogicalExp) e).getLeft()));
+            if(((BiLogicalExp) e).getOp() == BiLogicalOp.OP_AND) {
+                return left && toBoolean(evaluate(env, ((BiLogicalExp) e).getRight()));
+            } else {
+                return left || toBoolean(evaluate(env, ((BiLogicalExp) e).getRight()));
+            }
+        } else if(e instanceof NotExp) {
+            return !toBoolean(evaluate(env, ((NotExp) e).getValue()));
+        } else if(e instanceof ArrayWithIndexExp) {
+            Object[] array = toArray(evaluate(env, ((ArrayWithIndexExp) e).getVariableExp()));
+            Object value = array[index(array, evaluate(env, ((ArrayWithIndexExp) e).getIndexExp()))];
+            if(value == null) {
+                throw new GiveUpException();
+            }
+            return value;
+        } else if(e instanceof SelfOperationExp && ((SelfOperationExp) e).getVariableExp() instanceof VariableExp) {
+            VariableExp variable = (VariableExp) ((SelfOperationExp) e).getVariableExp();
+            int value = toInt(evaluate(env, variable));
+            value += ((SelfOperationExp) e).getOp() == SelfOp.OP_SELF_INCREASE ? 1 : -1;
+            write(env, variable, value);
+            return value;
+        } else if(e instanceof FunctionInstanceExp && callGraph.isDeclared(((FunctionInstanceExp) e).getFuncName().getName())) {
+            List<Object> arguments = new ArrayList<>();
+            for (Exp argument : ((FunctionInstanceExp) e).getParameterList()) {
+                arguments.add(evaluate(env, argument));
+            }
+            return call(((FunctionInstanceExp) e).getFuncName().getName(), arguments);
+        } else if(e instanceof ArrayOfExp) {
+            List<Exp> exps = ((ArrayOfExp) e).getExpList();
+            Object[] array = new Object[exps.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = evaluate(env, exps.get(i));
+            }
+            return array;
+        } else if(e instanceof ArrayExp) {
+            return evaluateArrayExp(env, (ArrayExp) e);
+        } else {
+            // lambdas, ranges and lists
+            throw new GiveUpException();
+        }
+    } // evaluate
+
+    private Object[] evaluateArrayExp(final Map<String, Object> env, final ArrayExp arrayExp) throws GiveUpException {
+        int size = toInt(evaluate(env, arrayExp.getSize()));
+        if(size < 0 || size > STEP_BUDGET) {
+            throw new GiveUpException();
+        }
+        LambdaExp lambdaExp = arrayExp.getLambdaExp();
+        String parameter = null;
+        if(lambdaExp.getParameterList() != null && lambdaExp.getParameterList().size() == 1) {
+            parameter = lambdaExp.getParameterList().keySet().iterator().next().getName();
+        }
+        boolean hidesOuter = parameter != null && env.containsKey(parameter);
+        Object outer = hidesOuter ? env.get(parameter) : null;
+        Object[] array = new Object[size];
+        for (int i = 0; i < size; i++) {
+            if(parameter != null) {
+                env.put(parameter, i);
+            }
+            array[i] = evaluate(env, lambdaExp.getReturnExp());
+        }
+        if(hidesOuter) {
+            env.put(parameter, outer);
+        } else if(parameter != null) {
+            env.remove(parameter);
+        }
+        return array;
+    } // evaluateArrayExp
+
+    private String evaluateString(final Map<String, Object> env, final StringExp s) throws GiveUpException {
+        if(s.getInterpolationExp() == null) {
+            return s.getStrWithoutInterpolation();
+        }
+        StringBuilder builder = new StringBuilder();
+        int copied = 0;
+        for (Map.Entry<Integer, Exp> entry : s.getInterpolationExp().entrySet()) {
+            builder.append(s.getStrWithoutInterpolation(), copied, entry.getKey());
+            copied = entry.getKey();
+            builder.append(toText(evaluate(env, entry.getValue())));
+        }
+        builder.append(s.getStrWithoutInterpolation().substring(copied));
+        return checkLength(builder.toString());
+    } // evaluateString
+
+    private static Object compare(final Object left, final Object right, final ComparableOp op) throws GiveUpException {
+        if(left instanceof Integer && right instanceof Integer) {
+            int l = (Integer) left;
+            int r = (Integer) right;
+            switch (op) {
+                case OP_GREATER_THAN:
+                    return l > r;
+                case OP_LESS_THAN:
+                    return l < r;
+                case OP_GREATER_EQUAL:
+                    return l >= r;
+                case OP_LESS_EQUAL:
+                    return l <= r;
+                case OP_EQUAL_EQUAL:
+                    return l == r;
+                default:
+                    return l != r;
+            }
+        } else if(left instanceof Boolean && right instanceof Boolean) {
+            if(op == ComparableOp.OP_EQUAL_EQUAL) {
+                return left.equals(right);
+            } else if(op == ComparableOp.OP_NOT_EQUAL) {
+                return !left.equals(right);
+            }
+        }
+        throw new GiveUpException();
+    } // compare
+
+    private static String concat(final Object left, final Object right) throws GiveUpException {
+        return checkLength(toText(left) + toText(right));
+    }
+
+    private static String checkLength(final String s) throws GiveUpException {
+        if(s.length() > MAX_STRING_LENGTH) {
+            throw new GiveUpException();
+        }
+        return s;
+    }
+
+    private static String toText(final Object value) throws GiveUpException {
+        if(value instanceof Integer || value instanceof Boolean || value instanceof String) {
+            return String.valueOf(value);
+        }
+        throw new GiveUpException();
+    }
+
+    private static int divide(final int left, final int right) throws GiveUpException {
+        if(right == 0) {
+            throw new GiveUpException();
+        }
+        return left / right;
+    }
+
+    private static int index(final Object[] array, final Object index) throws GiveUpException {
+        int i = toInt(index);
+        if(i < 0 || i >= array.length) {
+            throw new GiveUpException();
+        }
+        return i;
+    }
+
+    private static int toInt(final Object value) throws GiveUpException {
+        if(value instanceof Integer) {
+            return (Integer) value;
+        }
+        throw new GiveUpException();
+    }
+
+    private static boolean toBoolean(final Object value) throws GiveUpException {
+        if(value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new GiveUpException();
+    }
+
+    private static Object[] toArray(final Object value) throws GiveUpException {
+        if(value instanceof Object[]) {
+            return (Object[]) value;
+        }
+        throw new GiveUpException();
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Move expressions whose value is the same in every iteration of a loop out of it. Each invariant
+ * expression in the body of a for or while loop, or in the condition of a while loop, is computed once
+ * into a new val declared right before the loop, outer loops first so an expression leaves every loop it
+ * does not depend on. The range of a for loop is already evaluated once and is left alone.
+ *
+ * An expression is invariant when it only reads variables the loop does not assign, and is only moved
+ * when evaluating it cannot fail: it has no calls, array reads or division by anything but a non zero
+ * literal, so computing it before a loop that runs zero times changes nothing. When the loop calls a
+ * function that is not pure, variables not local to the enclosing function count as assigned.
+ */
+public class LoopInvariantCodeMotion {
+    public static final String TEMP_PREFIX = "invariant$";
+
+    private final PurityAnalysis purity;
+    private int nextTemp;
+    // parameters and variables of the function being rewritten, null at top level
+    private Set<String> locals;
+
+    private LoopInvariantCodeMotion(final PurityAnalysis purity, final int nextTemp) {
+        this.purity = purity;
+        this.nextTemp = nextTemp;
+    }
+
+    public static Program hoist(final Program program) {
+        LoopInvariantCodeMotion motion = new LoopInvariantCodeMotion(PurityAnalysis.analyze(program),
+                firstFreeTemp(program.getStmtList(), TEMP_PREFIX));
+        return new Program(motion.hoistStmts(program.getStmtList()));
+    } // hoist
+
+    // Temps of earlier runs stay in the program, new ones must not reuse their names.
+    static int firstFreeTemp(final List<Stmt> stmts, final String prefix) {
+        final int[] next = new int[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof VariableExp && ((VariableExp) e).getName().startsWith(prefix)) {
+                    int number = Integer.parseInt(((VariableExp) e).getName().substring(prefix.length()));
+                    next[0] = Math.max(next[0], number + 1);
+                }
+                return true;
+            }
+        }.scanStmts(stmts);
+        return next[0];
+    } // firstFreeTemp
+
+    private List<Stmt> hoistStmts(final List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            hoistStmt(s, result);
+        }
+        return result;
+    } // hoistStmts
+
+    private BlockStmt hoistBlock(final BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(hoistStmts(blockStmt.getStmtList()));
+    } // hoistBlock
+
+    // Add s to result, preceded by the vals hoisted out of it when it is a loop.
+    private void hoistStmt(final Stmt s, final List<Stmt> result) {
+        if(s instanceof ForStmt || s instanceof WhileStmt) {
+            Hoister hoister = new Hoister(assignedIn(s, purity));
+            Stmt loop = hoister.rewriteLoop(s);
+            for (int i = 0; i < hoister.temps.size(); i++) {
+                result.add(new AssignStmt(hoister.invariants.get(i), hoister.temps.get(i), true, true));
+            }
+            if(loop instanceof ForStmt) {
+                ForStmt asFor = (ForStmt) loop;
+                BlockStmt body = hoistBlock(asFor.getBlockStmt());
+                if(asFor.getArrayExp() != null) {
+                    result.add(new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), body));
+                } else if(asFor.getStepExp() != null) {
+                    result.add(new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), body));
+                } else {
+                    result.add(new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), body));
+                }
+            } else {
+                result.add(new WhileStmt(((WhileStmt) loop).getCondition(), hoistBlock(((WhileStmt) loop).getBlockStmt())));
+            }
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(asIf.getFalseBranch() != null) {
+                result.add(new IfStmt(asIf.getCondition(), hoistBlock(asIf.getTrueBranch()), hoistBlock(asIf.getFalseBranch())));
+            } else {
+                result.add(new IfStmt(asIf.getCondition(), hoistBlock(asIf.getTrueBranch())));
+            }
+        } else if(s instanceof BlockStmt) {
+            result.add(hoistBlock((BlockStmt) s));
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            locals = PurityAnalysis.localNames(asFunction);
+            result.add(new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), hoistBlock(asFunction.getBlockStmt()), asFunction.isInline()));
+            locals = null;
+        } else {
+            result.add(s);
+        }
+    } // hoistStmt
+
+    // Names a loop can change: everything assigned or declared in it, and every variable outside the
+    // function when it calls a function that is not pure.
+    static Set<String> assignedIn(final Stmt s, final PurityAnalysis purity) {
+        final Set<String> names = new HashSet<>();
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof AssignStmt && ((AssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((AssignStmt) s).getVariable()).getName());
+                } else if(s instanceof CompoundAssignStmt && ((CompoundAssignStmt) s).getVariable() instanceof VariableExp) {
+                    names.add(((VariableExp) ((CompoundAssignStmt) s).getVariable()).getName());
+                } else if(s instanceof VariableDeclareStmt) {
+                    names.add(((VariableDeclareStmt) s).getVariableExp().getName());
+                } else if(s instanceof ForStmt) {
+                    names.add(((ForStmt) s).getIteratorExp().getName());
+                }
+                return true;
+            }
+
+            @Override
+            protected boolean visitExp(Exp e) {
+                if(e instanceof SelfOperationExp && ((SelfOperationExp) e).getVariableExp() instanceof VariableExp) {
+                    names.add(((VariableExp) ((SelfOperationExp) e).getVariableExp()).getName());
+                } else if(e instanceof FunctionInstanceExp && !purity.isPure(((FunctionInstanceExp) e).getFuncName().getName())) {
+                    names.add(null);    // marks a call that may write any variable outside the function
+                }
+                return true;
+            }
+        }.scanStmt(s);
+        return names;
+    } // assignedIn
+
+    // Replace the invariant expressions of one loop by temps, recording what each temp holds.
+    private class Hoister extends AstRewriter {
+        private final Set<String> assigned;
+        private final boolean callsImpure;
+        private final List<VariableExp> temps;
+        private final List<Exp> invariants;
+
+        private Hoister(final Set<String> assigned) {
+            this.assigned = assigned;
+            callsImpure = assigned.remove(null);
+            temps = new ArrayList<>();
+            invariants = new ArrayList<>();
+        }
+
+        private Stmt rewriteLoop(final Stmt loop) {
+            if(loop instanceof WhileStmt) {
+                return rewriteStmt(loop);
+            }
+            ForStmt asFor = (ForStmt) loop;
+            BlockStmt body = rewriteBlock(asFor.getBlockStmt());
+            if(asFor.getArrayExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), body);
+            } else if(asFor.getStepExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), body);
+            }
+            return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), body);
+        } // rewriteLoop
+
+        @Override
+        public Stmt rewriteStmt(Stmt s) {
+            if(s instanceof ForStmt && ((ForStmt) s).getRangeExp() != null) {
+                // the range of a nested loop stays where RangeAnalysis can see it
+                ForStmt asFor = (ForStmt) s;
+                BlockStmt body = rewriteBlock(asFor.getBlockStmt());
+                if(asFor.getStepExp() != null) {
+                    return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), body);
+                }
+                return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), body);
+            }
+            return super.rewriteStmt(s);
+        }
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            if(e instanceof LambdaExp || e instanceof IntExp || e instanceof BooleanExp || e instanceof VariableExp
+                    || e instanceof StringExp && ((StringExp) e).getInterpolationExp() == null) {
+                return e;
+            } else if(!isInvariant(e)) {
+                return null;
+            }
+            int index = invariants.indexOf(e);
+            if(index < 0) {
+                index = invariants.size();
+                invariants.add(e);
+                temps.add(new VariableExp(TEMP_PREFIX + nextTemp++));
+            }
+            return temps.get(index);
+        }
+
+        private boolean isInvariant(final Exp e) {
+            if(e instanceof IntExp || e instanceof BooleanExp) {
+                return true;
+            } else if(e instanceof VariableExp) {
+                String name = ((VariableExp) e).getName();
+                return !assigned.contains(name) && (!callsImpure || locals != null && locals.contains(name));
+            } else if(e instanceof MultiplicativeExp && (((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_DIVIDE
+                    || ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_MOD)) {
+                Exp right = ((MultiplicativeExp) e).getRight();
+                return isInvariant(((MultiplicativeExp) e).getLeft())
+                        && right instanceof IntExp && ((IntExp) right).getValue() != 0;
+            } else if(e instanceof BinaryIntExp) {
+                return isInvariant(((BinaryIntExp) e).getLeft()) && isInvariant(((BinaryIntExp) e).getRight());
+            } else if(e instanceof ComparableExp) {
+                return isInvariant(((ComparableExp) e).getLeft()) && isInvariant(((ComparableExp) e).getRight());
+            } else if(e instanceof BiLogicalExp) {
+                return isInvariant(((BiLogicalExp) e).getLeft()) && isInvariant(((BiLogicalExp) e).getRight());
+            } else if(e instanceof NotExp) {
+                return isInvariant(((NotExp) e).getValue());
+            } else if(e instanceof StringExp) {
+                if(((StringExp) e).getInterpolationExp() != null) {
+                    for (Exp interpolation : ((StringExp) e).getInterpolationExp().values()) {
+                        if(!isInvariant(interpolation)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            // calls, array reads and new arrays may fail or give a different result each time
+            return false;
+        } // isInvariant
+    }
+}
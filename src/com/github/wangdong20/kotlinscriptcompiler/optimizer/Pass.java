@@ -0,0 +1,11 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+
+/**
+ * One optimization over a typechecked program. A pass returns a new program with the same behavior and
+ * leaves its input unchanged, so passes can be run in any order and more than once.
+ */
+public interface Pass {
+    Program run(Program program);
+}
@@ -0,0 +1,67 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run optimization passes between the typechecker and the code generator. The passes run in the order
+ * they were added, and the whole list runs again while the program keeps changing, because one pass often
+ * exposes work for another, up to a fixed number of rounds.
+ *
+ * The passes work on the typed AST itself, there is no separate intermediate representation and the code
+ * generator stays the only backend.
+ */
+public class PassManager {
+    public static final int DEFAULT_MAX_ROUNDS = 4;
+
+    private final List<String> names;
+    private final List<Pass> passes;
+    private final int maxRounds;
+
+    public PassManager(final int maxRounds) {
+        names = new ArrayList<>();
+        passes = new ArrayList<>();
+        this.maxRounds = maxRounds;
+    }
+
+    public PassManager() {
+        this(DEFAULT_MAX_ROUNDS);
+    }
+
+    // The passes the compiler runs on every program.
+    public static PassManager standard() {
+        return new PassManager()
+                .addPass("constant folding", ConstantFolder::foldProgram)
+                .addPass("inlining", Inliner::inline)
+                .addPass("loop invariant code motion", LoopInvariantCodeMotion::hoist)
+                .addPass("common subexpression elimination", CommonSubexpressionEliminator::eliminate)
+                .addPass("strength reduction", StrengthReducer::reduce)
+                .addPass("dead code elimination", DeadCodeEliminator::eliminate);
+    } // standard
+
+    public PassManager addPass(final String name, final Pass pass) {
+        names.add(name);
+        passes.add(pass);
+        return this;
+    } // addPass
+
+    public List<String> getPassNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public Program run(Program program) {
+        for (int round = 0; round < maxRounds; round++) {
+            Program before = program;
+            for (Pass pass : passes) {
+                program = pass.run(program);
+            }
+            if(program.equals(before)) {
+                break;
+            }
+        }
+        return program;
+    } // run
+}
@@ -0,0 +1,299 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.AstScanner;
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Replace multiplications, divisions and remainders by cheaper operations. In a range for loop a product
+ * of the iterator and a value the loop does not change becomes an induction variable: it starts at the
+ * product for the first iterator value before the loop and grows by the value times the step at the end
+ * of every iteration. Only loops without break, continue or return are rewritten, so the update always
+ * runs, and the same rules as LoopInvariantCodeMotion decide what the loop does not change.
+ *
+ * Afterwards multiplying by a power of two becomes a left shift everywhere. Division and remainder by a
+ * power of two only become a right shift and a mask when the left side cannot be negative, because both
+ * round towards zero: a non negative literal or the iterator of a range loop counting up from zero or more.
+ */
+public class StrengthReducer {
+    public static final String TEMP_PREFIX = "induction$";
+
+    private final PurityAnalysis purity;
+    private int nextTemp;
+    // parameters and variables of the function being rewritten, null at top level
+    private Set<String> locals;
+
+    private StrengthReducer(final PurityAnalysis purity, final int nextTemp) {
+        this.purity = purity;
+        this.nextTemp = nextTemp;
+    }
+
+    public static Program reduce(final Program program) {
+        StrengthReducer reducer = new StrengthReducer(PurityAnalysis.analyze(program),
+                LoopInvariantCodeMotion.firstFreeTemp(program.getStmtList(), TEMP_PREFIX));
+        List<Stmt> stmts = reducer.reduceStmts(program.getStmtList());
+        return new Program(new Shifter(reducer.purity).rewriteStmts(stmts));
+    } // reduce
+
+    private List<Stmt> reduceStmts(final List<Stmt> stmts) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : stmts) {
+            reduceStmt(s, result);
+        }
+        return result;
+    } // reduceStmts
+
+    private BlockStmt reduceBlock(final BlockStmt blockStmt) {
+        if(blockStmt == null || blockStmt.getStmtList() == null) {
+            return blockStmt;
+        }
+        return new BlockStmt(reduceStmts(blockStmt.getStmtList()));
+    } // reduceBlock
+
+    // Add s to result, preceded by the induction variables of it when it is a range loop.
+    private void reduceStmt(final Stmt s, final List<Stmt> result) {
+        if(s instanceof ForStmt) {
+            ForStmt asFor = (ForStmt) s;
+            // inner loops first, their own iterators are not invariant here
+            BlockStmt body = reduceBlock(asFor.getBlockStmt());
+            if(asFor.getArrayExp() != null) {
+                result.add(new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), body));
+            } else {
+                result.add(reduceLoop(asFor, body, result));
+            }
+        } else if(s instanceof WhileStmt) {
+            result.add(new WhileStmt(((WhileStmt) s).getCondition(), reduceBlock(((WhileStmt) s).getBlockStmt())));
+        } else if(s instanceof IfStmt) {
+            IfStmt asIf = (IfStmt) s;
+            if(asIf.getFalseBranch() != null) {
+                result.add(new IfStmt(asIf.getCondition(), reduceBlock(asIf.getTrueBranch()), reduceBlock(asIf.getFalseBranch())));
+            } else {
+                result.add(new IfStmt(asIf.getCondition(), reduceBlock(asIf.getTrueBranch())));
+            }
+        } else if(s instanceof BlockStmt) {
+            result.add(reduceBlock((BlockStmt) s));
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) s;
+            locals = PurityAnalysis.localNames(asFunction);
+            result.add(new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), reduceBlock(asFunction.getBlockStmt()), asFunction.isInline()));
+            locals = null;
+        } else {
+            result.add(s);
+        }
+    } // reduceStmt
+
+    // Give every iterator product in the body of a range loop its own induction variable.
+    private ForStmt reduceLoop(final ForStmt loop, final BlockStmt body, final List<Stmt> result) {
+        RangeExp range = loop.getRangeExp();
+        Exp step = loop.getStepExp();
+        Set<String> assigned = LoopInvariantCodeMotion.assignedIn(body, purity);
+        boolean callsImpure = assigned.remove(null);
+        String iterator = loop.getIteratorExp().getName();
+        if(body == null || body.getStmtList() == null || leavesEarly(body) || assigned.contains(iterator)
+                || !isSimple(range.getStart()) || step != null && !isSimple(step)) {
+            return rebuild(loop, body);
+        }
+        Inductor inductor = new Inductor(iterator, assigned, callsImpure);
+        if(step instanceof VariableExp && !inductor.isInvariant(step)) {
+            // the loop reads its step once, the updates read it every iteration
+            return rebuild(loop, body);
+        }
+        List<Stmt> stmts = inductor.rewriteStmts(body.getStmtList());
+        if(inductor.temps.isEmpty()) {
+            return rebuild(loop, body);
+        }
+        for (int i = 0; i < inductor.temps.size(); i++) {
+            Exp factor = inductor.factors.get(i);
+            result.add(new AssignStmt(multiply(factor, range.getStart()), inductor.temps.get(i), false, true));
+            stmts.add(new CompoundAssignStmt(step == null ? factor : multiply(factor, step), inductor.temps.get(i),
+                    CompoundAssignOp.EXP_PLUS_EQUAL));
+        }
+        return rebuild(loop, new BlockStmt(stmts));
+    } // reduceLoop
+
+    private static ForStmt rebuild(final ForStmt loop, final BlockStmt body) {
+        if(loop.getStepExp() != null) {
+            return new ForStmt(loop.getIteratorExp(), loop.getRangeExp(), loop.getStepExp(), body);
+        }
+        return new ForStmt(loop.getIteratorExp(), loop.getRangeExp(), body);
+    } // rebuild
+
+    private static Exp multiply(final Exp left, final Exp right) {
+        if(left instanceof IntExp && right instanceof IntExp) {
+            return new IntExp(((IntExp) left).getValue() * ((IntExp) right).getValue());
+        } else if(right instanceof IntExp && ((IntExp) right).getValue() == 0) {
+            return right;
+        } else if(right instanceof IntExp && ((IntExp) right).getValue() == 1) {
+            return left;
+        } else if(left instanceof IntExp && ((IntExp) left).getValue() == 1) {
+            return right;
+        }
+        return new MultiplicativeExp(left, right, MultiplicativeOp.OP_MULTIPLY);
+    } // multiply
+
+    // Only literals and variables are read again outside the place the loop evaluates them.
+    private static boolean isSimple(final Exp e) {
+        return e instanceof IntExp || e instanceof VariableExp;
+    } // isSimple
+
+    // Whether an iteration may end before the last statement of the body.
+    private static boolean leavesEarly(final BlockStmt body) {
+        final boolean[] leaves = new boolean[1];
+        new AstScanner() {
+            @Override
+            protected boolean visitStmt(Stmt s) {
+                if(s instanceof ControlLoopStmt || s instanceof ReturnStmt) {
+                    leaves[0] = true;
+                }
+                return !leaves[0];
+            }
+        }.scanStmt(body);
+        return leaves[0];
+    } // leavesEarly
+
+    // Replace iterator times invariant by induction variables, one per invariant factor.
+    private class Inductor extends AstRewriter {
+        private final String iterator;
+        private final Set<String> assigned;
+        private final boolean callsImpure;
+        private final List<VariableExp> temps;
+        private final List<Exp> factors;
+
+        private Inductor(final String iterator, final Set<String> assigned, final boolean callsImpure) {
+            this.iterator = iterator;
+            this.assigned = assigned;
+            this.callsImpure = callsImpure;
+            temps = new ArrayList<>();
+            factors = new ArrayList<>();
+        }
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            if(!(e instanceof MultiplicativeExp) || ((MultiplicativeExp) e).getOp() != MultiplicativeOp.OP_MULTIPLY) {
+                return null;
+            }
+            Exp left = ((MultiplicativeExp) e).getLeft();
+            Exp right = ((MultiplicativeExp) e).getRight();
+            Exp factor;
+            if(isIterator(left) && isInvariant(right)) {
+                factor = right;
+            } else if(isIterator(right) && isInvariant(left)) {
+                factor = left;
+            } else {
+                return null;
+            }
+            int index = factors.indexOf(factor);
+            if(index < 0) {
+                index = factors.size();
+                factors.add(factor);
+                temps.add(new VariableExp(TEMP_PREFIX + nextTemp++));
+            }
+            return temps.get(index);
+        }
+
+        private boolean isIterator(final Exp e) {
+            return e instanceof VariableExp && ((VariableExp) e).getName().equals(iterator);
+        } // isIterator
+
+        private boolean isInvariant(final Exp e) {
+            if(e instanceof IntExp) {
+                // times one is left to the iterator itself, times zero to constant folding
+                return ((IntExp) e).getValue() != 0 && ((IntExp) e).getValue() != 1;
+            } else if(e instanceof VariableExp) {
+                String name = ((VariableExp) e).getName();
+                return !name.equals(iterator) && !assigned.contains(name)
+                        && (!callsImpure || locals != null && locals.contains(name));
+            }
+            return false;
+        } // isInvariant
+    }
+
+    // Turn multiplication, division and remainder by powers of two into shifts and masks.
+    private static class Shifter extends AstRewriter {
+        // iterators of the enclosing range loops that never go below zero
+        private final Set<String> nonNegative = new HashSet<>();
+        private final PurityAnalysis purity;
+
+        private Shifter(final PurityAnalysis purity) {
+            this.purity = purity;
+        }
+
+        @Override
+        public Stmt rewriteStmt(Stmt s) {
+            if(s instanceof ForStmt && ((ForStmt) s).getRangeExp() != null && countsUpFromZero((ForStmt) s)) {
+                String iterator = ((ForStmt) s).getIteratorExp().getName();
+                boolean added = nonNegative.add(iterator);
+                Stmt result = super.rewriteStmt(s);
+                if(added) {
+                    nonNegative.remove(iterator);
+                }
+                return result;
+            }
+            return super.rewriteStmt(s);
+        }
+
+        // Whether the iterator starts at zero or above, is not written by the body and cannot wrap around while counting up.
+        private boolean countsUpFromZero(final ForStmt loop) {
+            if(!isNonNegative(loop.getRangeExp().getStart()) || loop.getBlockStmt() != null
+                    && LoopInvariantCodeMotion.assignedIn(loop.getBlockStmt(), purity).contains(loop.getIteratorExp().getName())) {
+                return false;
+            }
+            Exp step = loop.getStepExp();
+            if(step == null || step instanceof IntExp && ((IntExp) step).getValue() == 1) {
+                return true;
+            }
+            Exp end = loop.getRangeExp().getEnd();
+            return step instanceof IntExp && ((IntExp) step).getValue() > 0 && end instanceof IntExp
+                    && ((IntExp) end).getValue() <= Integer.MAX_VALUE - ((IntExp) step).getValue();
+        } // countsUpFromZero
+
+        private boolean isNonNegative(final Exp e) {
+            if(e instanceof IntExp) {
+                return ((IntExp) e).getValue() >= 0;
+            } else if(e instanceof VariableExp) {
+                return nonNegative.contains(((VariableExp) e).getName());
+            } else if(e instanceof MultiplicativeExp && ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_AND) {
+                return isNonNegative(((MultiplicativeExp) e).getLeft()) || isNonNegative(((MultiplicativeExp) e).getRight());
+            } else if(e instanceof MultiplicativeExp && ((MultiplicativeExp) e).getOp() == MultiplicativeOp.OP_SHIFT_RIGHT) {
+                return isNonNegative(((MultiplicativeExp) e).getLeft());
+            }
+            return false;
+        } // isNonNegative
+
+        @Override
+        protected Exp visitExp(Exp e) {
+            if(!(e instanceof MultiplicativeExp)) {
+                return null;
+            }
+            MultiplicativeOp op = ((MultiplicativeExp) e).getOp();
+            Exp left = rewriteExp(((MultiplicativeExp) e).getLeft());
+            Exp right = rewriteExp(((MultiplicativeExp) e).getRight());
+            if(op == MultiplicativeOp.OP_MULTIPLY && powerOfTwo(right) > 0) {
+                return new MultiplicativeExp(left, new IntExp(powerOfTwo(right)), MultiplicativeOp.OP_SHIFT_LEFT);
+            } else if(op == MultiplicativeOp.OP_MULTIPLY && powerOfTwo(left) > 0) {
+                return new MultiplicativeExp(right, new IntExp(powerOfTwo(left)), MultiplicativeOp.OP_SHIFT_LEFT);
+            } else if(op == MultiplicativeOp.OP_DIVIDE && powerOfTwo(right) > 0 && isNonNegative(left)) {
+                return new MultiplicativeExp(left, new IntExp(powerOfTwo(right)), MultiplicativeOp.OP_SHIFT_RIGHT);
+            } else if(op == MultiplicativeOp.OP_MOD && powerOfTwo(right) > 0 && isNonNegative(left)) {
+                return new MultiplicativeExp(left, new IntExp(((IntExp) right).getValue() - 1), MultiplicativeOp.OP_AND);
+            }
+            return new MultiplicativeExp(left, right, op);
+        }
+
+        // The exponent when e is a literal power of two above one, otherwise 0.
+        private static int powerOfTwo(final Exp e) {
+            if(e instanceof IntExp) {
+                int value = ((IntExp) e).getValue();
+                if(value > 1 && (value & (value - 1)) == 0) {
+                    return Integer.numberOfTrailingZeros(value);
+                }
+            }
+            return 0;
+        } // powerOfTwo
+    }
+}
@@ -229,6 +229,10 @@ public class Parser {
                             parameterList.add(parseString(temp, pos).result);
                         } else if(temp == KeywordToken.TK_TRUE || temp == KeywordToken.TK_FALSE) {
                             parameterList.add(new BooleanExp(temp == KeywordToken.TK_TRUE));
+                        } else if(temp == BracketsToken.TK_LCURLY) {
+                            ParseResult<Exp> lambdaExp = parseLambdaExp(pos);
+                            parameterList.add(lambdaExp.result);
+                            pos = lambdaExp.nextPos - 1;    // at the }
                         } else {
                             throw new ParseException("Unsupport function parameter!");
                         }
@@ -421,8 +425,8 @@ public class Parser {
                         case TK_ARRAY: case TK_MUTABLE_LIST:
                             pos++;
                             ParseResult<BasicType> genericType = parseGenericType(pos);
-                            type = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                    new TypeMutableList(genericType.result);
+                            type = tokenHere == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                                    TypeInterner.mutableListOf(genericType.result);
                             pos = genericType.nextPos;
                             break;
                     }
@@ -566,8 +570,8 @@ public class Parser {
                 case TK_ARRAY: case TK_MUTABLE_LIST:
                     pos++;
                     ParseResult<BasicType> genericType = parseGenericType(pos);
-                    parameterTypes.add(temp == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                            new TypeMutableList(genericType.result));
+                    parameterTypes.add(temp == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                            TypeInterner.mutableListOf(genericType.result));
                     pos = genericType.nextPos;
                     break;
             }
@@ -604,12 +608,12 @@ public class Parser {
             case TK_ARRAY: case TK_MUTABLE_LIST:
                 pos++;
                 ParseResult<BasicType> genericType = parseGenericType(pos);
-                retureType = temp == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                        new TypeMutableList(genericType.result);
+                retureType = temp == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                        TypeInterner.mutableListOf(genericType.result);
                 pos = genericType.nextPos;
                 break;
         }
-        return new ParseResult<>(new TypeHighOrderFunction(parameterTypes, retureType), pos);
+        return new ParseResult<>(TypeInterner.functionOf(parameterTypes, retureType), pos);
     }
 
     private ParseResult<Stmt> parsePrimaryStmt(final int startPos) throws ParseException {
@@ -674,6 +678,10 @@ public class Parser {
                             parameterList.add(parseString(temp, pos).result);
                         } else if(temp == KeywordToken.TK_TRUE || temp == KeywordToken.TK_FALSE) {
                             parameterList.add(new BooleanExp(temp == KeywordToken.TK_TRUE));
+                        } else if(temp == BracketsToken.TK_LCURLY) {
+                            ParseResult<Exp> lambdaExp = parseLambdaExp(pos);
+                            parameterList.add(lambdaExp.result);
+                            pos = lambdaExp.nextPos - 1;    // at the }
                         } else {
                             throw new ParseException("Unsupport function parameter!");
                         }
@@ -833,8 +841,8 @@ public class Parser {
                             case TK_ARRAY: case TK_MUTABLE_LIST:
                                 pos++;
                                 ParseResult<BasicType> genericType = parseGenericType(pos);
-                                type = next == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                        new TypeMutableList(genericType.result);
+                                type = next == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                                        TypeInterner.mutableListOf(genericType.result);
                                 pos = genericType.nextPos;
                                 break;
                         }
@@ -1050,6 +1058,13 @@ public class Parser {
         int pos = startPos;
         if(tokenHere == KeywordToken.TK_FOR) {
             return parseForStmt(pos);
+        } else if(tokenHere == KeywordToken.TK_INLINE) {
+            pos++;
+            checkTokenIs(pos, KeywordToken.TK_FUN);
+            ParseResult<Stmt> function = parseStmt(pos);
+            FunctionDeclareStmt asFunction = (FunctionDeclareStmt) function.result;
+            return new ParseResult<>(new FunctionDeclareStmt(asFunction.getFuncName(), asFunction.getReturnType(),
+                    asFunction.getParameterList(), asFunction.getBlockStmt(), true), function.nextPos);
         } else if(tokenHere == KeywordToken.TK_FUN) {
             pos++;
             if((tokenHere = readToken(pos)) instanceof VariableToken) {
@@ -1068,34 +1083,40 @@ public class Parser {
                         if(tokenHere == SymbolToken.TK_COLON) {
                             pos++;
                             tokenHere = readToken(pos);
-                            switch ((TypeToken)tokenHere) {
-                                case TK_TYPE_INT:
-                                    type = BasicType.TYPE_INT;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_STRING:
-                                    type = BasicType.TYPE_STRING;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_BOOLEAN:
-                                    type = BasicType.TYPE_BOOLEAN;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_UNIT:
-                                    type = BasicType.TYPE_UNIT;
-                                    pos++;
-                                    break;
-                                case TK_ANY:
-                                    type = BasicType.TYPE_ANY;
-                                    pos++;
-                                    break;
-                                case TK_ARRAY: case TK_MUTABLE_LIST:
-                                    pos++;
-                                    ParseResult<BasicType> genericType = parseGenericType(pos);
-                                    type = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                            new TypeMutableList(genericType.result);
-                                    pos = genericType.nextPos;
-                                    break;
+                            if(tokenHere == BracketsToken.TK_LPAREN) {
+                                ParseResult<TypeHighOrderFunction> result = parseTypeHighOrderFunction(pos);
+                                type = result.result;
+                                pos = result.nextPos;
+                            } else {
+                                switch ((TypeToken)tokenHere) {
+                                    case TK_TYPE_INT:
+                                        type = BasicType.TYPE_INT;
+                                        pos++;
+                                        break;
+                                    case TK_TYPE_STRING:
+                                        type = BasicType.TYPE_STRING;
+                                        pos++;
+                                        break;
+                                    case TK_TYPE_BOOLEAN:
+                                        type = BasicType.TYPE_BOOLEAN;
+                                        pos++;
+                                        break;
+                                    case TK_TYPE_UNIT:
+                                        type = BasicType.TYPE_UNIT;
+                                        pos++;
+                                        break;
+                                    case TK_ANY:
+                                        type = BasicType.TYPE_ANY;
+                                        pos++;
+                                        break;
+                                    case TK_ARRAY: case TK_MUTABLE_LIST:
+                                        pos++;
+                                        ParseResult<BasicType> genericType = parseGenericType(pos);
+                                        type = tokenHere == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                                                TypeInterner.mutableListOf(genericType.result);
+                                        pos = genericType.nextPos;
+                                        break;
+                                }
                             }
                         }
                         if(parameterList.containsKey(variableExp)) {    // Function declaration cannot have same parameter name.
@@ -1124,34 +1145,40 @@ public class Parser {
                 if(readToken(pos) == SymbolToken.TK_COLON) {
                     pos++;
                     tokenHere = readToken(pos);
-                    switch ((TypeToken)tokenHere) {
-                        case TK_TYPE_INT:
-                            retureType = BasicType.TYPE_INT;
-                            pos++;
-                            break;
-                        case TK_TYPE_STRING:
-                            retureType = BasicType.TYPE_STRING;
-                            pos++;
-                            break;
-                        case TK_TYPE_BOOLEAN:
-                            retureType = BasicType.TYPE_BOOLEAN;
-                            pos++;
-                            break;
-                        case TK_TYPE_UNIT:
-                            retureType = BasicType.TYPE_UNIT;
-                            pos++;
-                            break;
-                        case TK_ANY:
-                            retureType = BasicType.TYPE_ANY;
-                            pos++;
-                            break;
-                        case TK_ARRAY: case TK_MUTABLE_LIST:
-                            pos++;
-                            ParseResult<BasicType> genericType = parseGenericType(pos);
-                            retureType = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                    new TypeMutableList(genericType.result);
-                            pos = genericType.nextPos;
-                            break;
+                    if(tokenHere == BracketsToken.TK_LPAREN) {
+                        ParseResult<TypeHighOrderFunction> result = parseTypeHighOrderFunction(pos);
+                        retureType = result.result;
+                        pos = result.nextPos;
+                    } else {
+                        switch ((TypeToken)tokenHere) {
+                            case TK_TYPE_INT:
+                                retureType = BasicType.TYPE_INT;
+                                pos++;
+                                break;
+                            case TK_TYPE_STRING:
+                                retureType = BasicType.TYPE_STRING;
+                                pos++;
+                                break;
+                            case TK_TYPE_BOOLEAN:
+                                retureType = BasicType.TYPE_BOOLEAN;
+                                pos++;
+                                break;
+                            case TK_TYPE_UNIT:
+                                retureType = BasicType.TYPE_UNIT;
+                                pos++;
+                                break;
+                            case TK_ANY:
+                                retureType = BasicType.TYPE_ANY;
+                                pos++;
+                                break;
+                            case TK_ARRAY: case TK_MUTABLE_LIST:
+                                pos++;
+                                ParseResult<BasicType> genericType = parseGenericType(pos);
+                                retureType = tokenHere == TypeToken.TK_ARRAY ? TypeInterner.arrayOf(genericType.result) :
+                                        TypeInterner.mutableListOf(genericType.result);
+                                pos = genericType.nextPos;
+                                break;
+                        }
                     }
                     ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
                     pos = blockStmt.nextPos;
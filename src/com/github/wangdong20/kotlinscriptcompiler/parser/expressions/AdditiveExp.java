@@ -23,6 +23,11 @@ public class AdditiveExp extends BinaryIntExp {
         return op;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_ADDITIVE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof AdditiveExp) {
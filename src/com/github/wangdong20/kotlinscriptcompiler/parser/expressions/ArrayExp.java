@@ -20,6 +20,11 @@ public class ArrayExp implements Exp {
         return lambdaExp;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_ARRAY;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof ArrayExp) {
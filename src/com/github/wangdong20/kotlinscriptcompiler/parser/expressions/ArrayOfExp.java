@@ -13,6 +13,11 @@ public class ArrayOfExp implements Exp {
         return expList;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_ARRAY_OF;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof ArrayOfExp) {
@@ -18,6 +18,11 @@ public class ArrayWithIndexExp implements Exp, Variable {
         return indexExp;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_ARRAY_WITH_INDEX;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof ArrayWithIndexExp) {
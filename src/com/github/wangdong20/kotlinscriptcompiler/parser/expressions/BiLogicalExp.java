@@ -23,6 +23,11 @@ public class BiLogicalExp implements Exp {
         this.op = op;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_BI_LOGICAL;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof BiLogicalExp) {
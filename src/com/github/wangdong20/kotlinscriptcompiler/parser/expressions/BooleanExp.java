@@ -11,6 +11,11 @@ public class BooleanExp implements Exp {
         return value;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_BOOLEAN;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof BooleanExp) {
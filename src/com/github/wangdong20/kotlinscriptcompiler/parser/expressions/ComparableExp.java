@@ -23,6 +23,11 @@ public class ComparableExp implements Exp {
         return op;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_COMPARABLE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof ComparableExp) {
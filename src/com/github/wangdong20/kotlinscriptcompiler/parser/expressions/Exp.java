@@ -1,4 +1,5 @@
 package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
 
 public interface Exp {
+    ExpKind getKind();
 }
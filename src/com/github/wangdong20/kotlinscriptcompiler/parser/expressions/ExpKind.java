@@ -0,0 +1,25 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
+
+/**
+ * The concrete class of an expression, so passes can switch on it instead of testing instanceof in turn.
+ */
+public enum ExpKind {
+    EXP_INT,   // IntExp
+    EXP_BOOLEAN,   // BooleanExp
+    EXP_STRING,   // StringExp
+    EXP_VARIABLE,   // VariableExp
+    EXP_ARRAY_WITH_INDEX,   // ArrayWithIndexExp
+    EXP_ADDITIVE,   // AdditiveExp
+    EXP_MULTIPLICATIVE,   // MultiplicativeExp
+    EXP_COMPARABLE,   // ComparableExp
+    EXP_NOT,   // NotExp
+    EXP_BI_LOGICAL,   // BiLogicalExp
+    EXP_SELF_OPERATION,   // SelfOperationExp
+    EXP_FUNCTION_INSTANCE,   // FunctionInstanceExp
+    EXP_ARRAY_OF,   // ArrayOfExp
+    EXP_ARRAY,   // ArrayExp
+    EXP_MUTABLE_LIST,   // MutableListExp
+    EXP_MUTABLE_LIST_OF,   // MutableListOfExp
+    EXP_LAMBDA,   // LambdaExp
+    EXP_RANGE   // RangeExp
+}
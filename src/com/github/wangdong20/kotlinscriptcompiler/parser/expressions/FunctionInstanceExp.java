@@ -19,6 +19,11 @@ public class FunctionInstanceExp implements Exp {
         return parameterList;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_FUNCTION_INSTANCE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof FunctionInstanceExp) {
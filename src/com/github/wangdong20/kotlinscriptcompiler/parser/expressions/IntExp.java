@@ -11,6 +11,11 @@ public class IntExp implements Exp {
         return value;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_INT;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof IntExp) {
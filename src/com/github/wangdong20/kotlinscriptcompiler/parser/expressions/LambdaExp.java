@@ -27,6 +27,11 @@ public class LambdaExp implements Exp {
         return returnExp;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_LAMBDA;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof LambdaExp) {
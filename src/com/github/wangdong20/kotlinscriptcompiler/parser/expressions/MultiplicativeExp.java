@@ -23,6 +23,11 @@ public class MultiplicativeExp extends BinaryIntExp {
         return op;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_MULTIPLICATIVE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof MultiplicativeExp) {
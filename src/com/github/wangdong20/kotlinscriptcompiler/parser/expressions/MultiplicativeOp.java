@@ -3,5 +3,9 @@ package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
 public enum MultiplicativeOp {
     OP_MULTIPLY,
     OP_DIVIDE,
-    OP_MOD
+    OP_MOD,
+    // only written by the optimizer, the language has no operators for them
+    OP_SHIFT_LEFT,
+    OP_SHIFT_RIGHT,
+    OP_AND
 }
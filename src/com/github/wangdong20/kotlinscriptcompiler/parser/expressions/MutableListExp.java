@@ -20,6 +20,11 @@ public class MutableListExp implements Exp {
         return lambdaExp;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_MUTABLE_LIST;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof MutableListExp) {
@@ -13,6 +13,11 @@ public class MutableListOfExp implements Exp {
         return expList;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_MUTABLE_LIST_OF;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof MutableListOfExp) {
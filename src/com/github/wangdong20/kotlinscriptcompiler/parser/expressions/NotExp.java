@@ -11,6 +11,11 @@ public class NotExp implements Exp {
         return value;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_NOT;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof NotExp) {
@@ -20,6 +20,11 @@ public class RangeExp implements Exp {
         return end;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_RANGE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof RangeExp) {
@@ -23,6 +23,11 @@ public class SelfOperationExp implements Exp {
         return isPreOrder;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_SELF_OPERATION;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof SelfOperationExp) {
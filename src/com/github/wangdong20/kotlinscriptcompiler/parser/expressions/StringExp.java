@@ -19,6 +19,11 @@ public class StringExp implements Exp {
         return interpolationExp;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_STRING;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof StringExp) {
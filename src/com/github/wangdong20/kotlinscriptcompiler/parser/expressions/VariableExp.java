@@ -12,6 +12,11 @@ public class VariableExp implements Exp, Variable {
         return name;
     }
 
+    @Override
+    public ExpKind getKind() {
+        return ExpKind.EXP_VARIABLE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof VariableExp) {
@@ -2,5 +2,10 @@ package com.github.wangdong20.kotlinscriptcompiler.parser.statements;
 
 public enum ControlLoopStmt implements Stmt {
     STMT_BREAK,
-    STMT_CONTINUE
+    STMT_CONTINUE;
+
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_CONTROL_LOOP;
+    }
 }
@@ -11,12 +11,20 @@ public class FunctionDeclareStmt implements Stmt {
     private final Type returnType;
     private final LinkedHashMap<Exp, Type> parameterList;
     private final BlockStmt blockStmt;
+    // declared with the inline modifier, its calls are replaced by its body whatever its size
+    private final boolean inline;
 
     public FunctionDeclareStmt(VariableExp funcName, Type returnType, LinkedHashMap<Exp, Type> parameterList, BlockStmt blockStmt) {
+        this(funcName, returnType, parameterList, blockStmt, false);
+    }
+
+    public FunctionDeclareStmt(VariableExp funcName, Type returnType, LinkedHashMap<Exp, Type> parameterList,
+                               BlockStmt blockStmt, boolean inline) {
         this.funcName = funcName;
         this.returnType = returnType;
         this.parameterList = parameterList;
         this.blockStmt = blockStmt;
+        this.inline = inline;
     }
 
     public VariableExp getFuncName() {
@@ -35,11 +43,21 @@ public class FunctionDeclareStmt implements Stmt {
         return blockStmt;
     }
 
+    public boolean isInline() {
+        return inline;
+    }
+
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_FUNCTION_DECLARE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof FunctionDeclareStmt) {
             if(((FunctionDeclareStmt)obj).getReturnType().equals(returnType)
-                && ((FunctionDeclareStmt)obj).getFuncName().equals(funcName)) {
+                && ((FunctionDeclareStmt)obj).getFuncName().equals(funcName)
+                && ((FunctionDeclareStmt)obj).isInline() == inline) {
                 if ((((FunctionDeclareStmt)obj).getParameterList() == null && parameterList == null)
                         || ((FunctionDeclareStmt)obj).getParameterList().equals(parameterList)){
                     if((((FunctionDeclareStmt)obj).getBlockStmt() == null && blockStmt == null)
@@ -59,6 +77,7 @@ public class FunctionDeclareStmt implements Stmt {
                 ", returnType=" + returnType +
                 ", parameterList=" + parameterList +
                 ", blockStmt=" + blockStmt +
+                ", inline=" + inline +
                 '}';
     }
 }
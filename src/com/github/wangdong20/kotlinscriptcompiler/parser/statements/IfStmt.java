@@ -33,6 +33,11 @@ public class IfStmt implements Stmt {
         return falseBranch;
     }
 
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_IF;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof IfStmt) {
@@ -13,6 +13,11 @@ public class PrintlnStmt implements Stmt {
         return value;
     }
 
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_PRINTLN;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof PrintlnStmt) {
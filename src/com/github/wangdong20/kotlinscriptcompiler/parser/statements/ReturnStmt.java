@@ -13,6 +13,11 @@ public class ReturnStmt implements Stmt {
         return returnExp;
     }
 
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_RETURN;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof ReturnStmt) {
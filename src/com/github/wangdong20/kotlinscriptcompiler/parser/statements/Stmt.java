@@ -1,4 +1,5 @@
 package com.github.wangdong20.kotlinscriptcompiler.parser.statements;
 
 public interface Stmt {
+    StmtKind getKind();
 }
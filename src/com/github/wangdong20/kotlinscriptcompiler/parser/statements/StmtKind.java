@@ -0,0 +1,21 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser.statements;
+
+/**
+ * The concrete class of a statement, so passes can switch on it instead of testing instanceof in turn.
+ */
+public enum StmtKind {
+    STMT_VARIABLE_DECLARE,   // VariableDeclareStmt
+    STMT_ASSIGN,   // AssignStmt
+    STMT_COMPOUND_ASSIGN,   // CompoundAssignStmt
+    STMT_PRINT,   // PrintStmt
+    STMT_PRINTLN,   // PrintlnStmt
+    STMT_IF,   // IfStmt
+    STMT_WHILE,   // WhileStmt
+    STMT_FOR,   // ForStmt
+    STMT_RETURN,   // ReturnStmt
+    STMT_BLOCK,   // BlockStmt
+    STMT_FUNCTION_DECLARE,   // FunctionDeclareStmt
+    STMT_FUNCTION_INSTANCE,   // FunctionInstanceStmt
+    STMT_SELF_OPERATION,   // SelfOperationStmt
+    STMT_CONTROL_LOOP   // ControlLoopStmt
+}
@@ -26,6 +26,11 @@ public class VariableDeclareStmt implements Stmt {
         return type;
     }
 
+    @Override
+    public StmtKind getKind() {
+        return StmtKind.STMT_VARIABLE_DECLARE;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof VariableDeclareStmt) {
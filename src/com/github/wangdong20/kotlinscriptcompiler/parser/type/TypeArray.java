@@ -15,6 +15,9 @@ public class TypeArray implements Type {
 
     @Override
     public boolean equals(Object obj) {
+        if(obj == this) {   // interned instances, see TypeInterner
+            return true;
+        }
         if(obj instanceof  TypeArray) {
             if(((TypeArray)obj).getBasicType().equals(basicType)) {
                 return true;
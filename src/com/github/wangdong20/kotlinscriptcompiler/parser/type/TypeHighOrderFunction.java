@@ -22,6 +22,9 @@ public class TypeHighOrderFunction implements Type {
 
     @Override
     public boolean equals(Object obj) {
+        if(obj == this) {   // interned instances, see TypeInterner
+            return true;
+        }
         if(obj instanceof  TypeHighOrderFunction) {
             if(((TypeHighOrderFunction)obj).getParameterList().equals(parameterList) &&
                     ((TypeHighOrderFunction)obj).getReturnType().equals(returnType)) {
@@ -0,0 +1,63 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser.type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keep exactly one instance of every composite type, so the parser, typechecker and code generator
+ * share the same objects and can compare types with == instead of allocating a new one every time
+ * a type is computed. BasicType is an enum, so it is already canonical.
+ */
+public class TypeInterner {
+    private static final Map<BasicType, TypeArray> arrayTypes = new EnumMap<>(BasicType.class);
+    private static final Map<BasicType, TypeMutableList> mutableListTypes = new EnumMap<>(BasicType.class);
+    private static final Map<TypeHighOrderFunction, TypeHighOrderFunction> functionTypes = new HashMap<>();
+
+    static {
+        for (BasicType basicType : BasicType.values()) {
+            arrayTypes.put(basicType, new TypeArray(basicType));
+            mutableListTypes.put(basicType, new TypeMutableList(basicType));
+        }
+    }
+
+    public static TypeArray arrayOf(BasicType basicType) {
+        return arrayTypes.get(basicType);
+    }
+
+    public static TypeMutableList mutableListOf(BasicType basicType) {
+        return mutableListTypes.get(basicType);
+    }
+
+    public static synchronized TypeHighOrderFunction functionOf(List<Type> parameterList, Type returnType) {
+        List<Type> parameters = new ArrayList<>(parameterList.size());
+        for (Type type : parameterList) {
+            parameters.add(intern(type));
+        }
+        TypeHighOrderFunction key = new TypeHighOrderFunction(Collections.unmodifiableList(parameters), intern(returnType));
+        TypeHighOrderFunction canonical = functionTypes.get(key);
+        if (canonical == null) {
+            functionTypes.put(key, key);
+            canonical = key;
+        }
+        return canonical;
+    }
+
+    /**
+     * Return the canonical instance of type, type may be built with new by the caller (tests do this).
+     */
+    public static Type intern(Type type) {
+        if (type instanceof TypeArray) {
+            return arrayOf(((TypeArray) type).getBasicType());
+        } else if (type instanceof TypeMutableList) {
+            return mutableListOf(((TypeMutableList) type).getBasicType());
+        } else if (type instanceof TypeHighOrderFunction) {
+            return functionOf(((TypeHighOrderFunction) type).getParameterList(), ((TypeHighOrderFunction) type).getReturnType());
+        } else {
+            return type;    // BasicType or null
+        }
+    }
+}
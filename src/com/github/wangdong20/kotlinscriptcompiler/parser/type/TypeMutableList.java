@@ -15,6 +15,9 @@ public class TypeMutableList implements Type {
 
     @Override
     public boolean equals(Object obj) {
+        if(obj == this) {   // interned instances, see TypeInterner
+            return true;
+        }
         if(obj instanceof  TypeMutableList) {
             if(((TypeMutableList)obj).getBasicType().equals(basicType)) {
                 return true;
@@ -0,0 +1,74 @@
+package com.github.wangdong20.kotlinscriptcompiler.runtime;
+
+/**
+ * Array<Any> of compiled scripts. Every element has a tag telling whether it is an Int or a Boolean, kept
+ * unboxed in primitives, or a reference, kept in references, so arrayOf(1, "two", true) allocates three
+ * arrays instead of an object per element. A new element is the null reference, like in an Object[].
+ */
+public final class AnyArray {
+    private static final byte REFERENCE = 0;
+    private static final byte INT = 1;
+    private static final byte BOOLEAN = 2;
+
+    private final byte[] tags;
+    private final int[] primitives;
+    private final Object[] references;
+
+    public AnyArray(final int length) {
+        tags = new byte[length];
+        primitives = new int[length];
+        references = new Object[length];
+    }
+
+    public int length() {
+        return tags.length;
+    }
+
+    public void setInt(final int index, final int value) {
+        tags[index] = INT;
+        primitives[index] = value;
+        references[index] = null;
+    }
+
+    public void setBoolean(final int index, final boolean value) {
+        tags[index] = BOOLEAN;
+        primitives[index] = value ? 1 : 0;
+        references[index] = null;
+    }
+
+    // A value of static type Any, which may be a boxed Int or Boolean read from another array.
+    public void set(final int index, final Object value) {
+        if(value instanceof Integer) {
+            setInt(index, (Integer) value);
+        } else if(value instanceof Boolean) {
+            setBoolean(index, (Boolean) value);
+        } else {
+            tags[index] = REFERENCE;
+            references[index] = value;
+        }
+    }
+
+    // The element as a value of static type Any, Ints and Booleans are boxed here and only here.
+    public Object get(final int index) {
+        switch (tags[index]) {
+            case INT:
+                return primitives[index];
+            case BOOLEAN:
+                return primitives[index] != 0;
+            default:
+                return references[index];
+        }
+    }
+
+    // What printing the element shows, without boxing it.
+    public String toString(final int index) {
+        switch (tags[index]) {
+            case INT:
+                return String.valueOf(primitives[index]);
+            case BOOLEAN:
+                return String.valueOf(primitives[index] != 0);
+            default:
+                return String.valueOf(references[index]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.wangdong20.kotlinscriptcompiler.runtime;
+
+import java.util.Arrays;
+
+/**
+ * MutableList<Boolean> of compiled scripts, a growable boolean[] so no element is ever boxed.
+ */
+public final class BooleanList {
+    private boolean[] elements;
+    private int size;
+
+    public BooleanList(final int capacity) {
+        elements = new boolean[capacity];
+        size = 0;
+    }
+
+    private BooleanList(final boolean[] elements) {
+        this.elements = elements;
+        size = elements.length;
+    }
+
+    // The list of an array just created for it, which it keeps without copying.
+    public static BooleanList of(final boolean[] elements) {
+        return new BooleanList(elements);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean get(final int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void set(final int index, final boolean value) {
+        checkIndex(index);
+        elements[index] = value;
+    }
+
+    public void add(final boolean value) {
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, size + (size >> 1)));
+        }
+        elements[size++] = value;
+    }
+
+    private void checkIndex(final int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if(i > 0) {
+                result.append(", ");
+            }
+            result.append(elements[i]);
+        }
+        return result.append(']').toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.wangdong20.kotlinscriptcompiler.runtime;
+
+/**
+ * Decoders of the large literal arrays of compiled scripts. Storing the elements of arrayOf(...) one by one
+ * takes several instructions each, so the code generator writes them into a string constant instead, decoded
+ * once by the class initializer into a static field every use of the literal copies.
+ */
+public final class ConstantArrays {
+    private ConstantArrays() {
+    }
+
+    // Two chars per element, the high half first.
+    public static int[] ints(final String data) {
+        final int[] result = new int[data.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = data.charAt(2 * i) << 16 | data.charAt(2 * i + 1);
+        }
+        return result;
+    }
+
+    // '1' for true and '0' for false.
+    public static boolean[] booleans(final String data) {
+        final boolean[] result = new boolean[data.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = data.charAt(i) == '1';
+        }
+        return result;
+    }
+
+    // The length of each element in one char followed by its chars. Elements are interned like the literals they were.
+    public static String[] strings(final String data, final int length) {
+        final String[] result = new String[length];
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            final int end = position + 1 + data.charAt(position);
+            result[i] = data.substring(position + 1, end).intern();
+            position = end;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.wangdong20.kotlinscriptcompiler.runtime;
+
+import java.util.Arrays;
+
+/**
+ * MutableList<Int> of compiled scripts, a growable int[] so no element is ever boxed.
+ */
+public final class IntList {
+    private int[] elements;
+    private int size;
+
+    public IntList(final int capacity) {
+        elements = new int[capacity];
+        size = 0;
+    }
+
+    private IntList(final int[] elements) {
+        this.elements = elements;
+        size = elements.length;
+    }
+
+    // The list of an array just created for it, which it keeps without copying.
+    public static IntList of(final int[] elements) {
+        return new IntList(elements);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(final int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void set(final int index, final int value) {
+        checkIndex(index);
+        elements[index] = value;
+    }
+
+    public void add(final int value) {
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, size + (size >> 1)));
+        }
+        elements[size++] = value;
+    }
+
+    private void checkIndex(final int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if(i > 0) {
+                result.append(", ");
+            }
+            result.append(elements[i]);
+        }
+        return result.append(']').toString();
+    }
+}
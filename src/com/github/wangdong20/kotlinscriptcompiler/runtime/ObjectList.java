@@ -0,0 +1,66 @@
+package com.github.wangdong20.kotlinscriptcompiler.runtime;
+
+import java.util.Arrays;
+
+/**
+ * MutableList<String> and MutableList<Any> of compiled scripts. The array may be a String[] when the
+ * list was made of one, the typechecker only lets strings into such a list.
+ */
+public final class ObjectList {
+    private Object[] elements;
+    private int size;
+
+    public ObjectList(final int capacity) {
+        elements = new Object[capacity];
+        size = 0;
+    }
+
+    private ObjectList(final Object[] elements) {
+        this.elements = elements;
+        size = elements.length;
+    }
+
+    // The list of an array just created for it, which it keeps without copying.
+    public static ObjectList of(final Object[] elements) {
+        return new ObjectList(elements);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Object get(final int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void set(final int index, final Object value) {
+        checkIndex(index);
+        elements[index] = value;
+    }
+
+    public void add(final Object value) {
+        if(size == elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(8, size + (size >> 1)));
+        }
+        elements[size++] = value;
+    }
+
+    private void checkIndex(final int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if(i > 0) {
+                result.append(", ");
+            }
+            result.append(elements[i]);
+        }
+        return result.append(']').toString();
+    }
+}
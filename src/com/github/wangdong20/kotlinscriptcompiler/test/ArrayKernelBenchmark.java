@@ -0,0 +1,170 @@
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.PassManager;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compile array heavy scripts and time the compiled programs, run with the compiled classes on the classpath:
+ * java ArrayKernelBenchmark [runs]
+ * Prints the class file size and the median time of one run of each script after warm up.
+ */
+public class ArrayKernelBenchmark {
+    public static final String METHOD_NAME = "compiledProgram";
+    private static final int WARM_UP = 5;
+
+    private static final String SUM =
+            "fun sumKernel(n: Int): Int {\n" +
+            "    var arr = Array(n, {i -> i})\n" +
+            "    var total = 0\n" +
+            "    for(r in 0..200) {\n" +
+            "        for(i in 0..n) {\n" +
+            "            total += arr[i]\n" +
+            "        }\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "var total = sumKernel(100000)\n" +
+            "println(total)";
+
+    private static final String SIEVE =
+            "fun sieve(n: Int): Int {\n" +
+            "    var primes = Array(n + 1, {i -> true})\n" +
+            "    for(k in 2..n + 1) {\n" +
+            "        if(primes[k]) {\n" +
+            "            for(i in 2..n / k + 1) {\n" +
+            "                primes[k * i] = false\n" +
+            "            }\n" +
+            "        }\n" +
+            "    }\n" +
+            "    var count = 0\n" +
+            "    for(i in 2..n + 1) {\n" +
+            "        if(primes[i]) {\n" +
+            "            count++\n" +
+            "        }\n" +
+            "    }\n" +
+            "    return count\n" +
+            "}\n" +
+            "var count = sieve(1000000)\n" +
+            "println(count)";
+
+    private static final String BUBBLE_SORT =
+            "fun bubbleSort(arr : Array<Int>, length: Int): Unit {\n" +
+            "    for (i in 0..length - 1) {\n" +
+            "        for (j in 0..length - i - 1) {\n" +
+            "            if (arr[j] > arr[j + 1]) {\n" +
+            "                var temp = arr[j];\n" +
+            "                arr[j] = arr[j + 1];\n" +
+            "                arr[j + 1] = temp;\n" +
+            "            }\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n" +
+            "var a = Array(3000, {i -> 3000 - i})\n" +
+            "bubbleSort(a, 3000)\n" +
+            "println(a[0])";
+
+    private static final String STENCIL =
+            "fun stencil(n: Int): Int {\n" +
+            "    var a = Array(n, {i -> i % 7})\n" +
+            "    var total = 0\n" +
+            "    for(r in 0..100) {\n" +
+            "        for(i in 1..n - 1) {\n" +
+            "            total += a[i - 1] * a[i - 1] + a[i + 1] * a[i + 1] - a[i - 1] * a[i + 1]\n" +
+            "        }\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "var total = stencil(100000)\n" +
+            "println(total)";
+
+    private static final String CALLS =
+            "fun clamp(v: Int, hi: Int): Int {\n" +
+            "    if(v > hi) {\n" +
+            "        return hi\n" +
+            "    } else {\n" +
+            "        return v\n" +
+            "    }\n" +
+            "}\n" +
+            "fun square(x: Int): Int {\n" +
+            "    return x * x\n" +
+            "}\n" +
+            "fun calls(n: Int): Int {\n" +
+            "    var a = Array(n, {i -> i % 100})\n" +
+            "    var total = 0\n" +
+            "    for(r in 0..50) {\n" +
+            "        for(i in 0..n) {\n" +
+            "            var v = a[i]\n" +
+            "            var c = clamp(v, 50)\n" +
+            "            total += square(c)\n" +
+            "        }\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "var total = calls(100000)\n" +
+            "println(total)";
+
+    public static Program compile(final String source) throws Exception {
+        List<Token> tokenList = new Tokenizer(source).tokenize();
+        Program program = new Parser(tokenList.toArray(new Token[0])).parseToplevelProgram();
+        Typechecker.typecheckProgram(program);
+        return PassManager.standard().run(program);
+    } // compile
+
+    // Return the median nanoseconds of one run of the compiled program.
+    public static long time(final String className, final int runs) throws Exception {
+        long[] times = new long[runs];
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { new File(".").toURI().toURL() })) {
+            Method entry = loader.loadClass(className).getMethod(METHOD_NAME);
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            try {
+                for (int i = 0; i < WARM_UP; i++) {
+                    entry.invoke(null);
+                }
+                for (int i = 0; i < runs; i++) {
+                    long start = System.nanoTime();
+                    entry.invoke(null);
+                    times[i] = System.nanoTime() - start;
+                }
+            } finally {
+                System.setOut(out);
+            }
+        }
+        Arrays.sort(times);
+        return times[runs / 2];
+    } // time
+
+    public static void bench(final String name, final String source, final int runs) throws Exception {
+        String className = "Bench" + name;
+        new CodeGenerator(className, METHOD_NAME).writeProgram(compile(source));
+        File classFile = new File(className + ".class");
+        long nanos = time(className, runs);
+        System.out.printf("%-12s %6d bytes %10.3f ms%n", name, classFile.length(), nanos / 1e6);
+        classFile.delete();
+    } // bench
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        bench("Sum", SUM, runs);
+        bench("Sieve", SIEVE, runs);
+        bench("BubbleSort", BUBBLE_SORT, runs);
+        bench("Stencil", STENCIL, runs);
+        bench("Calls", CALLS, runs);
+    }
+}
@@ -1,21 +1,33 @@
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGeneratorException;
+import com.github.wangdong20.kotlinscriptcompiler.codegen.Descriptor;
+import com.github.wangdong20.kotlinscriptcompiler.codegen.FunctionInterface;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
 import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CodeGeneratorTest {
     // ---BEGIN STATICS---
@@ -44,10 +56,32 @@ public class CodeGeneratorTest {
         }
     } // readUntilClose
 
+    // Remove the runtime classes writeProgram wrote next to the compiled programs, and their directories once empty.
+    @AfterEach
+    public void removeRuntimeClasses() {
+        File directory = new File(Descriptor.ANY_ARRAY_CLASS_NAME).getParentFile();
+        final File[] files = directory.listFiles();
+        if(files != null) {
+            for (final File file : files) {
+                if(file.getName().endsWith(".class")) {
+                    file.delete();
+                }
+            }
+        }
+        while (directory != null && directory.delete()) {
+            directory = directory.getParentFile();
+        }
+    } // removeRuntimeClasses
+
     public String[] runTest(final Program program, String testName)
             throws CodeGeneratorException, IOException {
+        return runTest(program, testName, CodeGenerator.Target.JAVA_8);
+    } // runTest
+
+    public String[] runTest(final Program program, String testName, final CodeGenerator.Target target)
+            throws CodeGeneratorException, IOException {
         currentClassName = CLASS_NAME_PREFIX + testName;
-        final CodeGenerator generator = new CodeGenerator(currentClassName, METHOD_NAME);
+        final CodeGenerator generator = new CodeGenerator(currentClassName, METHOD_NAME, target);
         generator.writeProgram(program);
         final ProcessBuilder builder = new ProcessBuilder("java", currentClassName);
         builder.redirectErrorStream(true);
@@ -63,10 +97,16 @@ public class CodeGeneratorTest {
     public void assertOutput(String testName, final Program program,
                              final String... expectedOutput)
             throws CodeGeneratorException, IOException {
+        assertOutput(testName, CodeGenerator.Target.JAVA_8, program, expectedOutput);
+    } // assertOutput
+
+    public void assertOutput(String testName, final CodeGenerator.Target target, final Program program,
+                             final String... expectedOutput)
+            throws CodeGeneratorException, IOException {
         assertArrayEquals(expectedOutput,
-                runTest(program, testName));
+                runTest(program, testName, target));
         new File(currentClassName + ".class").delete();
-    } // runTest
+    } // assertOutput
 
     public void assertOutputExpectedException (String testName, final Program program,
                                                final String... expectedOutput) {
@@ -352,6 +392,79 @@ public class CodeGeneratorTest {
         );
     }
 
+    @Test
+    // var k = 3
+    // var a = Array(5000, {i -> k})
+    // var b = Array(3, {i -> "s"})
+    // var c = Array(2, {i -> false})
+    // var total = 0
+    // for(x in a) {
+    //      total += x
+    // }
+    // println(total)
+    // println(b[2])
+    // println(c[1])
+    public void testConstantArrayInitializersFillInBulk(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        LinkedHashMap<VariableExp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("i"), null);
+        List<Stmt> stmtsInFor = new ArrayList<>();
+        stmtsInFor.add(new CompoundAssignStmt(new VariableExp("x"), new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL));
+        String[] output = runTest(makeProgram(
+                new AssignStmt(new IntExp(3), new VariableExp("k"), false, true),
+                new AssignStmt(new ArrayExp(new IntExp(5000), new LambdaExp(parameters, new VariableExp("k"))),
+                        new VariableExp("a"), false, true),
+                new AssignStmt(new ArrayExp(new IntExp(3), new LambdaExp(parameters, new StringExp("s", null))),
+                        new VariableExp("b"), false, true),
+                new AssignStmt(new ArrayExp(new IntExp(2), new LambdaExp(parameters, new BooleanExp(false))),
+                        new VariableExp("c"), false, true),
+                new AssignStmt(new IntExp(0), new VariableExp("total"), false, true),
+                new ForStmt(new VariableExp("x"), new VariableExp("a"), new BlockStmt(stmtsInFor)),
+                new PrintlnStmt(new VariableExp("total")),
+                new PrintlnStmt(new ArrayWithIndexExp(new VariableExp("b"), new IntExp(2))),
+                new PrintlnStmt(new ArrayWithIndexExp(new VariableExp("c"), new IntExp(1)))
+        ), testInfo.getDisplayName());
+        // a doubling copy for the large array, Arrays.fill for the small one and nothing for the falses
+        List<String> called = methodsCalledByCompiledProgram();
+        new File(currentClassName + ".class").delete();
+        assertTrue(called.contains("java/lang/System.arraycopy"));
+        assertEquals(1, called.stream().filter("java/util/Arrays.fill"::equals).count());
+        assertArrayEquals(new String[] { "15000", "s", "false" }, output);
+    }
+
+    @Test
+    // var a = arrayOf(0, -1, 2, -3, ..., -99)
+    // var b = arrayOf(0, -1, 2, -3, ..., -99)
+    // a[0] = 7
+    // var total = 0
+    // for(x in b) {
+    //      total += x
+    // }
+    // println(a[0])
+    // println(total)
+    public void testLargeLiteralArraysDecodedOnce(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> exps = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            exps.add(new IntExp(i % 2 == 0 ? i : -i));
+        }
+        List<Stmt> stmtsInFor = new ArrayList<>();
+        stmtsInFor.add(new CompoundAssignStmt(new VariableExp("x"), new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL));
+        String[] output = runTest(makeProgram(
+                new AssignStmt(new ArrayOfExp(exps), new VariableExp("a"), false, true),
+                new AssignStmt(new ArrayOfExp(exps), new VariableExp("b"), false, true),
+                new AssignStmt(new IntExp(7), new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0)), false, false),
+                new AssignStmt(new IntExp(0), new VariableExp("total"), false, true),
+                new ForStmt(new VariableExp("x"), new VariableExp("b"), new BlockStmt(stmtsInFor)),
+                new PrintlnStmt(new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0))),
+                new PrintlnStmt(new VariableExp("total"))
+        ), testInfo.getDisplayName());
+        // both uses copy the array <clinit> decoded, so changing a leaves b alone
+        List<String> called = methodsCalledByCompiledProgram();
+        new File(currentClassName + ".class").delete();
+        assertTrue(new File(Descriptor.CONSTANT_ARRAYS_CLASS_NAME + ".class").exists());
+        assertEquals(2, called.stream().filter("[I.clone"::equals).count());
+        assertArrayEquals(new String[] { "7", "-50" }, output);
+    }
+
     @Test
     // var i = 10
     // var b = true
@@ -439,6 +552,129 @@ public class CodeGeneratorTest {
         ), "a is 200, b is 10, c is 3, a + b * c is 230");
     }
 
+    // Run visitor over the compiled program method in the class file left by runTest.
+    private void visitCompiledProgram(final MethodVisitor visitor) throws IOException {
+        new ClassReader(Files.readAllBytes(Paths.get(currentClassName + ".class"))).accept(new ClassVisitor(Opcodes.ASM8) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return name.equals(METHOD_NAME) ? visitor : null;
+            }
+        }, 0);
+    } // visitCompiledProgram
+
+    // max_locals of the compiled program method in the class file left by runTest
+    private int maxLocalsOfCompiledProgram() throws IOException {
+        final int[] maxLocals = new int[1];
+        visitCompiledProgram(new MethodVisitor(Opcodes.ASM8) {
+            @Override
+            public void visitMaxs(int maxStack, int locals) {
+                maxLocals[0] = locals;
+            }
+        });
+        return maxLocals[0];
+    } // maxLocalsOfCompiledProgram
+
+    // owner.name of every method called by the compiled program method in the class file left by runTest
+    private List<String> methodsCalledByCompiledProgram() throws IOException {
+        final List<String> called = new ArrayList<>();
+        visitCompiledProgram(new MethodVisitor(Opcodes.ASM8) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                called.add(owner + "." + name);
+            }
+        });
+        return called;
+    } // methodsCalledByCompiledProgram
+
+    @Test
+    // for(i in 0..2) {
+    //     var s = "a" + i
+    //     print(s)
+    // }
+    // for(j in 0..2) {
+    //     var k = j * 2
+    //     print(k)
+    // }
+    // var total = 7
+    // print(total)
+    public void testSlotsReusedAfterScopes(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Stmt> firstLoop = new ArrayList<>();
+        firstLoop.add(new AssignStmt(new AdditiveExp(new StringExp("a", null), new VariableExp("i"), AdditiveOp.EXP_PLUS),
+                new VariableExp("s"), false, true));
+        firstLoop.add(new PrintStmt(new VariableExp("s")));
+        List<Stmt> secondLoop = new ArrayList<>();
+        secondLoop.add(new AssignStmt(new MultiplicativeExp(new VariableExp("j"), new IntExp(2), MultiplicativeOp.OP_MULTIPLY),
+                new VariableExp("k"), false, true));
+        secondLoop.add(new PrintStmt(new VariableExp("k")));
+        String[] output = runTest(makeProgram(
+                new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new IntExp(2)), new BlockStmt(firstLoop)),
+                new ForStmt(new VariableExp("j"), new RangeExp(new IntExp(0), new IntExp(2)), new BlockStmt(secondLoop)),
+                new AssignStmt(new IntExp(7), new VariableExp("total"), false, true),
+                new PrintStmt(new VariableExp("total"))
+        ), testInfo.getDisplayName());
+        // the second loop takes the int and String slots of the first one, total the first slot again
+        assertEquals(2, maxLocalsOfCompiledProgram());
+        new File(currentClassName + ".class").delete();
+        assertArrayEquals(new String[] { "a0a1027" }, output);
+    }
+
+    @Test
+    // var n = 1
+    // if(n > 0) {
+    //     var x = n
+    //     print(x)
+    // }
+    // var x = "s"
+    // print(x)
+    public void testNameFreeAfterScope(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Stmt> trueBranch = new ArrayList<>();
+        trueBranch.add(new AssignStmt(new VariableExp("n"), new VariableExp("x"), false, true));
+        trueBranch.add(new PrintStmt(new VariableExp("x")));
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new IntExp(1), new VariableExp("n"), false, true),
+                new IfStmt(new ComparableExp(new VariableExp("n"), new IntExp(0), ComparableOp.OP_GREATER_THAN),
+                        new BlockStmt(trueBranch), null),
+                new AssignStmt(new StringExp("s", null), new VariableExp("x"), false, true),
+                new PrintStmt(new VariableExp("x"))
+        ), "1s");
+    }
+
+    @Test
+    // var i = 10
+    // var b = true
+    // var s = "++i is ${++i}, " + i + b + 7 + "\u0001"
+    // print(s)
+    public void testStringConcatFactory(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        LinkedHashMap<Integer, Exp> interpolation = new LinkedHashMap<>();
+        interpolation.put(7, new SelfOperationExp(new VariableExp("i"), SelfOp.OP_SELF_INCREASE, true));
+        Exp concat = new AdditiveExp(new AdditiveExp(new AdditiveExp(new AdditiveExp(
+                new StringExp("++i is , ", interpolation), new VariableExp("i"), AdditiveOp.EXP_PLUS),
+                new VariableExp("b"), AdditiveOp.EXP_PLUS), new IntExp(7), AdditiveOp.EXP_PLUS),
+                new StringExp("\u0001", null), AdditiveOp.EXP_PLUS);
+        assertOutput(testInfo.getDisplayName(), CodeGenerator.Target.JAVA_11, makeProgram(
+                new AssignStmt(new IntExp(10), new VariableExp("i"), false, true),
+                new AssignStmt(new BooleanExp(true), new VariableExp("b"), false, true),
+                new AssignStmt(concat, new VariableExp("s"), false, true),
+                new PrintStmt(new VariableExp("s"))
+        ), "++i is 11, 11true7\u0001");
+    }
+
+    @Test
+    // var i = 1
+    // print("" + i + i + ... + i), more arguments than one invokedynamic takes
+    public void testLongStringConcatFactory(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        Exp concat = new StringExp("", null);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 450; i++) {
+            concat = new AdditiveExp(concat, new VariableExp("i"), AdditiveOp.EXP_PLUS);
+            expected.append(1);
+        }
+        assertOutput(testInfo.getDisplayName(), CodeGenerator.Target.JAVA_11, makeProgram(
+                new AssignStmt(new IntExp(1), new VariableExp("i"), false, true),
+                new PrintStmt(concat)
+        ), expected.toString());
+    }
+
     @Test
     // fun bubbleSort(arr : Array<Int>, length: Int): Unit {
     //  for (i in 0..length - 1)
@@ -602,4 +838,355 @@ public class CodeGeneratorTest {
         ), "-2");
     }
 
+    @Test
+    // var size = 5
+    // var a = Array(size, {i -> 2 * i})
+    // for(i in 0..size) {
+    //      print(a[i])
+    // }
+    // for(i in 0..5 step 2) {
+    //      print(a[i])
+    // }
+    public void testRangeLoopOverArrayLength(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        LinkedHashMap<VariableExp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("i"), null);
+        List<Stmt> stmtsInFor = new ArrayList<>();
+        stmtsInFor.add(new PrintStmt(new ArrayWithIndexExp(new VariableExp("a"), new VariableExp("i"))));
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new IntExp(5), new VariableExp("size"), false, true),
+                new AssignStmt(new ArrayExp(new VariableExp("size"), new LambdaExp(parameters, new MultiplicativeExp(new IntExp(2), new VariableExp("i"), MultiplicativeOp.OP_MULTIPLY))),
+                        new VariableExp("a"), false, true),
+                new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new VariableExp("size")), new BlockStmt(stmtsInFor)),
+                new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new IntExp(5)), new IntExp(2), new BlockStmt(stmtsInFor))),
+                "02468048"
+        );
+    }
+
+    @Test
+    // var x = 1
+    // x = x + 4
+    // print(x)
+    public void testReassign(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new IntExp(1), new VariableExp("x"), false, true),
+                new AssignStmt(new AdditiveExp(new VariableExp("x"), new IntExp(4), AdditiveOp.EXP_PLUS), new VariableExp("x"), false, false),
+                new PrintStmt(new VariableExp("x"))
+        ), "5");
+    }
+
+    @Test
+    // fun count(n: Int, total: Int): Int {
+    //      if(n < 1) {
+    //          return total
+    //      } else {
+    //          var m = n - 1
+    //          var next = total + 2
+    //          return count(m, next)
+    //      }
+    // }
+    // print(count(1000000, 0))
+    public void testTailRecursionRunsInOneFrame(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> recursivePara = new ArrayList<>();
+        recursivePara.add(new VariableExp("m"));
+        recursivePara.add(new VariableExp("next"));
+        List<Stmt> stmtsInElse = new ArrayList<>();
+        stmtsInElse.add(new AssignStmt(new AdditiveExp(new VariableExp("n"), new IntExp(1), AdditiveOp.EXP_MINUS),
+                new VariableExp("m"), false, true));
+        stmtsInElse.add(new AssignStmt(new AdditiveExp(new VariableExp("total"), new IntExp(2), AdditiveOp.EXP_PLUS),
+                new VariableExp("next"), false, true));
+        stmtsInElse.add(new ReturnStmt(new FunctionInstanceExp(new VariableExp("count"), recursivePara)));
+        List<Stmt> stmtsInIf = new ArrayList<>();
+        stmtsInIf.add(new ReturnStmt(new VariableExp("total")));
+        List<Stmt> stmtsInFun = new ArrayList<>();
+        stmtsInFun.add(new IfStmt(new ComparableExp(new VariableExp("n"), new IntExp(1), ComparableOp.OP_LESS_THAN),
+                new BlockStmt(stmtsInIf), new BlockStmt(stmtsInElse)));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("n"), BasicType.TYPE_INT);
+        parameters.put(new VariableExp("total"), BasicType.TYPE_INT);
+        FunctionDeclareStmt functionDeclareStmt = new FunctionDeclareStmt(new VariableExp("count"),
+                BasicType.TYPE_INT, parameters, new BlockStmt(stmtsInFun));
+        List<Exp> funPara = new ArrayList<>();
+        funPara.add(new IntExp(1000000));
+        funPara.add(new IntExp(0));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                functionDeclareStmt,
+                new PrintStmt(new FunctionInstanceExp(new VariableExp("count"), funPara))
+        ), "2000000");
+    }
+
+    @Test
+    // fun countDown(n: Int) {
+    //      if(n > 0) {
+    //          print(n)
+    //          var m = n - 1
+    //          countDown(m)
+    //      }
+    // }
+    // countDown(3)
+    public void testTailRecursionInUnitFunction(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> recursivePara = new ArrayList<>();
+        recursivePara.add(new VariableExp("m"));
+        List<Stmt> stmtsInIf = new ArrayList<>();
+        stmtsInIf.add(new PrintStmt(new VariableExp("n")));
+        stmtsInIf.add(new AssignStmt(new AdditiveExp(new VariableExp("n"), new IntExp(1), AdditiveOp.EXP_MINUS),
+                new VariableExp("m"), false, true));
+        stmtsInIf.add(new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp("countDown"), recursivePara)));
+        List<Stmt> stmtsInFun = new ArrayList<>();
+        stmtsInFun.add(new IfStmt(new ComparableExp(new VariableExp("n"), new IntExp(0), ComparableOp.OP_GREATER_THAN),
+                new BlockStmt(stmtsInIf)));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("n"), BasicType.TYPE_INT);
+        FunctionDeclareStmt functionDeclareStmt = new FunctionDeclareStmt(new VariableExp("countDown"),
+                BasicType.TYPE_UNIT, parameters, new BlockStmt(stmtsInFun));
+        List<Exp> funPara = new ArrayList<>();
+        funPara.add(new IntExp(3));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                functionDeclareStmt,
+                new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp("countDown"), funPara))
+        ), "321");
+    }
+
+    @Test
+    // var a = arrayOf(1, 2, 3)
+    // var i = 5
+    // while(!(i < 0) && (i >= 3 || a[i] > 1)) {
+    //      print(i)
+    //      i--
+    // }
+    public void testShortCircuitCondition(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> exps = new ArrayList<>();
+        exps.add(new IntExp(1));
+        exps.add(new IntExp(2));
+        exps.add(new IntExp(3));
+        List<Stmt> stmtsInWhile = new ArrayList<>();
+        stmtsInWhile.add(new PrintStmt(new VariableExp("i")));
+        stmtsInWhile.add(new SelfOperationStmt(new SelfOperationExp(new VariableExp("i"), SelfOp.OP_SELF_DECREASE, false)));
+        // a[i] is only read once i < 3, a[5] and a[4] would be out of bounds
+        Exp condition = new BiLogicalExp(
+                new NotExp(new ComparableExp(new VariableExp("i"), new IntExp(0), ComparableOp.OP_LESS_THAN)),
+                new BiLogicalExp(new ComparableExp(new VariableExp("i"), new IntExp(3), ComparableOp.OP_GREATER_EQUAL),
+                        new ComparableExp(new ArrayWithIndexExp(new VariableExp("a"), new VariableExp("i")), new IntExp(1),
+                                ComparableOp.OP_GREATER_THAN), BiLogicalOp.OP_OR), BiLogicalOp.OP_AND);
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new ArrayOfExp(exps), new VariableExp("a"), false, true),
+                new AssignStmt(new IntExp(5), new VariableExp("i"), false, true),
+                new WhileStmt(condition, new BlockStmt(stmtsInWhile))
+        ), "54321");
+    }
+
+    @Test
+    // val step = 2
+    // var total = 0
+    // var a = arrayOf(1, 2, 3)
+    // fun add(n: Int) {
+    //      total += n * step
+    //      a[0] = total
+    //      total++
+    // }
+    // add(3)
+    // add(4)
+    // print(total)
+    // print(a[0])
+    public void testToplevelVariablesSharedWithFunctions(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> exps = new ArrayList<>();
+        exps.add(new IntExp(1));
+        exps.add(new IntExp(2));
+        exps.add(new IntExp(3));
+        List<Stmt> stmtsInFun = new ArrayList<>();
+        stmtsInFun.add(new CompoundAssignStmt(new MultiplicativeExp(new VariableExp("n"), new VariableExp("step"),
+                MultiplicativeOp.OP_MULTIPLY), new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL));
+        stmtsInFun.add(new AssignStmt(new VariableExp("total"), new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0)),
+                false, false));
+        stmtsInFun.add(new SelfOperationStmt(new SelfOperationExp(new VariableExp("total"), SelfOp.OP_SELF_INCREASE, false)));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("n"), BasicType.TYPE_INT);
+        FunctionDeclareStmt functionDeclareStmt = new FunctionDeclareStmt(new VariableExp("add"),
+                BasicType.TYPE_UNIT, parameters, new BlockStmt(stmtsInFun));
+        List<Exp> firstPara = new ArrayList<>();
+        firstPara.add(new IntExp(3));
+        List<Exp> secondPara = new ArrayList<>();
+        secondPara.add(new IntExp(4));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new IntExp(2), new VariableExp("step"), true, true),
+                new AssignStmt(new IntExp(0), new VariableExp("total"), false, true),
+                new AssignStmt(new ArrayOfExp(exps), new VariableExp("a"), false, true),
+                functionDeclareStmt,
+                new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp("add"), firstPara)),
+                new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp("add"), secondPara)),
+                new PrintStmt(new VariableExp("total")),
+                new PrintStmt(new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0)))
+        ), "1615");
+    }
+
+    @Test
+    // var l = mutableListOf(3, 4, 5)
+    // var f = MutableList(3, {i -> i * 2})
+    // var s = mutableListOf("a", "b")
+    // var total = 0
+    // for(x in l) {
+    //      total += x
+    // }
+    // for(x in f) {
+    //      total += x
+    // }
+    // for(w in s) {
+    //      print(w)
+    // }
+    // println(total)
+    public void testMutableListsOfRuntime(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> expsInL = new ArrayList<>();
+        expsInL.add(new IntExp(3));
+        expsInL.add(new IntExp(4));
+        expsInL.add(new IntExp(5));
+        List<Exp> expsInS = new ArrayList<>();
+        expsInS.add(new StringExp("a", null));
+        expsInS.add(new StringExp("b", null));
+        LinkedHashMap<VariableExp, Type> parameterList = new LinkedHashMap<>();
+        parameterList.put(new VariableExp("i"), null);
+        List<Stmt> stmtsInFirstFor = new ArrayList<>();
+        stmtsInFirstFor.add(new CompoundAssignStmt(new VariableExp("x"), new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL));
+        List<Stmt> stmtsInSecondFor = new ArrayList<>();
+        stmtsInSecondFor.add(new CompoundAssignStmt(new VariableExp("x"), new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL));
+        List<Stmt> stmtsInThirdFor = new ArrayList<>();
+        stmtsInThirdFor.add(new PrintStmt(new VariableExp("w")));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new MutableListOfExp(expsInL), new VariableExp("l"), false, true),
+                new AssignStmt(new MutableListExp(new IntExp(3), new LambdaExp(parameterList,
+                        new MultiplicativeExp(new VariableExp("i"), new IntExp(2), MultiplicativeOp.OP_MULTIPLY))),
+                        new VariableExp("f"), false, true),
+                new AssignStmt(new MutableListOfExp(expsInS), new VariableExp("s"), false, true),
+                new AssignStmt(new IntExp(0), new VariableExp("total"), false, true),
+                new ForStmt(new VariableExp("x"), new VariableExp("l"), new BlockStmt(stmtsInFirstFor)),
+                new ForStmt(new VariableExp("x"), new VariableExp("f"), new BlockStmt(stmtsInSecondFor)),
+                new ForStmt(new VariableExp("w"), new VariableExp("s"), new BlockStmt(stmtsInThirdFor)),
+                new PrintlnStmt(new VariableExp("total"))
+        ), "ab18");
+        // writeProgram copied the lists next to the class
+        for (BasicType basicType : new BasicType[] { BasicType.TYPE_INT, BasicType.TYPE_STRING }) {
+            assertTrue(new File(Descriptor.listClassName(basicType) + ".class").exists());
+        }
+    }
+
+    @Test
+    // var a = arrayOf(1, "two", true)
+    // a[0] = false
+    // a[2] = 7
+    // for(x in a) {
+    //      print(x)
+    // }
+    // println(a[1])
+    // var b = Array(2, {i -> a[i]})
+    // print(b[0])
+    // print(" ${b[1]}")
+    public void testAnyArrayKeepsPrimitivesUnboxed(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        List<Exp> exps = new ArrayList<>();
+        exps.add(new IntExp(1));
+        exps.add(new StringExp("two", null));
+        exps.add(new BooleanExp(true));
+        List<Stmt> stmtsInFor = new ArrayList<>();
+        stmtsInFor.add(new PrintStmt(new VariableExp("x")));
+        LinkedHashMap<VariableExp, Type> parameterList = new LinkedHashMap<>();
+        parameterList.put(new VariableExp("i"), null);
+        LinkedHashMap<Integer, Exp> interpolation = new LinkedHashMap<>();
+        interpolation.put(1, new ArrayWithIndexExp(new VariableExp("b"), new IntExp(1)));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new ArrayOfExp(exps), new VariableExp("a"), false, true),
+                new AssignStmt(new BooleanExp(false), new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0)), false, false),
+                new AssignStmt(new IntExp(7), new ArrayWithIndexExp(new VariableExp("a"), new IntExp(2)), false, false),
+                new ForStmt(new VariableExp("x"), new VariableExp("a"), new BlockStmt(stmtsInFor)),
+                new PrintlnStmt(new ArrayWithIndexExp(new VariableExp("a"), new IntExp(1))),
+                new AssignStmt(new ArrayExp(new IntExp(2), new LambdaExp(parameterList,
+                        new ArrayWithIndexExp(new VariableExp("a"), new VariableExp("i")))), new VariableExp("b"), false, true),
+                new PrintStmt(new ArrayWithIndexExp(new VariableExp("b"), new IntExp(0))),
+                new PrintStmt(new StringExp(" ", interpolation))
+        ), "falsetwo7two", "false two");
+        assertTrue(new File(Descriptor.ANY_ARRAY_CLASS_NAME + ".class").exists());
+    }
+
+
+    @Test
+    // val inc = {x: Int -> x + 1}
+    // fun twice(f: (Int) -> Int, n: Int): Int {
+    //      return f(f(n))
+    // }
+    // val greet = {s: String -> "hi " + s}
+    // println(twice(inc, 3))
+    // print(greet("bob"))
+    public void testLambdasCompileToFunctionalInterfaces(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        LinkedHashMap<VariableExp, Type> incParameters = new LinkedHashMap<>();
+        incParameters.put(new VariableExp("x"), BasicType.TYPE_INT);
+        LinkedHashMap<VariableExp, Type> greetParameters = new LinkedHashMap<>();
+        greetParameters.put(new VariableExp("s"), BasicType.TYPE_STRING);
+        List<Type> intToInt = new ArrayList<>();
+        intToInt.add(BasicType.TYPE_INT);
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("f"), new TypeHighOrderFunction(intToInt, BasicType.TYPE_INT));
+        parameters.put(new VariableExp("n"), BasicType.TYPE_INT);
+        List<Exp> innerPara = new ArrayList<>();
+        innerPara.add(new VariableExp("n"));
+        List<Exp> outerPara = new ArrayList<>();
+        outerPara.add(new FunctionInstanceExp(new VariableExp("f"), innerPara));
+        List<Stmt> stmtsInFun = new ArrayList<>();
+        stmtsInFun.add(new ReturnStmt(new FunctionInstanceExp(new VariableExp("f"), outerPara)));
+        List<Exp> twicePara = new ArrayList<>();
+        twicePara.add(new VariableExp("inc"));
+        twicePara.add(new IntExp(3));
+        List<Exp> greetPara = new ArrayList<>();
+        greetPara.add(new StringExp("bob", null));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new LambdaExp(incParameters, new AdditiveExp(new VariableExp("x"), new IntExp(1),
+                        AdditiveOp.EXP_PLUS)), new VariableExp("inc"), true, true),
+                new FunctionDeclareStmt(new VariableExp("twice"), BasicType.TYPE_INT, parameters, new BlockStmt(stmtsInFun)),
+                new AssignStmt(new LambdaExp(greetParameters, new AdditiveExp(new StringExp("hi ", null),
+                        new VariableExp("s"), AdditiveOp.EXP_PLUS)), new VariableExp("greet"), true, true),
+                new PrintlnStmt(new FunctionInstanceExp(new VariableExp("twice"), twicePara)),
+                new PrintStmt(new FunctionInstanceExp(new VariableExp("greet"), greetPara))
+        ), "5", "hi bob");
+    }
+
+    @Test
+    // val sum = {a: Int, b: Int, c: Int -> a + b + c}
+    // fun apply3(f: (Int, Int, Int) -> Int, x: Int): Int {
+    //      return f(x, x, x)
+    // }
+    // println(sum(1, 2, 3))
+    // print(apply3(sum, 5))
+    public void testLambdasOfThreeParametersUseGeneratedInterfaces(TestInfo testInfo) throws CodeGeneratorException, IOException {
+        LinkedHashMap<VariableExp, Type> sumParameters = new LinkedHashMap<>();
+        List<Type> threeInts = new ArrayList<>();
+        List<Exp> sumPara = new ArrayList<>();
+        List<Exp> innerPara = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c"}) {
+            sumParameters.put(new VariableExp(name), BasicType.TYPE_INT);
+            threeInts.add(BasicType.TYPE_INT);
+            sumPara.add(new IntExp(sumPara.size() + 1));
+            innerPara.add(new VariableExp("x"));
+        }
+        TypeHighOrderFunction type = new TypeHighOrderFunction(threeInts, BasicType.TYPE_INT);
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("f"), type);
+        parameters.put(new VariableExp("x"), BasicType.TYPE_INT);
+        List<Stmt> stmtsInFun = new ArrayList<>();
+        stmtsInFun.add(new ReturnStmt(new FunctionInstanceExp(new VariableExp("f"), innerPara)));
+        List<Exp> applyPara = new ArrayList<>();
+        applyPara.add(new VariableExp("sum"));
+        applyPara.add(new IntExp(5));
+
+        assertOutput(testInfo.getDisplayName(), makeProgram(
+                new AssignStmt(new LambdaExp(sumParameters, new AdditiveExp(new AdditiveExp(new VariableExp("a"),
+                        new VariableExp("b"), AdditiveOp.EXP_PLUS), new VariableExp("c"), AdditiveOp.EXP_PLUS)),
+                        new VariableExp("sum"), true, true),
+                new FunctionDeclareStmt(new VariableExp("apply3"), BasicType.TYPE_INT, parameters, new BlockStmt(stmtsInFun)),
+                new PrintlnStmt(new FunctionInstanceExp(new VariableExp("sum"), sumPara)),
+                new PrintStmt(new FunctionInstanceExp(new VariableExp("apply3"), applyPara))
+        ), "6", "15");
+        assertTrue(new File(FunctionInterface.of(type).owner + ".class").exists());
+    }
+
 }
@@ -0,0 +1,96 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.CommonSubexpressionEliminator;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommonSubexpressionEliminatorTest {
+
+    @Test
+    // if (arr[j] > arr[j + 1]) {
+    //      var temp = arr[j]
+    //      arr[j] = arr[j + 1]
+    //      arr[j + 1] = temp
+    // }
+    public void conditionReadsAreReusedInTheBranch() throws Exception {
+        Program program = CommonSubexpressionEliminator.eliminate(OptimizerTests.parse(
+                "var arr = arrayOf(2, 1)\n" +
+                "var j = 0\n" +
+                "if (arr[j] > arr[j + 1]) {\n" +
+                "    var temp = arr[j]\n" +
+                "    arr[j] = arr[j + 1]\n" +
+                "    arr[j + 1] = temp\n" +
+                "}\n" +
+                "println(arr[0])"));
+        List<Stmt> stmts = program.getStmtList();
+        VariableExp temp0 = OptimizerTests.temp(CommonSubexpressionEliminator.TEMP_PREFIX, 0);
+        VariableExp temp1 = OptimizerTests.temp(CommonSubexpressionEliminator.TEMP_PREFIX, 1);
+        assertEquals(new AssignStmt(OptimizerTests.expression("arr[j]"), temp0, true, true), stmts.get(2));
+        assertEquals(new AssignStmt(OptimizerTests.expression("arr[j + 1]"), temp1, true, true), stmts.get(3));
+        IfStmt asIf = (IfStmt) stmts.get(4);
+        assertEquals(new ComparableExp(temp0, temp1, ComparableOp.OP_GREATER_THAN), asIf.getCondition());
+        List<Stmt> branch = asIf.getTrueBranch().getStmtList();
+        assertEquals(new AssignStmt(temp0, new VariableExp("temp"), false, true), branch.get(0));
+        assertEquals(new AssignStmt(temp1, new ArrayWithIndexExp(new VariableExp("arr"), new VariableExp("j")),
+                false, false), branch.get(1));
+        // j + 1 alone is cheaper to compute again than to keep
+        assertEquals(((AssignStmt) OptimizerTests.parse("arr[j + 1] = temp").getStmtList().get(0)), branch.get(2));
+    }
+
+    @Test
+    public void arrayWritesAndAssignmentsEndReuse() throws Exception {
+        Program program = CommonSubexpressionEliminator.eliminate(OptimizerTests.parse(
+                "var a = arrayOf(1, 2)\n" +
+                "var i = 0\n" +
+                "println(a[i] * a[i])\n" +
+                "a[1] = 5\n" +
+                "println(a[i] + 1)\n" +
+                "var s = i * 3 + 1\n" +
+                "println(i * 3 + 1)\n" +
+                "i++\n" +
+                "println(i * 3 + 1)"));
+        assertEquals(OptimizerTests.parse(
+                "var a = arrayOf(1, 2)\n" +
+                "var i = 0\n" +
+                "println(a[i] * a[i])\n" +
+                "a[1] = 5\n" +
+                "println(a[i] + 1)\n" +
+                "var s = i * 3 + 1\n" +
+                "println(s)\n" +
+                "i++\n" +
+                "println(i * 3 + 1)").getStmtList().subList(3, 9), program.getStmtList().subList(4, 10));
+        VariableExp temp0 = OptimizerTests.temp(CommonSubexpressionEliminator.TEMP_PREFIX, 0);
+        assertEquals(new AssignStmt(OptimizerTests.expression("a[i]"), temp0, true, true), program.getStmtList().get(2));
+        assertEquals(new PrintlnStmt(new MultiplicativeExp(temp0, temp0, MultiplicativeOp.OP_MULTIPLY)),
+                program.getStmtList().get(3));
+    }
+
+    @Test
+    public void rightOperandOfAndIsNotComputedEarly() throws Exception {
+        Program source = OptimizerTests.parse(
+                "var a = arrayOf(1, 2)\n" +
+                "var i = 2\n" +
+                "if(i < 2 && a[i] > 0) {\n" +
+                "    println(a[i])\n" +
+                "}\n" +
+                "println(i)");
+        assertEquals(source, CommonSubexpressionEliminator.eliminate(source));
+    }
+
+    @Test
+    public void impureCallsEndReuse() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun show(n: Int) {\n" +
+                "    println(n)\n" +
+                "}\n" +
+                "var a = arrayOf(1, 2)\n" +
+                "println(a[0] + a[1] * 2)\n" +
+                "show(1)\n" +
+                "println(a[0] + a[1] * 2)");
+        assertEquals(source, CommonSubexpressionEliminator.eliminate(source));
+    }
+}
@@ -0,0 +1,90 @@
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.PassManager;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time the whole compiler on a generated script of many functions, run with the compiled classes on the classpath:
+ * java CompileBenchmark [functions] [runs]
+ * Prints the median time of each phase of one compile after warm up. Parsing builds a fresh tree for every run
+ * because the optimizer returns new trees but the typechecker and code generator only read theirs.
+ */
+public class CompileBenchmark {
+    private static final int WARM_UP = 20;
+
+    private static final String KERNEL =
+            "fun kernel#(n: Int, k: Int): Int {\n" +
+            "    var arr = Array(n, {i -> i * #})\n" +
+            "    var total = 0\n" +
+            "    for(i in 0..n) {\n" +
+            "        if(arr[i] > k || i < 2) {\n" +
+            "            total += arr[i] * k\n" +
+            "        } else {\n" +
+            "            total -= i\n" +
+            "        }\n" +
+            "    }\n" +
+            "    for(v in arr) {\n" +
+            "        total += v % 7\n" +
+            "    }\n" +
+            "    var w = 0\n" +
+            "    while(w < n && total > 0) {\n" +
+            "        w += 2\n" +
+            "        total -= w\n" +
+            "    }\n" +
+            "    var s = \"kernel # total $total of \" + n\n" +
+            "    println(s)\n" +
+            "    return total + w\n" +
+            "}\n";
+
+    public static String source(final int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append(KERNEL.replace("#", String.valueOf(i)));
+        }
+        source.append("var m = 10\n");
+        for (int i = 0; i < functions; i++) {
+            source.append("var r").append(i).append(" = kernel").append(i).append("(m, ").append(i).append(")\n");
+            source.append("println(r").append(i).append(")\n");
+        }
+        return source.toString();
+    } // source
+
+    public static void main(String[] args) throws Exception {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String source = source(functions);
+        String[] phases = { "parse", "typecheck", "optimize", "codegen", "total" };
+        long[][] times = new long[phases.length][runs];
+        int size = 0;
+        for (int run = -WARM_UP; run < runs; run++) {
+            long start = System.nanoTime();
+            List<Token> tokenList = new Tokenizer(source).tokenize();
+            Program program = new Parser(tokenList.toArray(new Token[0])).parseToplevelProgram();
+            long parsed = System.nanoTime();
+            Typechecker.typecheckProgram(program);
+            long checked = System.nanoTime();
+            program = PassManager.standard().run(program);
+            long optimized = System.nanoTime();
+            size = new CodeGenerator("CompileBench", "compiledProgram").generateClass(program).length;
+            long generated = System.nanoTime();
+            if(run >= 0) {
+                times[0][run] = parsed - start;
+                times[1][run] = checked - parsed;
+                times[2][run] = optimized - checked;
+                times[3][run] = generated - optimized;
+                times[4][run] = generated - start;
+            }
+        }
+        System.out.printf("%d functions, %d source bytes, %d class bytes%n", functions, source.length(), size);
+        for (int i = 0; i < phases.length; i++) {
+            Arrays.sort(times[i]);
+            System.out.printf("%-10s %10.3f ms%n", phases[i], times[i][runs / 2] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConstantFolderTest {
+
+    public static Program makeProgram(final Stmt... statements) {
+        final List<Stmt> list = new ArrayList<Stmt>();
+        for (final Stmt statement : statements) {
+            list.add(statement);
+        }
+        return new Program(list);
+    } // makeProgram
+
+    private static void assertFolded(final Program expected, final Program program) {
+        assertEquals(expected, ConstantFolder.foldProgram(program));
+    }
+
+    @Test
+    // val n = 100
+    // val k = 7
+    // println(n / k + 1)
+    public void foldValArithmetic() {
+        Exp exp = new AdditiveExp(new MultiplicativeExp(new VariableExp("n"), new VariableExp("k"), MultiplicativeOp.OP_DIVIDE),
+                new IntExp(1), AdditiveOp.EXP_PLUS);
+        assertFolded(makeProgram(new AssignStmt(new IntExp(100), new VariableExp("n"), true, true),
+                        new AssignStmt(new IntExp(7), new VariableExp("k"), true, true),
+                        new PrintlnStmt(new IntExp(15))),
+                makeProgram(new AssignStmt(new IntExp(100), new VariableExp("n"), true, true),
+                        new AssignStmt(new IntExp(7), new VariableExp("k"), true, true),
+                        new PrintlnStmt(exp)));
+    }
+
+    @Test
+    // var n = 100
+    // println(n / 7)
+    public void varIsNotPropagated() {
+        Program program = makeProgram(new AssignStmt(new IntExp(100), new VariableExp("n"), false, true),
+                new PrintlnStmt(new MultiplicativeExp(new VariableExp("n"), new IntExp(7), MultiplicativeOp.OP_DIVIDE)));
+        assertFolded(program, program);
+    }
+
+    @Test
+    // println(1 / 0)
+    public void divideByZeroNotFolded() {
+        Program program = makeProgram(new PrintlnStmt(new MultiplicativeExp(new IntExp(1), new IntExp(0), MultiplicativeOp.OP_DIVIDE)));
+        assertFolded(program, program);
+    }
+
+    @Test
+    // println("a" + 1 + true)
+    public void foldStringConcatenation() {
+        assertFolded(makeProgram(new PrintlnStmt(new StringExp("a1true", null))),
+                makeProgram(new PrintlnStmt(new AdditiveExp(new AdditiveExp(new StringExp("a", null), new IntExp(1), AdditiveOp.EXP_PLUS),
+                        new BooleanExp(true), AdditiveOp.EXP_PLUS))));
+    }
+
+    @Test
+    // val count = 3
+    // var n = 10
+    // println("$count prime(s) less than or equal to $n")
+    public void foldStringInterpolation() {
+        LinkedHashMap<Integer, Exp> interpolation = new LinkedHashMap<>();
+        interpolation.put(0, new VariableExp("count"));
+        interpolation.put(32, new VariableExp("n"));
+        LinkedHashMap<Integer, Exp> expected = new LinkedHashMap<>();
+        expected.put(33, new VariableExp("n"));
+        assertFolded(makeProgram(new AssignStmt(new IntExp(3), new VariableExp("count"), true, true),
+                        new AssignStmt(new IntExp(10), new VariableExp("n"), false, true),
+                        new PrintlnStmt(new StringExp("3 prime(s) less than or equal to ", expected))),
+                makeProgram(new AssignStmt(new IntExp(3), new VariableExp("count"), true, true),
+                        new AssignStmt(new IntExp(10), new VariableExp("n"), false, true),
+                        new PrintlnStmt(new StringExp(" prime(s) less than or equal to ", interpolation))));
+    }
+
+    @Test
+    // val debug = false
+    // if(!debug && 2 > 1) {
+    //      println("yes")
+    // } else {
+    //      println("no")
+    // }
+    public void removeConstantIfBranch() {
+        List<Stmt> trueBranch = new ArrayList<>();
+        trueBranch.add(new PrintlnStmt(new StringExp("yes", null)));
+        List<Stmt> falseBranch = new ArrayList<>();
+        falseBranch.add(new PrintlnStmt(new StringExp("no", null)));
+        assertFolded(makeProgram(new AssignStmt(new BooleanExp(false), new VariableExp("debug"), true, true),
+                        new PrintlnStmt(new StringExp("yes", null))),
+                makeProgram(new AssignStmt(new BooleanExp(false), new VariableExp("debug"), true, true),
+                        new IfStmt(new BiLogicalExp(new NotExp(new VariableExp("debug")),
+                                new ComparableExp(new IntExp(2), new IntExp(1), ComparableOp.OP_GREATER_THAN), BiLogicalOp.OP_AND),
+                                new BlockStmt(trueBranch), new BlockStmt(falseBranch))));
+    }
+
+    @Test
+    // if(false) {
+    //      println(1)
+    // }
+    // val a = 1
+    // if(a == 1) {
+    //      val b = 2
+    //      println(b)
+    // }
+    public void keepScopeOfTakenBranch() {
+        List<Stmt> deadBranch = new ArrayList<>();
+        deadBranch.add(new PrintlnStmt(new IntExp(1)));
+        List<Stmt> takenBranch = new ArrayList<>();
+        takenBranch.add(new AssignStmt(new IntExp(2), new VariableExp("b"), true, true));
+        takenBranch.add(new PrintlnStmt(new VariableExp("b")));
+        List<Stmt> expectedBranch = new ArrayList<>();
+        expectedBranch.add(new AssignStmt(new IntExp(2), new VariableExp("b"), true, true));
+        expectedBranch.add(new PrintlnStmt(new IntExp(2)));
+        assertFolded(makeProgram(new AssignStmt(new IntExp(1), new VariableExp("a"), true, true),
+                        new BlockStmt(expectedBranch)),
+                makeProgram(new IfStmt(new BooleanExp(false), new BlockStmt(deadBranch)),
+                        new AssignStmt(new IntExp(1), new VariableExp("a"), true, true),
+                        new IfStmt(new ComparableExp(new VariableExp("a"), new IntExp(1), ComparableOp.OP_EQUAL_EQUAL),
+                                new BlockStmt(takenBranch))));
+    }
+
+    @Test
+    // val i = 10
+    // for(i in 0..i) {
+    //      println(i)
+    // }
+    // fun f(i: Int): Int {
+    //      return i
+    // }
+    public void iteratorAndParameterShadowVal() {
+        List<Stmt> loopBody = new ArrayList<>();
+        loopBody.add(new PrintlnStmt(new VariableExp("i")));
+        List<Stmt> functionBody = new ArrayList<>();
+        functionBody.add(new ReturnStmt(new VariableExp("i")));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("i"), BasicType.TYPE_INT);
+        assertFolded(makeProgram(new AssignStmt(new IntExp(10), new VariableExp("i"), true, true),
+                        new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new IntExp(10)), new BlockStmt(loopBody)),
+                        new FunctionDeclareStmt(new VariableExp("f"), BasicType.TYPE_INT, parameters, new BlockStmt(functionBody))),
+                makeProgram(new AssignStmt(new IntExp(10), new VariableExp("i"), true, true),
+                        new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new VariableExp("i")), new BlockStmt(loopBody)),
+                        new FunctionDeclareStmt(new VariableExp("f"), BasicType.TYPE_INT, parameters, new BlockStmt(functionBody))));
+    }
+
+    private static final String FUNCTIONS =
+            "fun fib(n: Int): Int {\n" +
+            "    var a = 0\n" +
+            "    var b = 1\n" +
+            "    for(i in 0..n) {\n" +
+            "        var t = a + b\n" +
+            "        a = b\n" +
+            "        b = t\n" +
+            "    }\n" +
+            "    return a\n" +
+            "}\n" +
+            "fun spin(n: Int): Int {\n" +
+            "    var i = n\n" +
+            "    while(i > 0) {\n" +
+            "        i++\n" +
+            "    }\n" +
+            "    return i\n" +
+            "}\n" +
+            "fun ratio(n: Int): Int {\n" +
+            "    return 100 / n\n" +
+            "}\n" +
+            "fun show(n: Int): Int {\n" +
+            "    println(n)\n" +
+            "    return n\n" +
+            "}\n";
+
+    private static Exp lastPrinted(final Program program) {
+        List<Stmt> stmts = program.getStmtList();
+        return ((PrintlnStmt) stmts.get(stmts.size() - 1)).getValue();
+    }
+
+    @Test
+    public void evaluatePureCallWithLiteralArguments() throws Exception {
+        assertEquals(new IntExp(610), lastPrinted(ConstantFolder.foldProgram(OptimizerTests.parse(FUNCTIONS + "println(fib(15))"))));
+    }
+
+    @Test
+    public void evaluatedValIsPropagated() throws Exception {
+        assertEquals(new StringExp("fib=55", null),
+                lastPrinted(ConstantFolder.foldProgram(OptimizerTests.parse(FUNCTIONS + "val f = fib(10)\nprintln(\"fib=$f\")"))));
+    }
+
+    @Test
+    public void callsThatCannotBeEvaluatedStay() throws Exception {
+        // does not terminate, divides by zero, prints
+        for (String call : new String[] {"spin(1)", "ratio(0)", "show(1)"}) {
+            Program program = ConstantFolder.foldProgram(OptimizerTests.parse(FUNCTIONS + "println(" + call + ")"));
+            assertTrue(lastPrinted(program) instanceof FunctionInstanceExp);
+        }
+        assertEquals(new IntExp(50), lastPrinted(ConstantFolder.foldProgram(OptimizerTests.parse(FUNCTIONS + "println(ratio(2))"))));
+    }
+}
@@ -0,0 +1,94 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.DeadCodeEliminator;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadCodeEliminatorTest {
+
+    @Test
+    public void codeAfterReturnIsRemoved() throws Exception {
+        Program program = DeadCodeEliminator.eliminate(OptimizerTests.parse(
+                "fun first(n: Int): Int {\n" +
+                "    return n\n" +
+                "    println(n)\n" +
+                "}\n" +
+                "println(first(1))"));
+        assertEquals(1, OptimizerTests.body(program, 0).size());
+        assertTrue(OptimizerTests.body(program, 0).get(0) instanceof ReturnStmt);
+    }
+
+    @Test
+    public void deadStoresAreRemoved() throws Exception {
+        Program program = DeadCodeEliminator.eliminate(OptimizerTests.parse(
+                "var unused = 5\n" +
+                "var x = 1\n" +
+                "x = 2\n" +
+                "unused = x\n" +
+                "println(x)"));
+        // var x = 1 is never read but still declares x
+        assertEquals(OptimizerTests.parse("var x = 1\nx = 2\nprintln(x)"), program);
+    }
+
+    @Test
+    public void storesReadInTheNextIterationAreKept() throws Exception {
+        Program program = DeadCodeEliminator.eliminate(OptimizerTests.parse(
+                "fun count(n: Int): Int {\n" +
+                "    var last = 0\n" +
+                "    var total = 0\n" +
+                "    for(i in 0..n) {\n" +
+                "        total += last\n" +
+                "        last = i\n" +
+                "        var twice = i * 2\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "println(count(3))"));
+        assertEquals(OptimizerTests.parse(
+                "fun count(n: Int): Int {\n" +
+                "    var last = 0\n" +
+                "    var total = 0\n" +
+                "    for(i in 0..n) {\n" +
+                "        total += last\n" +
+                "        last = i\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "println(count(3))"), program);
+    }
+
+    @Test
+    public void storesThatMayFailOrPrintAreKept() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun show(n: Int): Int {\n" +
+                "    println(n)\n" +
+                "    return n\n" +
+                "}\n" +
+                "var zero = show(0)\n" +
+                "var ratio = 10 / zero\n" +
+                "var arr = arrayOf(1, 2)\n" +
+                "var outside = arr[2]");
+        assertEquals(source, DeadCodeEliminator.eliminate(source));
+    }
+
+    @Test
+    public void uncalledFunctionsAreRemoved() throws Exception {
+        Program program = DeadCodeEliminator.eliminate(OptimizerTests.parse(
+                "fun helper(n: Int): Int {\n" +
+                "    return n\n" +
+                "}\n" +
+                "fun used(n: Int): Int {\n" +
+                "    return helper(n)\n" +
+                "}\n" +
+                "fun unused(n: Int): Int {\n" +
+                "    return used(n)\n" +
+                "}\n" +
+                "println(used(1))"));
+        assertEquals(3, program.getStmtList().size());
+        assertEquals(new VariableExp("helper"), ((FunctionDeclareStmt) program.getStmtList().get(0)).getFuncName());
+        assertEquals(new VariableExp("used"), ((FunctionDeclareStmt) program.getStmtList().get(1)).getFuncName());
+    }
+}
@@ -0,0 +1,172 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.Inliner;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InlinerTest {
+
+    @Test
+    public void finalReturnStandsForTheCall() throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "fun cube(x: Int): Int {\n" +
+                "    var square = x * x\n" +
+                "    return square * x\n" +
+                "}\n" +
+                "var n = 3\n" +
+                "var y = cube(n)\n" +
+                "println(y)"));
+        List<Stmt> stmts = program.getStmtList();
+        VariableExp temp0 = OptimizerTests.temp(Inliner.TEMP_PREFIX, 0);
+        // the local is renamed, the parameter is the argument itself
+        assertEquals(new AssignStmt(new MultiplicativeExp(new VariableExp("n"), new VariableExp("n"), MultiplicativeOp.OP_MULTIPLY),
+                temp0, false, true), stmts.get(2));
+        assertEquals(new AssignStmt(new MultiplicativeExp(temp0, new VariableExp("n"), MultiplicativeOp.OP_MULTIPLY),
+                new VariableExp("y"), false, true), stmts.get(3));
+    }
+
+    @Test
+    public void returnsInBranchesAssignAResult() throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "fun clamp(v: Int, hi: Int): Int {\n" +
+                "    if(v > hi) {\n" +
+                "        return hi\n" +
+                "    } else {\n" +
+                "        return v\n" +
+                "    }\n" +
+                "}\n" +
+                "var n = 30\n" +
+                "println(clamp(n, 10))"));
+        List<Stmt> stmts = program.getStmtList();
+        VariableExp temp0 = OptimizerTests.temp(Inliner.TEMP_PREFIX, 0);
+        assertEquals(new AssignStmt(new IntExp(0), temp0, false, true), stmts.get(2));
+        assertEquals(new IfStmt(new ComparableExp(new VariableExp("n"), new IntExp(10), ComparableOp.OP_GREATER_THAN),
+                new BlockStmt(Arrays.asList(new AssignStmt(new IntExp(10), temp0, false, false))),
+                new BlockStmt(Arrays.asList(new AssignStmt(new VariableExp("n"), temp0, false, false)))), stmts.get(3));
+        assertEquals(new PrintlnStmt(temp0), stmts.get(4));
+    }
+
+    @Test
+    public void unitFunctionsReplaceCallStatements() throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "fun show(k: Int) {\n" +
+                "    println(k)\n" +
+                "    println(k + 1)\n" +
+                "}\n" +
+                "show(4)\n" +
+                "println(0)"));
+        assertEquals(Arrays.asList(new PrintlnStmt(new IntExp(4)),
+                new PrintlnStmt(new AdditiveExp(new IntExp(4), new IntExp(1), AdditiveOp.EXP_PLUS)),
+                new PrintlnStmt(new IntExp(0))), program.getStmtList().subList(1, 4));
+    }
+
+    @Test
+    public void recursiveFunctionsAndCallsAfterArrayReadsStay() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun fact(n: Int): Int {\n" +
+                "    if(n < 2) {\n" +
+                "        return 1\n" +
+                "    } else {\n" +
+                "        var m = n - 1\n" +
+                "        var r = fact(m)\n" +
+                "        return n * r\n" +
+                "    }\n" +
+                "}\n" +
+                "fun twice(x: Int): Int {\n" +
+                "    return x * 2\n" +
+                "}\n" +
+                "var a = arrayOf(1, 2)\n" +
+                "var b = 5\n" +
+                "println(fact(b))\n" +
+                "var y = a[0] + twice(b)\n" +
+                "println(y)");
+        assertEquals(source, Inliner.inline(source));
+    }
+
+    @Test
+    public void lambdaArgumentsAreSplicedIntoTheBody() throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "inline fun twice(f: (Int) -> Int, n: Int): Int {\n" +
+                "    val once = f(n)\n" +
+                "    return f(once)\n" +
+                "}\n" +
+                "var k = 3\n" +
+                "println(twice({y: Int -> y + k}, 4))"));
+        List<Stmt> stmts = program.getStmtList();
+        // the lambda stays in a val for the calls that could not be inlined, none here
+        assertTrue(((AssignStmt) stmts.get(2)).getExpression() instanceof LambdaExp);
+        VariableExp temp1 = OptimizerTests.temp(Inliner.TEMP_PREFIX, 1);
+        assertEquals(new AssignStmt(new AdditiveExp(new IntExp(4), new VariableExp("k"), AdditiveOp.EXP_PLUS),
+                temp1, true, true), stmts.get(3));
+        assertEquals(new PrintlnStmt(new AdditiveExp(temp1, new VariableExp("k"), AdditiveOp.EXP_PLUS)), stmts.get(4));
+    }
+
+    @Test
+    public void inlineFunctionsHaveNoSizeLimit() throws Exception {
+        StringBuilder source = new StringBuilder("inline fun show(k: Int) {\n");
+        for (int i = 0; i < Inliner.MAX_SIZE; i++) {
+            source.append("    println(k + ").append(i).append(")\n");
+        }
+        source.append("}\nshow(1)");
+        List<Stmt> stmts = Inliner.inline(OptimizerTests.parse(source.toString())).getStmtList();
+        assertEquals(1 + Inliner.MAX_SIZE, stmts.size());
+        assertEquals(new PrintlnStmt(new AdditiveExp(new IntExp(1), new IntExp(0), AdditiveOp.EXP_PLUS)), stmts.get(1));
+    }
+
+    // Inline f(a) where f writes its parameter with write, a must keep its value.
+    private static void assertWrittenParameterIsCopied(final String write) throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "fun f(x: Int): Int {\n" +
+                "    " + write + "\n" +
+                "    return x\n" +
+                "}\n" +
+                "var a = 5\n" +
+                "println(f(a))\n" +
+                "println(a)"));
+        List<Stmt> stmts = program.getStmtList();
+        VariableExp temp0 = OptimizerTests.temp(Inliner.TEMP_PREFIX, 0);
+        // the parameter is a var of its own holding the argument, the body writes that var
+        assertEquals(new AssignStmt(new VariableExp("a"), temp0, false, true), stmts.get(2));
+        assertEquals(new PrintlnStmt(temp0), stmts.get(4));
+        assertEquals(new PrintlnStmt(new VariableExp("a")), stmts.get(5));
+    }
+
+    @Test
+    public void parameterAssignedInBodyIsCopied() throws Exception {
+        assertWrittenParameterIsCopied("x = x + 1");
+    }
+
+    @Test
+    public void parameterIncrementedInBodyIsCopied() throws Exception {
+        assertWrittenParameterIsCopied("x++");
+    }
+
+    @Test
+    public void parameterCompoundAssignedInBodyIsCopied() throws Exception {
+        assertWrittenParameterIsCopied("x += 3");
+    }
+
+    @Test
+    public void argumentsAreCopiedWhenTheBodyCallsAWriter() throws Exception {
+        Program program = Inliner.inline(OptimizerTests.parse(
+                "var g = 1\n" +
+                "fun bump() {\n" +
+                "    g = g + 10\n" +
+                "}\n" +
+                "fun f(x: Int): Int {\n" +
+                "    bump()\n" +
+                "    return x\n" +
+                "}\n" +
+                "println(f(g))"));
+        List<Stmt> stmts = program.getStmtList();
+        VariableExp temp0 = OptimizerTests.temp(Inliner.TEMP_PREFIX, 0);
+        // g is read before bump() writes it
+        assertEquals(new AssignStmt(new VariableExp("g"), temp0, true, true), stmts.get(3));
+        assertEquals(new PrintlnStmt(temp0), stmts.get(stmts.size() - 1));
+    }
+}
@@ -0,0 +1,88 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.LoopInvariantCodeMotion;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopInvariantCodeMotionTest {
+
+    // The val of the number-th temp holding value, put before a loop by hoisting.
+    private static AssignStmt hoisted(final int number, final Exp value) {
+        return new AssignStmt(value, OptimizerTests.temp(LoopInvariantCodeMotion.TEMP_PREFIX, number), true, true);
+    }
+
+    @Test
+    public void invariantExpressionsLeaveEveryLoopTheyDoNotDependOn() throws Exception {
+        Program program = LoopInvariantCodeMotion.hoist(OptimizerTests.parse(
+                "fun scaled(n: Int, k: Int): Int {\n" +
+                "    var total = 0\n" +
+                "    for(i in 0..n) {\n" +
+                "        var j = 0\n" +
+                "        while(j < i + 2) {\n" +
+                "            total += j * (k * 3 + 1)\n" +
+                "            j++\n" +
+                "        }\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "println(scaled(10, 3))"));
+        List<Stmt> body = OptimizerTests.body(program);
+        assertEquals(hoisted(0, OptimizerTests.expression("k * 3 + 1")), body.get(1));
+        ForStmt outer = (ForStmt) body.get(2);
+        // i + 2 only stays the same inside the while loop
+        List<Stmt> outerBody = outer.getBlockStmt().getStmtList();
+        assertEquals(hoisted(1, OptimizerTests.expression("i + 2")), outerBody.get(1));
+        WhileStmt inner = (WhileStmt) outerBody.get(2);
+        assertEquals(new ComparableExp(new VariableExp("j"), OptimizerTests.temp(LoopInvariantCodeMotion.TEMP_PREFIX, 1),
+                ComparableOp.OP_LESS_THAN), inner.getCondition());
+        assertEquals(new CompoundAssignStmt(new MultiplicativeExp(new VariableExp("j"),
+                OptimizerTests.temp(LoopInvariantCodeMotion.TEMP_PREFIX, 0), MultiplicativeOp.OP_MULTIPLY),
+                new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL), inner.getBlockStmt().getStmtList().get(0));
+    }
+
+    @Test
+    public void assignedVariablesAndDivisionStay() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun count(n: Int, k: Int): Int {\n" +
+                "    var total = 0\n" +
+                "    var m = k\n" +
+                "    while(m < n) {\n" +
+                "        total += n / k\n" +
+                "        m += 2\n" +
+                "        total += m * 2\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "println(count(10, 3))");
+        assertEquals(source, LoopInvariantCodeMotion.hoist(source));
+    }
+
+    @Test
+    public void impureCallsKeepToplevelVariables() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun show(n: Int) {\n" +
+                "    println(n)\n" +
+                "}\n" +
+                "var w = 4\n" +
+                "for(i in 0..3) {\n" +
+                "    show(i)\n" +
+                "    println(w * 2)\n" +
+                "}");
+        assertEquals(source, LoopInvariantCodeMotion.hoist(source));
+    }
+
+    @Test
+    public void hoistingAgainAddsNothing() throws Exception {
+        Program once = LoopInvariantCodeMotion.hoist(OptimizerTests.parse(
+                "var w = 4\n" +
+                "for(i in 0..3) {\n" +
+                "    println(w * 2 + i)\n" +
+                "}"));
+        assertEquals(3, once.getStmtList().size());
+        assertEquals(once, LoopInvariantCodeMotion.hoist(once));
+    }
+}
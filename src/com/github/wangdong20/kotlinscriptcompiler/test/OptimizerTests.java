@@ -0,0 +1,44 @@
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+import java.util.List;
+
+/**
+ * Helpers shared by the tests of the analyses and optimization passes, which check the programs they
+ * produce from source code.
+ */
+public final class OptimizerTests {
+    private OptimizerTests() {
+    }
+
+    public static Program parse(final String source) throws Exception {
+        List<Token> tokenList = new Tokenizer(source).tokenize();
+        return new Parser(tokenList.toArray(new Token[0])).parseToplevelProgram();
+    } // parse
+
+    // The expression source stands for, parsed as the value of a variable.
+    public static Exp expression(final String source) throws Exception {
+        return ((AssignStmt) parse("var x = " + source).getStmtList().get(0)).getExpression();
+    } // expression
+
+    // Statements of the function declared by the index-th top-level statement.
+    public static List<Stmt> body(final Program program, final int index) {
+        return ((FunctionDeclareStmt) program.getStmtList().get(index)).getBlockStmt().getStmtList();
+    } // body
+
+    public static List<Stmt> body(final Program program) {
+        return body(program, 0);
+    } // body
+
+    // The number-th temp a pass introduces with the names starting with prefix.
+    public static VariableExp temp(final String prefix, final int number) {
+        return new VariableExp(prefix + number);
+    } // temp
+}
@@ -572,6 +572,29 @@ class ParserTest {
                 KeywordToken.TK_RETURN, KeywordToken.TK_FALSE, SymbolToken.TK_LINE_BREAK, BracketsToken.TK_RCURLY);
     }
 
+    @Test
+    // inline fun apply(f: (Int) -> Int, n: Int): Int { return f(n) }
+    public void inlineFunctionDeclareParses() throws ParseException {
+        List<Type> intToInt = new ArrayList<>();
+        intToInt.add(BasicType.TYPE_INT);
+        LinkedHashMap<Exp, Type> parameterList = new LinkedHashMap<>();
+        parameterList.put(new VariableExp("f"), new TypeHighOrderFunction(intToInt, BasicType.TYPE_INT));
+        parameterList.put(new VariableExp("n"), BasicType.TYPE_INT);
+        List<Exp> arguments = new ArrayList<>();
+        arguments.add(new VariableExp("n"));
+        List<Stmt> stmtListInFun = new ArrayList<>();
+        stmtListInFun.add(new ReturnStmt(new FunctionInstanceExp(new VariableExp("f"), arguments)));
+        assertParseStmts(new FunctionDeclareStmt(new VariableExp("apply"), BasicType.TYPE_INT,
+                parameterList, new BlockStmt(stmtListInFun), true),
+                KeywordToken.TK_INLINE, KeywordToken.TK_FUN, new VariableToken("apply"), BracketsToken.TK_LPAREN,
+                new VariableToken("f"), SymbolToken.TK_COLON, BracketsToken.TK_LPAREN, TypeToken.TK_TYPE_INT,
+                BracketsToken.TK_RPAREN, SymbolToken.TK_ARROW, TypeToken.TK_TYPE_INT, SymbolToken.TK_COMMA,
+                new VariableToken("n"), SymbolToken.TK_COLON, TypeToken.TK_TYPE_INT, BracketsToken.TK_RPAREN,
+                SymbolToken.TK_COLON, TypeToken.TK_TYPE_INT, BracketsToken.TK_LCURLY, KeywordToken.TK_RETURN,
+                new VariableToken("f"), BracketsToken.TK_LPAREN, new VariableToken("n"), BracketsToken.TK_RPAREN,
+                SymbolToken.TK_LINE_BREAK, BracketsToken.TK_RCURLY);
+    }
+
     @Test
     // a = 1
     public void assignNoVarStmtNoType() throws ParseException {
@@ -821,6 +844,22 @@ class ParserTest {
                 SymbolToken.TK_COMMA, new IntToken(3), BracketsToken.TK_RPAREN);
     }
 
+    @Test
+    // apply({a: Int -> a + 1}, 3)
+    public void funcInstanceWithLambdaParameterParses() throws ParseException {
+        LinkedHashMap<VariableExp, Type> lambdaParameters = new LinkedHashMap<>();
+        lambdaParameters.put(new VariableExp("a"), BasicType.TYPE_INT);
+        List<Exp> parameterList = new ArrayList<>();
+        parameterList.add(new LambdaExp(lambdaParameters, new AdditiveExp(new VariableExp("a"),
+                new IntExp(1), AdditiveOp.EXP_PLUS)));
+        parameterList.add(new IntExp(3));
+        assertParses(new FunctionInstanceExp(new VariableExp("apply"), parameterList),
+                new VariableToken("apply"), BracketsToken.TK_LPAREN, BracketsToken.TK_LCURLY,
+                new VariableToken("a"), SymbolToken.TK_COLON, TypeToken.TK_TYPE_INT, SymbolToken.TK_ARROW,
+                new VariableToken("a"), BinopToken.TK_PLUS, new IntToken(1), BracketsToken.TK_RCURLY,
+                SymbolToken.TK_COMMA, new IntToken(3), BracketsToken.TK_RPAREN);
+    }
+
     @Test
     // arrayOf(1,2,3,"abc",5)
     public void arrayOfParses() throws ParseException {
@@ -0,0 +1,62 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.PassManager;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PassManagerTest {
+
+    private static Program println(final Exp exp) {
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(new PrintlnStmt(exp));
+        return new Program(stmts);
+    }
+
+    private static Exp valueOf(final Program program) {
+        return ((PrintlnStmt) program.getStmtList().get(0)).getValue();
+    }
+
+    // Wrap the printed value in (value + 1) until it is 3 or more.
+    private static Program increment(final Program program) {
+        Exp value = valueOf(program);
+        if(value instanceof IntExp && ((IntExp) value).getValue() >= 3) {
+            return program;
+        }
+        return println(new AdditiveExp(value, new IntExp(1), AdditiveOp.EXP_PLUS));
+    }
+
+    @Test
+    public void passesRunInOrder() {
+        List<String> order = new ArrayList<>();
+        Program result = new PassManager(1)
+                .addPass("first", p -> { order.add("first"); return p; })
+                .addPass("second", p -> { order.add("second"); return println(new IntExp(2)); })
+                .run(println(new IntExp(1)));
+        assertEquals("[first, second]", order.toString());
+        assertEquals(new IntExp(2), valueOf(result));
+    }
+
+    @Test
+    // println(0), adding one and folding needs three rounds, the fourth round changes nothing
+    public void passesRunAgainUntilNothingChanges() {
+        List<String> rounds = new ArrayList<>();
+        PassManager passManager = new PassManager()
+                .addPass("increment", p -> { rounds.add("increment"); return increment(p); })
+                .addPass("fold", p -> PassManager.standard().run(p));
+        assertEquals(new IntExp(3), valueOf(passManager.run(println(new IntExp(0)))));
+        assertEquals(4, rounds.size());
+    }
+
+    @Test
+    public void roundsAreLimited() {
+        PassManager passManager = new PassManager(2)
+                .addPass("increment", PassManagerTest::increment)
+                .addPass("fold", p -> PassManager.standard().run(p));
+        assertEquals(new IntExp(2), valueOf(passManager.run(println(new IntExp(0)))));
+    }
+}
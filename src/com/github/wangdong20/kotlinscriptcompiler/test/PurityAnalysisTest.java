@@ -0,0 +1,127 @@
+import com.github.wangdong20.kotlinscriptcompiler.analysis.PurityAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.FunctionInstanceExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeInterner;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PurityAnalysisTest {
+
+    private static PurityAnalysis analyze(final String source) throws Exception {
+        return PurityAnalysis.analyze(OptimizerTests.parse(source));
+    }
+
+    @Test
+    public void arithmeticAndRecursionArePure() throws Exception {
+        PurityAnalysis analysis = analyze(
+                "fun square(x: Int): Int {\n" +
+                "    return x * x\n" +
+                "}\n" +
+                "fun fib(n: Int): Int {\n" +
+                "    if(n < 2) {\n" +
+                "        return n\n" +
+                "    } else {\n" +
+                "        var m = n - 1\n" +
+                "        var a = fib(m)\n" +
+                "        m = n - 2\n" +
+                "        var b = fib(m)\n" +
+                "        return a + b\n" +
+                "    }\n" +
+                "}\n" +
+                "println(fib(10))");
+        assertTrue(analysis.isPure("square"));
+        assertTrue(analysis.isReferentiallyTransparent("square"));
+        assertTrue(analysis.isPure("fib"));
+        assertTrue(analysis.isReferentiallyTransparent("fib"));
+    }
+
+    @Test
+    public void printingIsImpureAndSpreadsToCallers() throws Exception {
+        PurityAnalysis analysis = analyze(
+                "fun show(x: Int) {\n" +
+                "    println(x)\n" +
+                "}\n" +
+                "fun twice(x: Int) {\n" +
+                "    show(x)\n" +
+                "    show(x)\n" +
+                "}\n" +
+                "twice(1)");
+        assertFalse(analysis.isPure("show"));
+        assertFalse(analysis.isPure("twice"));
+    }
+
+    @Test
+    public void writingParameterArrayIsImpure() throws Exception {
+        PurityAnalysis analysis = analyze(
+                "fun clear(arr: Array<Int>, n: Int) {\n" +
+                "    for(i in 0..n) {\n" +
+                "        arr[i] = 0\n" +
+                "    }\n" +
+                "}\n" +
+                "fun sum(arr: Array<Int>, n: Int): Int {\n" +
+                "    var total = 0\n" +
+                "    for(i in 0..n) {\n" +
+                "        total += arr[i]\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "var a = arrayOf(1, 2)\n" +
+                "clear(a, 2)");
+        assertFalse(analysis.isPure("clear"));
+        // reading a parameter array has no side effect, but its elements can change between calls
+        assertTrue(analysis.isPure("sum"));
+        assertFalse(analysis.isReferentiallyTransparent("sum"));
+    }
+
+    @Test
+    public void writingOwnArrayIsPure() throws Exception {
+        PurityAnalysis analysis = analyze(
+                "fun countPrimes(n: Int): Int {\n" +
+                "    var primes = Array(n, {i -> true})\n" +
+                "    var count = 0\n" +
+                "    for(k in 2..n) {\n" +
+                "        if(primes[k]) {\n" +
+                "            count++\n" +
+                "            for(i in 2..n / k + 1) {\n" +
+                "                primes[k * i] = false\n" +
+                "            }\n" +
+                "        }\n" +
+                "    }\n" +
+                "    return count\n" +
+                "}\n" +
+                "println(countPrimes(100))");
+        assertTrue(analysis.isPure("countPrimes"));
+        assertTrue(analysis.isReferentiallyTransparent("countPrimes"));
+    }
+
+    @Test
+    // fun apply(f: (Int) -> Int, x: Int): Int {
+    //      return f(x)
+    // }
+    public void callThroughFunctionParameterIsImpure() {
+        List<Type> parameterTypes = new ArrayList<>();
+        parameterTypes.add(BasicType.TYPE_INT);
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("f"), TypeInterner.functionOf(parameterTypes, BasicType.TYPE_INT));
+        parameters.put(new VariableExp("x"), BasicType.TYPE_INT);
+        List<Exp> arguments = new ArrayList<>();
+        arguments.add(new VariableExp("x"));
+        List<Stmt> body = new ArrayList<>();
+        body.add(new ReturnStmt(new FunctionInstanceExp(new VariableExp("f"), arguments)));
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(new FunctionDeclareStmt(new VariableExp("apply"), BasicType.TYPE_INT, parameters, new BlockStmt(body)));
+        PurityAnalysis analysis = PurityAnalysis.analyze(new Program(stmts));
+        assertFalse(analysis.isPure("apply"));
+    }
+}
@@ -0,0 +1,129 @@
+import com.github.wangdong20.kotlinscriptcompiler.analysis.RangeAnalysis;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeInterner;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeAnalysisTest {
+
+    public static List<Stmt> stmts(final Stmt... statements) {
+        final List<Stmt> list = new ArrayList<Stmt>();
+        for (final Stmt statement : statements) {
+            list.add(statement);
+        }
+        return list;
+    } // stmts
+
+    private static Exp plus(Exp left, int right) {
+        return new AdditiveExp(left, new IntExp(right), AdditiveOp.EXP_PLUS);
+    }
+
+    private static ArrayExp arrayOfSize(Exp size) {
+        LinkedHashMap<VariableExp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("i"), BasicType.TYPE_INT);
+        return new ArrayExp(size, new LambdaExp(parameters, new BooleanExp(true)));
+    }
+
+    @Test
+    // var n = 10
+    // var primes = Array(n + 1, {i -> true})
+    // for(i in 0..n + 1) {
+    //      primes[i] = false
+    //      println(primes[i + 1])
+    // }
+    public void iteratorIndexWithinArrayLength() {
+        ArrayWithIndexExp write = new ArrayWithIndexExp(new VariableExp("primes"), new VariableExp("i"));
+        ArrayWithIndexExp read = new ArrayWithIndexExp(new VariableExp("primes"), plus(new VariableExp("i"), 1));
+        ForStmt loop = new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), plus(new VariableExp("n"), 1)),
+                new BlockStmt(stmts(new AssignStmt(new BooleanExp(false), write, false, false),
+                        new PrintlnStmt(read))));
+        RangeAnalysis analysis = RangeAnalysis.analyze(new Program(stmts(
+                new AssignStmt(new IntExp(10), new VariableExp("n"), false, true),
+                new AssignStmt(arrayOfSize(plus(new VariableExp("n"), 1)), new VariableExp("primes"), false, true),
+                loop)));
+        assertTrue(analysis.isProvenInRange(write));
+        assertFalse(analysis.isProvenInRange(read));
+        assertEquals(new VariableExp("primes"), analysis.getLengthBound(loop));
+    }
+
+    @Test
+    // var n = 10
+    // var a = Array(n, {i -> true})
+    // n = 20
+    // for(i in 0..n) {
+    //      println(a[i])
+    // }
+    public void reassignedBoundIsNotTrusted() {
+        ArrayWithIndexExp read = new ArrayWithIndexExp(new VariableExp("a"), new VariableExp("i"));
+        ForStmt loop = new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new VariableExp("n")),
+                new BlockStmt(stmts(new PrintlnStmt(read))));
+        RangeAnalysis analysis = RangeAnalysis.analyze(new Program(stmts(
+                new AssignStmt(new IntExp(10), new VariableExp("n"), false, true),
+                new AssignStmt(arrayOfSize(new VariableExp("n")), new VariableExp("a"), false, true),
+                new AssignStmt(new IntExp(20), new VariableExp("n"), false, false),
+                loop)));
+        assertFalse(analysis.isProvenInRange(read));
+        assertNull(analysis.getLengthBound(loop));
+    }
+
+    @Test
+    // var a = arrayOf(1, 2, 3)
+    // for(i in 1..3) {
+    //      println(a[i - 1])
+    //      println(a[i])
+    // }
+    // println(a[2])
+    // println(a[3])
+    public void literalLengthAndIndex() {
+        List<Exp> elements = new ArrayList<>();
+        elements.add(new IntExp(1));
+        elements.add(new IntExp(2));
+        elements.add(new IntExp(3));
+        ArrayWithIndexExp previous = new ArrayWithIndexExp(new VariableExp("a"),
+                new AdditiveExp(new VariableExp("i"), new IntExp(1), AdditiveOp.EXP_MINUS));
+        ArrayWithIndexExp current = new ArrayWithIndexExp(new VariableExp("a"), new VariableExp("i"));
+        ArrayWithIndexExp last = new ArrayWithIndexExp(new VariableExp("a"), new IntExp(2));
+        ArrayWithIndexExp outside = new ArrayWithIndexExp(new VariableExp("a"), new IntExp(3));
+        RangeAnalysis analysis = RangeAnalysis.analyze(new Program(stmts(
+                new AssignStmt(new ArrayOfExp(elements), new VariableExp("a"), false, true),
+                new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(1), new IntExp(3)),
+                        new BlockStmt(stmts(new PrintlnStmt(previous), new PrintlnStmt(current)))),
+                new PrintlnStmt(last),
+                new PrintlnStmt(outside))));
+        assertTrue(analysis.isProvenInRange(previous));
+        assertTrue(analysis.isProvenInRange(current));
+        assertTrue(analysis.isProvenInRange(last));
+        assertFalse(analysis.isProvenInRange(outside));
+    }
+
+    @Test
+    // fun sum(arr: Array<Int>, n: Int): Int {
+    //      var total = 0
+    //      for(i in 0..n) {
+    //          total += arr[i]
+    //      }
+    //      return total
+    // }
+    public void parameterArrayHasUnknownLength() {
+        ArrayWithIndexExp read = new ArrayWithIndexExp(new VariableExp("arr"), new VariableExp("i"));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("arr"), TypeInterner.arrayOf(BasicType.TYPE_INT));
+        parameters.put(new VariableExp("n"), BasicType.TYPE_INT);
+        RangeAnalysis analysis = RangeAnalysis.analyze(new Program(stmts(
+                new FunctionDeclareStmt(new VariableExp("sum"), BasicType.TYPE_INT, parameters, new BlockStmt(stmts(
+                        new AssignStmt(new IntExp(0), new VariableExp("total"), false, true),
+                        new ForStmt(new VariableExp("i"), new RangeExp(new IntExp(0), new VariableExp("n")),
+                                new BlockStmt(stmts(new CompoundAssignStmt(read, new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL)))),
+                        new ReturnStmt(new VariableExp("total"))))))));
+        assertFalse(analysis.isProvenInRange(read));
+    }
+}
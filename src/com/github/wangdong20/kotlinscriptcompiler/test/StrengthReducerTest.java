@@ -0,0 +1,103 @@
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.StrengthReducer;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StrengthReducerTest {
+
+    @Test
+    public void iteratorProductsBecomeInductionVariables() throws Exception {
+        Program program = StrengthReducer.reduce(OptimizerTests.parse(
+                "fun sieve(n: Int, k: Int): Int {\n" +
+                "    var primes = Array(n, {i -> true})\n" +
+                "    for(i in 3..n) {\n" +
+                "        primes[k * i] = false\n" +
+                "        println(i * k)\n" +
+                "    }\n" +
+                "    return 0\n" +
+                "}\n" +
+                "println(sieve(10, 3))"));
+        List<Stmt> body = OptimizerTests.body(program);
+        VariableExp temp0 = OptimizerTests.temp(StrengthReducer.TEMP_PREFIX, 0);
+        assertEquals(new AssignStmt(new MultiplicativeExp(new VariableExp("k"), new IntExp(3), MultiplicativeOp.OP_MULTIPLY),
+                temp0, false, true), body.get(1));
+        List<Stmt> loop = ((ForStmt) body.get(2)).getBlockStmt().getStmtList();
+        // both orders of the same product share one variable
+        assertEquals(new AssignStmt(new BooleanExp(false), new ArrayWithIndexExp(new VariableExp("primes"), temp0),
+                false, false), loop.get(0));
+        assertEquals(new PrintlnStmt(temp0), loop.get(1));
+        assertEquals(new CompoundAssignStmt(new VariableExp("k"), temp0, CompoundAssignOp.EXP_PLUS_EQUAL), loop.get(2));
+    }
+
+    @Test
+    public void loopsThatLeaveEarlyOrChangeTheFactorStay() throws Exception {
+        Program source = OptimizerTests.parse(
+                "fun first(n: Int, k: Int): Int {\n" +
+                "    var m = k\n" +
+                "    for(i in 0..n) {\n" +
+                "        if(i * k > 20) {\n" +
+                "            break\n" +
+                "        }\n" +
+                "    }\n" +
+                "    for(i in 0..n) {\n" +
+                "        println(i * m)\n" +
+                "        m += 1\n" +
+                "    }\n" +
+                "    return m\n" +
+                "}\n" +
+                "println(first(10, 3))");
+        assertEquals(source, StrengthReducer.reduce(source));
+    }
+
+    @Test
+    public void powersOfTwoBecomeShiftsAndMasks() throws Exception {
+        Program program = StrengthReducer.reduce(OptimizerTests.parse(
+                "fun bits(n: Int, x: Int): Int {\n" +
+                "    var total = x * 8\n" +
+                "    for(i in 0..n) {\n" +
+                "        total += i / 4 + i % 16 + x / 2\n" +
+                "    }\n" +
+                "    return total\n" +
+                "}\n" +
+                "println(bits(10, 3))"));
+        List<Stmt> body = OptimizerTests.body(program);
+        assertEquals(new AssignStmt(new MultiplicativeExp(new VariableExp("x"), new IntExp(3), MultiplicativeOp.OP_SHIFT_LEFT),
+                new VariableExp("total"), false, true), body.get(0));
+        // x may be negative, where x / 2 rounds differently from a shift
+        Exp expected = new AdditiveExp(new AdditiveExp(
+                new MultiplicativeExp(new VariableExp("i"), new IntExp(2), MultiplicativeOp.OP_SHIFT_RIGHT),
+                new MultiplicativeExp(new VariableExp("i"), new IntExp(15), MultiplicativeOp.OP_AND), AdditiveOp.EXP_PLUS),
+                new MultiplicativeExp(new VariableExp("x"), new IntExp(2), MultiplicativeOp.OP_DIVIDE), AdditiveOp.EXP_PLUS);
+        assertEquals(new CompoundAssignStmt(expected, new VariableExp("total"), CompoundAssignOp.EXP_PLUS_EQUAL),
+                ((ForStmt) body.get(1)).getBlockStmt().getStmtList().get(0));
+    }
+
+    @Test
+    public void negativeIteratorsKeepDivision() throws Exception {
+        Program source = OptimizerTests.parse(
+                "for(i in -4..4) {\n" +
+                "    println(i / 2)\n" +
+                "}\n" +
+                "println(0)");
+        assertEquals(source, StrengthReducer.reduce(source));
+    }
+
+    @Test
+    public void reassignedIteratorsKeepDivision() throws Exception {
+        Program source = OptimizerTests.parse(
+                "var total = 0\n" +
+                "for(i in 0..4) {\n" +
+                "    if(i == 2) {\n" +
+                "        i = 0 - 5\n" +
+                "    }\n" +
+                "    total += i / 2\n" +
+                "}\n" +
+                "println(total)");
+        assertEquals(source, StrengthReducer.reduce(source));
+    }
+}
@@ -62,6 +62,14 @@ public class TokenizerTest {
                 KeywordToken.TK_MAIN, KeywordToken.TK_ARRAY_OF, KeywordToken.TK_MUTABLE_LIST_OF);
     }
 
+    // inline is only a keyword before fun, scripts may still name variables and functions inline
+    public static void testInlineModifier() throws TokenizerException {
+        testTokenizes("inline fun f", KeywordToken.TK_INLINE, KeywordToken.TK_FUN, new VariableToken("f"));
+        testTokenizes("var inline = 1", KeywordToken.TK_VAR, new VariableToken("inline"), BinopToken.TK_EQUAL, new IntToken(1));
+        testTokenizes("inline funny", new VariableToken("inline"), new VariableToken("funny"));
+        testTokenizes("inline\nfun", new VariableToken("inline"), SymbolToken.TK_LINE_BREAK, KeywordToken.TK_FUN);
+    }
+
     public static void testBinopToken() throws TokenizerException {
         testTokenizes("+ - */ % || && < > <= >= += -= *= /= == = !=",
                 BinopToken.TK_PLUS, BinopToken.TK_MINUS, BinopToken.TK_MULTIPLY, BinopToken.TK_DIVIDE,
@@ -156,6 +164,7 @@ public class TokenizerTest {
         testIfElseKeywords();
         testIntToken();
         testKeywordToken();
+        testInlineModifier();
         testBinopToken();
         testUnopToken();
         testBracketsToken();
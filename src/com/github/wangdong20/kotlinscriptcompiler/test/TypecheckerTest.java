@@ -4,7 +4,11 @@ import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeInterner;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeMutableList;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IncrementalTypechecker;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.Pair;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
 import org.junit.jupiter.api.Test;
@@ -14,6 +18,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class TypecheckerTest {
@@ -160,6 +165,21 @@ public class TypecheckerTest {
         assertTypecheckProgram(program);
     }
 
+    @Test
+    // var a = arrayOf(1, "two", true)
+    // a[0] = false
+    public void anyArrayWithIndexAssign() throws IllTypedException {
+        List<Stmt> stmtList = new ArrayList<>();
+        List<Exp> exps = new ArrayList<>();
+        exps.add(new IntExp(1));
+        exps.add(new StringExp("two", null));
+        exps.add(new BooleanExp(true));
+        stmtList.add(new AssignStmt(new ArrayOfExp(exps), new VariableExp("a"),false, true));
+        stmtList.add(new AssignStmt(new BooleanExp(false), new ArrayWithIndexExp(new VariableExp("a"), new IntExp(0)), false, false));
+        Program program = new Program(stmtList);
+        assertTypecheckProgram(program);
+    }
+
     @Test
     // var a = true
     // a[2] = 0
@@ -1004,4 +1024,129 @@ public class TypecheckerTest {
         assertTypecheckProgram(program);
     }
 
+    @Test
+    // fun copy(arr: Array<Int>): Array<Int> {
+    //      return arr
+    // }
+    public void returnArrayTypeFunction() throws IllTypedException {
+        List<Stmt> stmtsInBlock = new ArrayList<>();
+        stmtsInBlock.add(new ReturnStmt(new VariableExp("arr")));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("arr"), new TypeArray(BasicType.TYPE_INT));
+        FunctionDeclareStmt functionDeclareStmt = new FunctionDeclareStmt(new VariableExp("copy"), new TypeArray(BasicType.TYPE_INT),
+                parameters, new BlockStmt(stmtsInBlock));
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(functionDeclareStmt);
+        Program program = new Program(stmts);
+        assertTypecheckProgram(program);
+    }
+
+    @Test
+    // fun copy(arr: Array<Int>): Array<Int> {
+    //      return arr
+    // }
+    // val x = arrayOf(1, 2)
+    // val y: Array<Int> = copy(x)
+    public void callOfFunctionReturningArray() throws IllTypedException {
+        List<Stmt> stmtsInBlock = new ArrayList<>();
+        stmtsInBlock.add(new ReturnStmt(new VariableExp("arr")));
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("arr"), new TypeArray(BasicType.TYPE_INT));
+        FunctionDeclareStmt functionDeclareStmt = new FunctionDeclareStmt(new VariableExp("copy"), new TypeArray(BasicType.TYPE_INT),
+                parameters, new BlockStmt(stmtsInBlock));
+        List<Exp> exps = new ArrayList<>();
+        exps.add(new IntExp(1));
+        exps.add(new IntExp(2));
+        List<Exp> arguments = new ArrayList<>();
+        arguments.add(new VariableExp("x"));
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(functionDeclareStmt);
+        stmts.add(new AssignStmt(new ArrayOfExp(exps), new VariableExp("x"), true, true));
+        stmts.add(new AssignStmt(new FunctionInstanceExp(new VariableExp("copy"), arguments), new VariableExp("y"),
+                new TypeArray(BasicType.TYPE_INT), true, true));
+        Program program = new Program(stmts);
+        assertTypecheckProgram(program);
+    }
+
+    @Test
+    public void compositeTypesAreInterned() {
+        assertSame(TypeInterner.arrayOf(BasicType.TYPE_INT), TypeInterner.intern(new TypeArray(BasicType.TYPE_INT)));
+        assertSame(TypeInterner.mutableListOf(BasicType.TYPE_STRING), TypeInterner.intern(new TypeMutableList(BasicType.TYPE_STRING)));
+        List<Type> parameters = new ArrayList<>();
+        parameters.add(new TypeArray(BasicType.TYPE_INT));
+        assertSame(TypeInterner.functionOf(parameters, BasicType.TYPE_INT),
+                TypeInterner.intern(new TypeHighOrderFunction(parameters, BasicType.TYPE_INT)));
+    }
+
+    // fun square(x: parameterType): returnType {
+    //      return squareReturn
+    // }
+    // fun show(x: Int) {
+    //      print(square(x))
+    // }
+    // show(3)
+    private static Program squareShowProgram(Type parameterType, Type returnType, Exp squareReturn) {
+        List<Stmt> squareBody = new ArrayList<>();
+        squareBody.add(new ReturnStmt(squareReturn));
+        LinkedHashMap<Exp, Type> squareParameters = new LinkedHashMap<>();
+        squareParameters.put(new VariableExp("x"), parameterType);
+        List<Stmt> showBody = new ArrayList<>();
+        List<Exp> squareArguments = new ArrayList<>();
+        squareArguments.add(new VariableExp("x"));
+        showBody.add(new PrintStmt(new FunctionInstanceExp(new VariableExp("square"), squareArguments)));
+        LinkedHashMap<Exp, Type> showParameters = new LinkedHashMap<>();
+        showParameters.put(new VariableExp("x"), BasicType.TYPE_INT);
+        List<Exp> showArguments = new ArrayList<>();
+        showArguments.add(new IntExp(3));
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(new FunctionDeclareStmt(new VariableExp("square"), returnType, squareParameters, new BlockStmt(squareBody)));
+        stmts.add(new FunctionDeclareStmt(new VariableExp("show"), BasicType.TYPE_UNIT, showParameters, new BlockStmt(showBody)));
+        stmts.add(new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp("show"), showArguments)));
+        return new Program(stmts);
+    }
+
+    @Test
+    public void incrementalUnchangedProgramIsNotCheckedAgain() throws IllTypedException {
+        IncrementalTypechecker typechecker = new IncrementalTypechecker();
+        Exp xTimesX = new MultiplicativeExp(new VariableExp("x"), new VariableExp("x"), MultiplicativeOp.OP_MULTIPLY);
+        typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT, xTimesX));
+        assertEquals(3, typechecker.getLastChecked().size());
+        typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT, xTimesX));
+        assertEquals(0, typechecker.getLastChecked().size());
+    }
+
+    @Test
+    public void incrementalBodyChangeChecksOnlyThatFunction() throws IllTypedException {
+        IncrementalTypechecker typechecker = new IncrementalTypechecker();
+        typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT,
+                new MultiplicativeExp(new VariableExp("x"), new VariableExp("x"), MultiplicativeOp.OP_MULTIPLY)));
+        Program edited = squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT,
+                new AdditiveExp(new VariableExp("x"), new VariableExp("x"), AdditiveOp.EXP_PLUS));
+        typechecker.typecheckProgram(edited);
+        assertEquals(1, typechecker.getLastChecked().size());
+        assertSame(edited.getStmtList().get(0), typechecker.getLastChecked().get(0));
+    }
+
+    @Test
+    public void incrementalSignatureChangeChecksCallers() throws IllTypedException {
+        IncrementalTypechecker typechecker = new IncrementalTypechecker();
+        typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT,
+                new MultiplicativeExp(new VariableExp("x"), new VariableExp("x"), MultiplicativeOp.OP_MULTIPLY)));
+        Program edited = squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_STRING, new StringExp("square", null));
+        typechecker.typecheckProgram(edited);
+        assertEquals(2, typechecker.getLastChecked().size());
+        assertSame(edited.getStmtList().get(0), typechecker.getLastChecked().get(0));
+        assertSame(edited.getStmtList().get(1), typechecker.getLastChecked().get(1));
+    }
+
+    @Test
+    public void incrementalSignatureChangeBreaksCaller() throws IllTypedException {
+        IncrementalTypechecker typechecker = new IncrementalTypechecker();
+        typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_INT, BasicType.TYPE_INT,
+                new MultiplicativeExp(new VariableExp("x"), new VariableExp("x"), MultiplicativeOp.OP_MULTIPLY)));
+        assertThrows(IllTypedException.class, ()->{
+            typechecker.typecheckProgram(squareShowProgram(BasicType.TYPE_BOOLEAN, BasicType.TYPE_BOOLEAN, new VariableExp("x")));
+        });
+    }
+
 }
@@ -15,6 +15,7 @@ public enum KeywordToken implements Token {
     TK_PRINT,    // print
     TK_PRINTLN,   // println
     TK_FUN,        // fun(function in Kotlin)
+    TK_INLINE,     // inline, modifier of fun
     TK_TRUE,        // true
     TK_FALSE,        // false
     TK_MAIN,         // main
@@ -138,6 +138,10 @@ public class Tokenizer {
                 inputPos++;
             }
 
+            // inline is a modifier, a keyword only right before fun and a name anywhere else
+            if(letters.equals("inline") && isFollowedByWord("fun")) {
+                return KeywordToken.TK_INLINE;
+            }
             // Now consider all the keyword case
             if(keywordMap.containsKey(letters)) {
                 return keywordMap.get(letters);
@@ -153,6 +157,20 @@ public class Tokenizer {
         }
     }
 
+    // Whether word comes next on the line, after spaces and tabs, as a whole word.
+    private boolean isFollowedByWord(final String word) {
+        int pos = inputPos;
+        while(pos < input.length && Character.isWhitespace(input[pos]) && input[pos] != '\n') {
+            pos++;
+        }
+        for(int i = 0; i < word.length(); i++, pos++) {
+            if(pos >= input.length || input[pos] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return pos >= input.length || !Character.isLetterOrDigit(input[pos]);
+    }
+
     private Token tryTokenizeBracket() {
         if(inputPos < input.length) {
             String key = Character.toString(input[inputPos]);
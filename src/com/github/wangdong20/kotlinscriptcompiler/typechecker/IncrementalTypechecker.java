@@ -0,0 +1,102 @@
+package com.github.wangdong20.kotlinscriptcompiler.typechecker;
+
+import com.github.wangdong20.kotlinscriptcompiler.analysis.CallGraph;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Variable;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeInterner;
+
+import java.util.*;
+
+/**
+ * Typecheck the same program again and again while it is being edited. Every top-level statement
+ * (a function declaration is one too) is a unit whose result only depends on its own body, the scope
+ * it is checked in and the signatures of the functions it calls, found with the CallGraph. A unit is
+ * only checked again when one of those changed, so editing one function body re-checks that function
+ * alone, and changing its signature re-checks it together with its callers.
+ */
+public class IncrementalTypechecker {
+
+    private static class UnitKey {
+        private final String body;
+        private final List<Pair<List<Type>, Type>> calleeSignatures;
+        private final Map<Variable, Pair<Type, Boolean>> gamma;
+        private final int hash;
+
+        private UnitKey(String body, List<Pair<List<Type>, Type>> calleeSignatures, Map<Variable, Pair<Type, Boolean>> gamma) {
+            this.body = body;
+            this.calleeSignatures = calleeSignatures;
+            this.gamma = gamma;
+            this.hash = Objects.hash(body, calleeSignatures, gamma);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(obj instanceof UnitKey) {
+                UnitKey other = (UnitKey) obj;
+                return hash == other.hash && body.equals(other.body)
+                        && calleeSignatures.equals(other.calleeSignatures) && gamma.equals(other.gamma);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Scope after each unit that was checked successfully, scopes are never modified once built.
+    private Map<UnitKey, Map<Variable, Pair<Type, Boolean>>> checkedUnits;
+    private final List<Stmt> lastChecked;
+
+    public IncrementalTypechecker() {
+        checkedUnits = new HashMap<>();
+        lastChecked = new ArrayList<>();
+    }
+
+    public void typecheckProgram(final Program program) throws IllTypedException {
+        Typechecker.loadFunctions(program);
+        CallGraph callGraph = CallGraph.build(program);
+        Map<UnitKey, Map<Variable, Pair<Type, Boolean>>> stillValid = new HashMap<>();
+        Map<Variable, Pair<Type, Boolean>> gamma = new HashMap<>();
+        lastChecked.clear();
+
+        for(Stmt s : program.getStmtList()) {
+            UnitKey key = new UnitKey(s.toString(), calleeSignatures(callGraph, s), gamma);
+            Map<Variable, Pair<Type, Boolean>> after = checkedUnits.get(key);
+            if(after == null) {
+                after = Typechecker.typecheckToplevelStmt(gamma, s);
+                lastChecked.add(s);
+            }
+            stillValid.put(key, after);
+            gamma = after;
+        }
+        // forget units that are no longer in the program
+        checkedUnits = stillValid;
+    }
+
+    /**
+     * Top-level statements that were actually checked by the last call of typecheckProgram.
+     */
+    public List<Stmt> getLastChecked() {
+        return lastChecked;
+    }
+
+    private static List<Pair<List<Type>, Type>> calleeSignatures(CallGraph callGraph, Stmt s) {
+        List<Pair<List<Type>, Type>> signatures = new ArrayList<>();
+        for(String name : CallGraph.calledNames(s)) {    // sorted
+            for(FunctionDeclareStmt function : callGraph.getFunctions(name)) {
+                List<Type> parameters = new ArrayList<>();
+                for(Map.Entry<Exp, Type> entry : function.getParameterList().entrySet()) {
+                    parameters.add(TypeInterner.intern(entry.getValue()));
+                }
+                signatures.add(new Pair<>(parameters, TypeInterner.intern(function.getReturnType())));
+            }
+        }
+        return signatures;
+    }
+}